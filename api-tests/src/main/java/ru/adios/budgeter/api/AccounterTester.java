@@ -25,6 +25,8 @@ import ru.adios.budgeter.api.data.BalanceAccount;
 import ru.adios.budgeter.api.data.FundsMutationAgent;
 import ru.adios.budgeter.api.data.FundsMutationEvent;
 import ru.adios.budgeter.api.data.FundsMutationSubject;
+import ru.adios.budgeter.api.data.PostponedExchange;
+import ru.adios.budgeter.api.data.PostponedMutationEvent;
 
 import java.math.BigDecimal;
 import java.time.OffsetDateTime;
@@ -34,6 +36,8 @@ import java.util.Optional;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -133,6 +137,57 @@ public final class AccounterTester {
         if (!expectedSecond.equals(p1.sufferingUnits) && !expectedSecond.equals(p2.sufferingUnits)) {
             fail("Expected set " + expectedSecond + " don't match either of " + p1.sufferingUnits + " and " + p2.sufferingUnits);
         }
+
+        final Optional<Accounter.PostponingReasons> firstPage = bundle.accounter().getPostponingReasonsAfter(Optional.empty(), compat);
+        assertTrue("No first day page", firstPage.isPresent());
+        assertEquals(daySecond, firstPage.get().dayUtc);
+        assertEquals(expectedSecond, firstPage.get().sufferingUnits);
+        final Optional<Accounter.PostponingReasons> secondPage = bundle.accounter().getPostponingReasonsAfter(Optional.of(daySecond), compat);
+        assertTrue("No second day page", secondPage.isPresent());
+        assertEquals(today, secondPage.get().dayUtc);
+        assertEquals(expectedFirst, secondPage.get().sufferingUnits);
+        assertFalse("Page after the last day", bundle.accounter().getPostponingReasonsAfter(Optional.of(today), compat).isPresent());
+    }
+
+    public void testStreamAllPostponingReasonsProcessed() throws Exception {
+        bundle.clearSchema();
+
+        final FundsMutationSubject food = FundsMutationSubject.builder(bundle.fundsMutationSubjects()).setName("Food").setType(FundsMutationSubject.Type.PRODUCT).build();
+        final FundsMutationAgent agent = TestUtils.prepareTestAgent(bundle);
+        final BalanceAccount accountRub = TestUtils.prepareBalance(bundle, Units.RUB);
+        final BalanceAccount accountEur = TestUtils.prepareBalance(bundle, CurrencyUnit.EUR);
+        final FundsMutationEvent breadBuy = FundsMutationEvent.builder()
+                .setPortion(BigDecimal.valueOf(10))
+                .setSubject(bundle.fundsMutationSubjects().addSubject(food))
+                .setAmount(Money.of(Units.RUB, BigDecimal.valueOf(50L)))
+                .setRelevantBalance(accountRub)
+                .setAgent(agent)
+                .build();
+
+        final UtcDay today = new UtcDay();
+        final UtcDay yesterday = new UtcDay(today.inner.minus(1, ChronoUnit.DAYS));
+        final PostponedFundsMutationEventRepository postMutRepo = bundle.accounter().postponedFundsMutationEventRepository();
+        final PostponedCurrencyExchangeEventRepository postExRepo = bundle.accounter().postponedCurrencyExchangeEventRepository();
+        postMutRepo.rememberPostponedExchangeableEvent(breadBuy, CurrencyUnit.USD, Optional.empty());
+        postExRepo.rememberPostponedExchange(BigDecimal.valueOf(100L), accountEur, accountRub, Optional.empty(), yesterday.inner, agent);
+        postExRepo.rememberPostponedExchange(BigDecimal.valueOf(200L), accountEur, accountRub, Optional.empty(), yesterday.inner, agent);
+
+        final List<PostponedMutationEvent> mutations = postMutRepo.streamRememberedEvents(today, Units.RUB, CurrencyUnit.USD).collect(Collectors.toList());
+        assertEquals(1, mutations.size());
+        assertTrue(postMutRepo.markEventProcessed(mutations.get(0)));
+        assertTrue("Repeated processing must not affect reasons", postMutRepo.markEventProcessed(mutations.get(0)));
+
+        List<Accounter.PostponingReasons> collected = bundle.accounter().streamAllPostponingReasons().collect(Collectors.toList());
+        assertEquals("Processed event still postpones: " + collected, 1, collected.size());
+        assertEquals(yesterday, collected.get(0).dayUtc);
+        assertEquals(ImmutableSet.of(CurrencyUnit.EUR, Units.RUB), collected.get(0).sufferingUnits);
+
+        final List<PostponedExchange> exchanges = postExRepo.streamRememberedExchanges(yesterday, CurrencyUnit.EUR, Units.RUB).collect(Collectors.toList());
+        assertEquals(2, exchanges.size());
+        assertTrue(postExRepo.markEventProcessed(exchanges.get(0)));
+        assertEquals("One exchange is still relevant", 1, bundle.accounter().streamAllPostponingReasons(true).count());
+        postExRepo.markEventsProcessed(exchanges);
+        assertEquals("All events processed", 0, bundle.accounter().streamAllPostponingReasons().count());
     }
 
     public void testStreamAllPostponingReasonsEmptyCompat() throws Exception {
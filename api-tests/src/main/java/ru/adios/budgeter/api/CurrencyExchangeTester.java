@@ -20,12 +20,14 @@ package ru.adios.budgeter.api;
 
 import org.joda.money.CurrencyUnit;
 import org.joda.money.Money;
+import ru.adios.budgeter.api.data.BalanceAccount;
 import ru.adios.budgeter.api.data.CurrencyExchangeEvent;
 import ru.adios.budgeter.api.data.FundsMutationAgent;
 
 import java.math.BigDecimal;
 import java.time.OffsetDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -87,6 +89,32 @@ public final class CurrencyExchangeTester {
         assertEquals("Wrong number of records", 3, curExEvents.countExchangeEvents());
     }
 
+    public void testRegisterAll() throws Exception {
+        bundle.clear(Bundle.Repo.FUNDS_MUTATION_AGENTS);
+        final FundsMutationAgent agent = bundle.fundsMutationAgents().addAgent(FundsMutationAgent.builder().setName("Test").build());
+        final BalanceAccount rub = TestUtils.prepareBalance(bundle, Units.RUB);
+        final BalanceAccount usd = TestUtils.prepareBalance(bundle, CurrencyUnit.USD);
+        final OffsetDateTime ts = new UtcDay().add(-3).inner;
+        final ArrayList<CurrencyExchangeEvent> events = new ArrayList<>();
+        for (int i = 1; i <= 7; i++) {
+            events.add(CurrencyExchangeEvent.builder()
+                    .setBought(Money.of(Units.RUB, BigDecimal.valueOf(60L * i)))
+                    .setSold(Money.of(CurrencyUnit.USD, BigDecimal.valueOf(i)))
+                    .setBoughtAccount(rub)
+                    .setSoldAccount(usd)
+                    .setRate(BigDecimal.valueOf(60L))
+                    .setTimestamp(ts)
+                    .setAgent(agent)
+                    .build());
+        }
+        final CurrencyExchangeEventRepository curExEvents = bundle.currencyExchangeEvents();
+        final int countBefore = curExEvents.countExchangeEvents();
+        curExEvents.registerAll(events);
+
+        assertEquals("Wrong number of records", countBefore + 7, curExEvents.countExchangeEvents());
+        assertEquals("Stream for day counted wrong", 7, curExEvents.streamForDay(new UtcDay(ts)).count());
+    }
+
     public void testStreamExchangeEvents() throws Exception {
         testRegisterCurrencyExchange();
         final CurrencyExchangeEventRepository curExEvents = bundle.currencyExchangeEvents();
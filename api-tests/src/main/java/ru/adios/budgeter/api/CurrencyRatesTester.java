@@ -18,10 +18,14 @@
 
 package ru.adios.budgeter.api;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
 import org.joda.money.CurrencyUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.adios.budgeter.api.data.ConversionPair;
 import ru.adios.budgeter.api.data.ConversionRate;
 
 import java.io.PrintWriter;
@@ -31,6 +35,7 @@ import java.math.BigInteger;
 import java.math.MathContext;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CopyOnWriteArraySet;
@@ -128,6 +133,30 @@ public final class CurrencyRatesTester {
         }
     }
 
+    public void testAddRates() throws Exception {
+        final CurrencyRatesRepository ratesRepository = bundle.currencyRates();
+
+        bundle.clear(Bundle.Repo.CURRENCY_RATES);
+        final UtcDay today = new UtcDay();
+        assertTrue(ratesRepository.addRate(today, Units.RUB, CurrencyUnit.USD, BigDecimal.valueOf(55)));
+
+        final ConversionPair rubUsd = new ConversionPair(Units.RUB, CurrencyUnit.USD);
+        final ConversionPair rubEur = new ConversionPair(Units.RUB, CurrencyUnit.EUR);
+        final ConversionPair rubChf = new ConversionPair(Units.RUB, CurrencyUnit.CHF);
+        final int added = ratesRepository.addRates(today, ImmutableMap.of(
+                rubUsd, BigDecimal.valueOf(56),
+                rubEur, BigDecimal.valueOf(65),
+                rubChf, BigDecimal.valueOf(60)
+        ));
+        assertEquals("Present rate must be skipped", 2, added);
+
+        final ImmutableMap<ConversionPair, BigDecimal> stored = ratesRepository.getConversionMultipliersStraight(today, ImmutableList.of(rubUsd, rubEur, rubChf));
+        assertEquals(BigDecimal.valueOf(55), stored.get(rubUsd));
+        assertEquals(BigDecimal.valueOf(65), stored.get(rubEur));
+        assertEquals(BigDecimal.valueOf(60), stored.get(rubChf));
+        assertEquals(0, ratesRepository.addRates(today, ImmutableMap.of()));
+    }
+
     public void testGetConversionMultiplier() throws Exception {
         final CurrencyRatesRepository ratesRepository = bundle.currencyRates();
 
@@ -141,12 +170,86 @@ public final class CurrencyRatesTester {
         assertFalse(none.isPresent());
     }
 
+    public void testGetConversionMultipliers() throws Exception {
+        final CurrencyRatesRepository ratesRepository = bundle.currencyRates();
+
+        bundle.clear(Bundle.Repo.CURRENCY_RATES);
+        final UtcDay today = new UtcDay();
+        final UtcDay yesterday = today.add(-1);
+        final BigDecimal usdRate = BigDecimal.valueOf(55);
+        final BigDecimal eurRate = BigDecimal.valueOf(65);
+        ratesRepository.addRate(today, Units.RUB, CurrencyUnit.USD, usdRate);
+        ratesRepository.addRate(today, Units.RUB, CurrencyUnit.EUR, eurRate);
+        ratesRepository.addRate(yesterday, Units.RUB, CurrencyUnit.USD, eurRate);
+
+        final ConversionPair rubUsd = new ConversionPair(Units.RUB, CurrencyUnit.USD);
+        final ConversionPair usdRub = new ConversionPair(CurrencyUnit.USD, Units.RUB);
+        final ConversionPair usdEur = new ConversionPair(CurrencyUnit.USD, CurrencyUnit.EUR);
+        final ConversionPair usdChf = new ConversionPair(CurrencyUnit.USD, CurrencyUnit.CHF);
+        final ImmutableList<ConversionPair> pairs = ImmutableList.of(rubUsd, usdRub, usdEur, usdChf);
+
+        final ImmutableMap<ConversionPair, BigDecimal> forToday = ratesRepository.getConversionMultipliers(today, pairs);
+        assertEquals(3, forToday.size());
+        assertEquals(usdRate, forToday.get(rubUsd));
+        assertEquals(CurrencyRatesProvider.reverseRate(usdRate), forToday.get(usdRub));
+        assertEquals(CurrencyRatesProvider.getConversionMultiplierFromIntermediateMultipliers(usdRate, eurRate), forToday.get(usdEur));
+        assertFalse(forToday.containsKey(usdChf));
+
+        final ImmutableMap<ConversionPair, BigDecimal> straight = ratesRepository.getConversionMultipliersStraight(today, pairs);
+        assertEquals(1, straight.size());
+        assertEquals(usdRate, straight.get(rubUsd));
+
+        final ImmutableTable<UtcDay, ConversionPair, BigDecimal> table = ratesRepository.getConversionMultipliers(ImmutableList.of(today, yesterday), pairs);
+        assertEquals(forToday, table.row(today));
+        assertEquals(2, table.row(yesterday).size());
+        assertEquals(eurRate, table.get(yesterday, rubUsd));
+        assertEquals(CurrencyRatesProvider.reverseRate(eurRate), table.get(yesterday, usdRub));
+    }
+
+    public void testGetConversionMultipliersStraightMany() throws Exception {
+        final CurrencyRatesRepository ratesRepository = bundle.currencyRates();
+
+        bundle.clear(Bundle.Repo.CURRENCY_RATES);
+        final UtcDay today = new UtcDay();
+        final UtcDay longAgo = today.add(-999);
+        ratesRepository.addRate(today, Units.RUB, CurrencyUnit.USD, BigDecimal.valueOf(55));
+        ratesRepository.addRate(longAgo, CurrencyUnit.EUR, CurrencyUnit.CHF, BigDecimal.valueOf(2));
+
+        // more days and pairs than a single query may take parameters for
+        final ArrayList<UtcDay> days = new ArrayList<>(1000);
+        for (int i = 0; i < 1000; i++) {
+            days.add(today.add(-i));
+        }
+        final ArrayList<ConversionPair> pairs = new ArrayList<>();
+        for (final CurrencyUnit unit : CurrencyUnit.registeredCurrencies()) {
+            if (unit.getNumericCode() > 0 && !unit.equals(Units.RUB) && !unit.equals(CurrencyUnit.EUR)) {
+                pairs.add(new ConversionPair(Units.RUB, unit));
+                pairs.add(new ConversionPair(unit, Units.RUB));
+                pairs.add(new ConversionPair(CurrencyUnit.EUR, unit));
+            }
+        }
+
+        final ImmutableTable<UtcDay, ConversionPair, BigDecimal> table = ratesRepository.getConversionMultipliersStraight(days, pairs);
+        assertEquals(2, table.size());
+        assertEquals(BigDecimal.valueOf(55), table.get(today, new ConversionPair(Units.RUB, CurrencyUnit.USD)));
+        assertEquals(BigDecimal.valueOf(2), table.get(longAgo, new ConversionPair(CurrencyUnit.EUR, CurrencyUnit.CHF)));
+    }
+
     public void testGetLatestOptionalConversionMultiplier() throws Exception {
         final CurrencyRatesRepository ratesRepository = bundle.currencyRates();
 
         ratesRepository.addRate(new UtcDay(), CurrencyUnit.EUR, CurrencyUnit.USD, BigDecimal.valueOf(1234));
         assertEquals(CurrencyRatesProvider.reverseRate(BigDecimal.valueOf(1234)),
                 ratesRepository.getLatestOptionalConversionMultiplierBidirectional(CurrencyUnit.USD, CurrencyUnit.EUR).get());
+
+        // latest by day, not by insertion order
+        final UtcDay today = new UtcDay();
+        ratesRepository.addRate(today.add(-1), CurrencyUnit.CHF, CurrencyUnit.CAD, BigDecimal.valueOf(2));
+        ratesRepository.addRate(today.add(-3), CurrencyUnit.CHF, CurrencyUnit.CAD, BigDecimal.valueOf(3));
+        assertEquals(BigDecimal.valueOf(2), ratesRepository.getLatestOptionalConversionMultiplier(CurrencyUnit.CHF, CurrencyUnit.CAD).get());
+        ratesRepository.addRate(today, CurrencyUnit.CHF, CurrencyUnit.CAD, BigDecimal.valueOf(4));
+        assertEquals(BigDecimal.valueOf(4), ratesRepository.getLatestOptionalConversionMultiplier(CurrencyUnit.CHF, CurrencyUnit.CAD).get());
+        assertFalse(ratesRepository.getLatestOptionalConversionMultiplier(CurrencyUnit.CAD, CurrencyUnit.CHF).isPresent());
     }
 
     public void testIsRateStale() throws Exception {
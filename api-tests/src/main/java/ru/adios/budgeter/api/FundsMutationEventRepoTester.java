@@ -18,6 +18,7 @@
 
 package ru.adios.budgeter.api;
 
+import com.google.common.collect.ImmutableList;
 import org.joda.money.CurrencyUnit;
 import org.joda.money.Money;
 import ru.adios.budgeter.api.data.BalanceAccount;
@@ -26,6 +27,11 @@ import ru.adios.budgeter.api.data.FundsMutationEvent;
 import ru.adios.budgeter.api.data.FundsMutationSubject;
 
 import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 
@@ -182,6 +188,37 @@ public final class FundsMutationEventRepoTester {
         assertEquals("Stream for day counted wrong", 3, bundle.fundsMutationEvents().streamForDay(new UtcDay()).count());
     }
 
+    public void testRegisterAll() throws Exception {
+        final FundsMutationEventRepository mutationEventRepository = bundle.fundsMutationEvents();
+
+        final FundsMutationSubject food = getFoodSubject(bundle.fundsMutationSubjects());
+        final FundsMutationAgent agent = TestUtils.prepareTestAgent(bundle);
+        final BalanceAccount accountRub = TestUtils.prepareBalance(bundle, Units.RUB);
+        final OffsetDateTime ts = OffsetDateTime.of(2001, 3, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+        // more than fits in a single insert batch
+        final ArrayList<FundsMutationEvent> events = new ArrayList<>(600);
+        for (int i = 1; i <= 600; i++) {
+            events.add(FundsMutationEvent.builder()
+                    .setSubject(food)
+                    .setAmount(Money.of(Units.RUB, BigDecimal.valueOf(i % 3 == 0 ? i : -i)))
+                    .setRelevantBalance(accountRub)
+                    .setAgent(agent)
+                    .setTimestamp(ts)
+                    .build());
+        }
+        final int countBefore = mutationEventRepository.countMutationEvents();
+        mutationEventRepository.registerAll(events);
+
+        assertEquals("Wrong number of records", countBefore + 600, mutationEventRepository.countMutationEvents());
+        final List<FundsMutationEvent> forDay = mutationEventRepository.streamForDay(new UtcDay(ts)).collect(Collectors.toList());
+        assertEquals("Stream for day counted wrong", 600, forDay.size());
+        assertEquals("Benefits counted wrong", 200, forDay.stream().filter(event -> event.amount.isPositive()).count());
+        assertEquals("Last event isn't the latest one", events.get(599), mutationEventRepository.getById(mutationEventRepository.currentSeqValue()).get());
+
+        mutationEventRepository.registerAll(ImmutableList.of());
+        assertEquals(countBefore + 600, mutationEventRepository.countMutationEvents());
+    }
+
     private FundsMutationSubject getFoodSubject(FundsMutationSubjectRepository subjectRepository) {
         FundsMutationSubject food;
         try {
@@ -18,16 +18,23 @@
 
 package ru.adios.budgeter.api;
 
+import com.google.common.collect.ImmutableList;
 import org.joda.money.CurrencyUnit;
 import org.joda.money.Money;
+import ru.adios.budgeter.api.data.BalanceAccount;
 import ru.adios.budgeter.api.data.FundsMutationAgent;
+import ru.adios.budgeter.api.data.PostponedExchange;
 
 import java.math.BigDecimal;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.stream.Collectors;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 /**
  * Date: 10/26/15
@@ -72,4 +79,45 @@ public final class PostponedCurrencyExchangeEventRepoTester {
                 assertEquals("Wrong stream: " + postponedExchange.toBuy, Money.of(CurrencyUnit.EUR, BigDecimal.valueOf(1000L)), Money.of(CurrencyUnit.EUR, postponedExchange.toBuy)));
     }
 
+    public void testMarkEventsProcessed() throws Exception {
+        final PostponedCurrencyExchangeEventRepository postExRepo = bundle.postponedCurrencyExchangeEvents();
+        final OffsetDateTime timestamp = OffsetDateTime.of(2000, 1, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+        final BalanceAccount eur = TestUtils.prepareBalance(bundle, CurrencyUnit.EUR);
+        final BalanceAccount usd = TestUtils.prepareBalance(bundle, CurrencyUnit.USD);
+        for (int i = 1; i <= 3; i++) {
+            postExRepo.rememberPostponedExchange(BigDecimal.valueOf(i), eur, usd, Optional.empty(), timestamp, agent);
+        }
+
+        final UtcDay day = new UtcDay(timestamp);
+        final List<PostponedExchange> remembered = postExRepo.streamRememberedExchanges(day, CurrencyUnit.EUR, CurrencyUnit.USD).collect(Collectors.toList());
+        assertEquals(3, remembered.size());
+        assertEquals("Not all exchanges marked", 2, postExRepo.markEventsProcessed(remembered.subList(0, 2)));
+        assertEquals("Marked exchanges are still relevant", 1, postExRepo.streamRememberedExchanges(day, CurrencyUnit.EUR, CurrencyUnit.USD).count());
+        assertEquals(0, postExRepo.markEventsProcessed(ImmutableList.of()));
+    }
+
+    public void testRegisterAll() throws Exception {
+        final PostponedCurrencyExchangeEventRepository postExRepo = bundle.postponedCurrencyExchangeEvents();
+        final OffsetDateTime timestamp = OffsetDateTime.of(2000, 1, 2, 12, 0, 0, 0, ZoneOffset.UTC);
+        final BalanceAccount eur = TestUtils.prepareBalance(bundle, CurrencyUnit.EUR);
+        final BalanceAccount usd = TestUtils.prepareBalance(bundle, CurrencyUnit.USD);
+        final ArrayList<PostponedExchange> exchanges = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            exchanges.add(new PostponedExchange(OptionalLong.empty(), BigDecimal.valueOf(i), eur, usd, Optional.empty(), timestamp, agent, false));
+        }
+        final UtcDay day = new UtcDay(timestamp);
+        assertFalse(isPostponed(day));
+        postExRepo.registerAll(exchanges);
+
+        assertTrue("Postponing reasons weren't updated", isPostponed(day));
+        assertEquals("Not all exchanges registered as relevant", 5, postExRepo.streamRememberedExchanges(day, CurrencyUnit.EUR, CurrencyUnit.USD).count());
+        assertEquals("Ids weren't assigned", 5, postExRepo.streamRememberedExchanges(day, CurrencyUnit.EUR, CurrencyUnit.USD).filter(e -> e.id.isPresent()).map(e -> e.id.getAsLong()).distinct().count());
+        postExRepo.registerAll(ImmutableList.of());
+        assertEquals(5, postExRepo.streamRememberedExchanges(day, CurrencyUnit.EUR, CurrencyUnit.USD).count());
+    }
+
+    private boolean isPostponed(UtcDay day) {
+        return bundle.accounter().streamAllPostponingReasons().anyMatch(reasons -> reasons.dayUtc.equals(day));
+    }
+
 }
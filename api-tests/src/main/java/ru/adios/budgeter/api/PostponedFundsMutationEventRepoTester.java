@@ -18,6 +18,7 @@
 
 package ru.adios.budgeter.api;
 
+import com.google.common.collect.ImmutableList;
 import org.joda.money.CurrencyUnit;
 import org.joda.money.Money;
 import ru.adios.budgeter.api.data.*;
@@ -25,11 +26,13 @@ import ru.adios.budgeter.api.data.*;
 import java.math.BigDecimal;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.stream.Collectors;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 /**
  * Date: 10/26/15
@@ -212,4 +215,87 @@ public final class PostponedFundsMutationEventRepoTester {
         assertEquals(0, bundle.postponedFundsMutationEvents().streamRememberedLosses(BOGUS_DAY, CurrencyUnit.USD, CurrencyUnit.EUR).count());
     }
 
+    public void testMarkEventsProcessed() throws Exception {
+        final PostponedFundsMutationEventRepository postMutRepo = bundle.postponedFundsMutationEvents();
+        final OffsetDateTime ts = OffsetDateTime.of(1996, 6, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+        final UtcDay day = new UtcDay(ts);
+        final FundsMutationSubject food = prepareFood();
+        final FundsMutationAgent agent = TestUtils.prepareTestAgent(bundle);
+        final BalanceAccount accountRub = TestUtils.prepareBalance(bundle, Units.RUB);
+
+        // more than fits in a single IN-list update
+        final int total = 1000;
+        final ArrayList<PostponedMutationEvent> events = new ArrayList<>(total);
+        for (int i = 1; i <= total; i++) {
+            final FundsMutationEvent breadBuy = FundsMutationEvent.builder()
+                    .setPortion(BigDecimal.ONE)
+                    .setSubject(food)
+                    .setAmount(Money.of(Units.RUB, BigDecimal.valueOf(-i)))
+                    .setRelevantBalance(accountRub)
+                    .setAgent(agent)
+                    .setTimestamp(ts)
+                    .build();
+            events.add(new PostponedMutationEvent(OptionalLong.empty(), breadBuy, CurrencyUnit.USD, Optional.empty(), true));
+        }
+        postMutRepo.registerAll(events);
+
+        final List<PostponedMutationEvent> remembered = postMutRepo.streamRememberedLosses(day, Units.RUB, CurrencyUnit.USD).collect(Collectors.toList());
+        assertEquals(total, remembered.size());
+        assertEquals("Not all events marked", 950, postMutRepo.markEventsProcessed(remembered.subList(0, 950)));
+        assertEquals("Marked events are still relevant", 50, postMutRepo.streamRememberedLosses(day, Units.RUB, CurrencyUnit.USD).count());
+        assertTrue("Day is no longer postponed", isPostponed(day));
+
+        assertEquals(50, postMutRepo.markEventsProcessed(remembered.subList(950, total)));
+        assertEquals(0, postMutRepo.streamRememberedEvents(day, Units.RUB, CurrencyUnit.USD).count());
+        assertFalse("Reasons outlived their events", isPostponed(day));
+        assertEquals(0, postMutRepo.markEventsProcessed(ImmutableList.of()));
+    }
+
+    public void testRegisterAll() throws Exception {
+        final PostponedFundsMutationEventRepository postMutRepo = bundle.postponedFundsMutationEvents();
+        final OffsetDateTime ts = OffsetDateTime.of(1996, 7, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+        final UtcDay day = new UtcDay(ts);
+        final FundsMutationSubject food = prepareFood();
+        final FundsMutationAgent agent = TestUtils.prepareTestAgent(bundle);
+        final BalanceAccount accountRub = TestUtils.prepareBalance(bundle, Units.RUB);
+        final ArrayList<PostponedMutationEvent> events = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            final FundsMutationEvent breadBuy = FundsMutationEvent.builder()
+                    .setPortion(BigDecimal.ONE)
+                    .setSubject(food)
+                    .setAmount(Money.of(Units.RUB, BigDecimal.valueOf(i % 2 == 0 ? i : -i)))
+                    .setRelevantBalance(accountRub)
+                    .setAgent(agent)
+                    .setTimestamp(ts)
+                    .build();
+            // ids and relevance are ignored
+            events.add(new PostponedMutationEvent(OptionalLong.of(-i), breadBuy, CurrencyUnit.USD, Optional.empty(), false));
+        }
+        assertFalse(isPostponed(day));
+        postMutRepo.registerAll(events);
+
+        assertTrue("Postponing reasons weren't updated", isPostponed(day));
+        assertEquals("Not all events registered as relevant", 5, postMutRepo.streamRememberedEvents(day, Units.RUB, CurrencyUnit.USD).count());
+        assertEquals(2, postMutRepo.streamRememberedBenefits(day, Units.RUB, CurrencyUnit.USD).count());
+        assertEquals(3, postMutRepo.streamRememberedLosses(day, Units.RUB, CurrencyUnit.USD).count());
+        assertEquals("Ids weren't assigned", 5, postMutRepo.streamRememberedEvents(day, Units.RUB, CurrencyUnit.USD)
+                .map(e -> e.id.getAsLong()).filter(id -> id > 0).distinct().count());
+
+        postMutRepo.registerAll(ImmutableList.of());
+        assertEquals(5, postMutRepo.streamRememberedEvents(day, Units.RUB, CurrencyUnit.USD).count());
+    }
+
+    private boolean isPostponed(UtcDay day) {
+        return bundle.accounter().streamAllPostponingReasons().anyMatch(reasons -> reasons.dayUtc.equals(day));
+    }
+
+    private FundsMutationSubject prepareFood() {
+        final FundsMutationSubjectRepository subjectRepository = bundle.fundsMutationSubjects();
+        try {
+            return subjectRepository.addSubject(FundsMutationSubject.builder(subjectRepository).setName("Food").setType(FundsMutationSubject.Type.PRODUCT).build());
+        } catch (Exception ignore) {
+            return subjectRepository.findByName("Food").orElseThrow(() -> new IllegalStateException("Unable to create Food and fetch it simultaneously", ignore));
+        }
+    }
+
 }
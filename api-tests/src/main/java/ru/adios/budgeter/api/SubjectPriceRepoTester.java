@@ -18,12 +18,14 @@
 
 package ru.adios.budgeter.api;
 
+import com.google.common.collect.ImmutableList;
 import org.joda.money.Money;
 import ru.adios.budgeter.api.data.FundsMutationAgent;
 import ru.adios.budgeter.api.data.FundsMutationSubject;
 import ru.adios.budgeter.api.data.SubjectPrice;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
@@ -208,6 +210,38 @@ public class SubjectPriceRepoTester {
         );
     }
 
+    public void testRegisterAll() throws Exception {
+        final SubjectPriceRepository subjectPrices = bundle.subjectPrices();
+
+        final FundsMutationSubject food = TestUtils.getSubject(bundle, "Food");
+        final FundsMutationAgent agent = TestUtils.prepareTestAgent(bundle);
+        final UtcDay now = new UtcDay();
+        // more than fits in a single insert batch
+        final ArrayList<SubjectPrice> prices = new ArrayList<>(600);
+        for (int i = 0; i < 600; i++) {
+            prices.add(SubjectPrice.builder()
+                    .setPrice(Money.of(Units.RUB, BigDecimal.valueOf(i + 1)))
+                    .setDay(now.add(-i))
+                    .setSubject(food)
+                    .setAgent(agent)
+                    .build());
+        }
+        subjectPrices.registerAll(prices);
+
+        assertEquals("Wrong number of prices", 600, subjectPrices.count(food));
+        assertEquals("Wrong number of prices", 600, subjectPrices.countByAgent(food, agent));
+        assertTrue("Price does not exist though registered", subjectPrices.priceExists(food, agent, now.add(-599)));
+        assertFalse(subjectPrices.priceExists(food, agent, now.add(-600)));
+        assertEquals(
+                "Not latest price though ordered DESC",
+                prices.get(0),
+                subjectPrices.streamByAgent(food, agent, new OrderBy<>(SubjectPriceRepository.Field.DAY, Order.DESC), OptLimit.createLimit(1)).findFirst().get()
+        );
+
+        subjectPrices.registerAll(ImmutableList.of());
+        assertEquals(600, subjectPrices.count(food));
+    }
+
     public void testCount() throws Exception {
         final SubjectPriceRepository subjectPrices = bundle.subjectPrices();
 
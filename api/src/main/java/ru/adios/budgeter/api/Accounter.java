@@ -22,6 +22,8 @@ import com.google.common.collect.ImmutableSet;
 import org.joda.money.CurrencyUnit;
 
 import javax.annotation.concurrent.Immutable;
+import java.util.Comparator;
+import java.util.Optional;
 import java.util.stream.Stream;
 
 /**
@@ -49,6 +51,18 @@ public interface Accounter {
 
     Stream<PostponingReasons> streamAllPostponingReasons(boolean compatMode);
 
+    /**
+     * Reasons of the earliest day with postponed events after the given one (of the earliest day at all if empty),
+     * to go through days one query at a time without keeping a stream open between them.
+     */
+    default Optional<PostponingReasons> getPostponingReasonsAfter(Optional<UtcDay> after, boolean compatMode) {
+        try (final Stream<PostponingReasons> reasons = streamAllPostponingReasons(compatMode)) {
+            return reasons
+                    .filter(postponingReasons -> !after.isPresent() || postponingReasons.dayUtc.compareTo(after.get()) > 0)
+                    .min(Comparator.comparing(postponingReasons -> postponingReasons.dayUtc));
+        }
+    }
+
     FundsMutationSubjectRepository fundsMutationSubjectRepo();
 
     FundsMutationAgentRepository fundsMutationAgentRepo();
@@ -21,6 +21,7 @@ package ru.adios.budgeter.api;
 import ru.adios.budgeter.api.data.CurrencyExchangeEvent;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Stream;
@@ -39,6 +40,15 @@ public interface CurrencyExchangeEventRepository extends Provider<CurrencyExchan
 
     void registerCurrencyExchange(CurrencyExchangeEvent exchangeEvent);
 
+    /**
+     * Registers all given exchanges at once, implementations may do it in bulk.
+     */
+    default void registerAll(Collection<CurrencyExchangeEvent> exchangeEvents) {
+        for (final CurrencyExchangeEvent exchangeEvent : exchangeEvents) {
+            registerCurrencyExchange(exchangeEvent);
+        }
+    }
+
     int countExchangeEvents();
 
     Stream<CurrencyExchangeEvent> streamExchangeEvents(List<OrderBy<Field>> options, Optional<OptLimit> limit);
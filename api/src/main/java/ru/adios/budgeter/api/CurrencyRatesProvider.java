@@ -19,7 +19,9 @@
 package ru.adios.budgeter.api;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
 import com.google.common.math.IntMath;
 import org.joda.money.CurrencyUnit;
 import ru.adios.budgeter.api.data.ConversionPair;
@@ -29,7 +31,9 @@ import javax.annotation.Nullable;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.BiFunction;
@@ -47,6 +51,10 @@ public interface CurrencyRatesProvider extends Provider<ConversionRate, Long> {
 
     int RATES_SCALE = 24;
 
+    /**
+     * Straight rate in either direction or, failing that, a cross rate through RUB. Implementations backed by a graph
+     * of all the day's rates (like core's CrossRatesResolver) override this to find paths through any currency.
+     */
     default Optional<BigDecimal> getConversionMultiplier(UtcDay day, CurrencyUnit from, CurrencyUnit to) {
         final Optional<BigDecimal> straight = getConversionMultiplierBidirectional(day, from, to);
         if (straight.isPresent()) {
@@ -79,6 +87,50 @@ public interface CurrencyRatesProvider extends Provider<ConversionRate, Long> {
 
     Optional<BigDecimal> getConversionMultiplierStraight(UtcDay day, CurrencyUnit from, CurrencyUnit to);
 
+    /**
+     * Batch version of {@link #getConversionMultiplier(UtcDay, CurrencyUnit, CurrencyUnit)}: all straight rates needed to answer
+     * the pairs (both directions and RUB legs) are requested at once.
+     * @return map containing only the pairs for which a rate was found
+     */
+    default ImmutableMap<ConversionPair, BigDecimal> getConversionMultipliers(UtcDay day, Collection<ConversionPair> pairs) {
+        return resolveConversionMultipliers(getConversionMultipliersStraight(day, getStraightPairsToResolve(pairs)), pairs);
+    }
+
+    default ImmutableTable<UtcDay, ConversionPair, BigDecimal> getConversionMultipliers(Collection<UtcDay> days, Collection<ConversionPair> pairs) {
+        final ImmutableTable<UtcDay, ConversionPair, BigDecimal> straight = getConversionMultipliersStraight(days, getStraightPairsToResolve(pairs));
+        final ImmutableTable.Builder<UtcDay, ConversionPair, BigDecimal> builder = ImmutableTable.builder();
+        for (final UtcDay day : ImmutableSet.copyOf(days)) {
+            for (final Map.Entry<ConversionPair, BigDecimal> entry : resolveConversionMultipliers(straight.row(day), pairs).entrySet()) {
+                builder.put(day, entry.getKey(), entry.getValue());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Implementations are encouraged to override this with a single request to the storage.
+     */
+    default ImmutableMap<ConversionPair, BigDecimal> getConversionMultipliersStraight(UtcDay day, Collection<ConversionPair> pairs) {
+        final ImmutableMap.Builder<ConversionPair, BigDecimal> builder = ImmutableMap.builder();
+        for (final ConversionPair pair : ImmutableSet.copyOf(pairs)) {
+            final Optional<BigDecimal> rate = getConversionMultiplierStraight(day, pair.from, pair.to);
+            if (rate.isPresent()) {
+                builder.put(pair, rate.get());
+            }
+        }
+        return builder.build();
+    }
+
+    default ImmutableTable<UtcDay, ConversionPair, BigDecimal> getConversionMultipliersStraight(Collection<UtcDay> days, Collection<ConversionPair> pairs) {
+        final ImmutableTable.Builder<UtcDay, ConversionPair, BigDecimal> builder = ImmutableTable.builder();
+        for (final UtcDay day : ImmutableSet.copyOf(days)) {
+            for (final Map.Entry<ConversionPair, BigDecimal> entry : getConversionMultipliersStraight(day, pairs).entrySet()) {
+                builder.put(day, entry.getKey(), entry.getValue());
+            }
+        }
+        return builder.build();
+    }
+
 
     default Optional<BigDecimal> getLatestOptionalConversionMultiplierBidirectional(CurrencyUnit from, CurrencyUnit to) {
         return getConversionMultiplierInBidirectionalWay(this::getLatestOptionalConversionMultiplier, from, to);
@@ -111,6 +163,17 @@ public interface CurrencyRatesProvider extends Provider<ConversionRate, Long> {
 
     ImmutableSet<Long> getIndexedForDay(UtcDay day);
 
+    default ImmutableList<ConversionRate> getRatesForDay(UtcDay day) {
+        final ImmutableList.Builder<ConversionRate> builder = ImmutableList.builder();
+        for (final Long id : getIndexedForDay(day)) {
+            final Optional<ConversionRate> rate = getById(id);
+            if (rate.isPresent()) {
+                builder.add(rate.get());
+            }
+        }
+        return builder.build();
+    }
+
 
     static Optional<BigDecimal> getConversionMultiplierInBidirectionalWay(BiFunction<CurrencyUnit, CurrencyUnit, Optional<BigDecimal>> straightGetter, CurrencyUnit from, CurrencyUnit to) {
         Optional<BigDecimal> result = straightGetter.apply(from, to);
@@ -128,6 +191,42 @@ public interface CurrencyRatesProvider extends Provider<ConversionRate, Long> {
         return Optional.empty();
     }
 
+    static ImmutableSet<ConversionPair> getStraightPairsToResolve(Collection<ConversionPair> pairs) {
+        final CurrencyUnit rub = Units.RUB;
+        final ImmutableSet.Builder<ConversionPair> builder = ImmutableSet.builder();
+        for (final ConversionPair pair : pairs) {
+            builder.add(pair, new ConversionPair(pair.to, pair.from));
+            if (!rub.equals(pair.from) && !rub.equals(pair.to)) {
+                builder.add(new ConversionPair(rub, pair.from), new ConversionPair(pair.from, rub));
+                builder.add(new ConversionPair(rub, pair.to), new ConversionPair(pair.to, rub));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Does the same resolution as {@link #getConversionMultiplier(UtcDay, CurrencyUnit, CurrencyUnit)} but over already fetched straight rates.
+     */
+    static ImmutableMap<ConversionPair, BigDecimal> resolveConversionMultipliers(Map<ConversionPair, BigDecimal> straight, Collection<ConversionPair> pairs) {
+        final BiFunction<CurrencyUnit, CurrencyUnit, Optional<BigDecimal>> getter = (from, to) -> Optional.ofNullable(straight.get(new ConversionPair(from, to)));
+        final CurrencyUnit rub = Units.RUB;
+        final ImmutableMap.Builder<ConversionPair, BigDecimal> builder = ImmutableMap.builder();
+        for (final ConversionPair pair : ImmutableSet.copyOf(pairs)) {
+            Optional<BigDecimal> result = getConversionMultiplierInBidirectionalWay(getter, pair.from, pair.to);
+            if (!result.isPresent() && !rub.equals(pair.from) && !rub.equals(pair.to)) {
+                final Optional<BigDecimal> rubToFirst = getConversionMultiplierInBidirectionalWay(getter, rub, pair.from);
+                final Optional<BigDecimal> rubToSecond = getConversionMultiplierInBidirectionalWay(getter, rub, pair.to);
+                if (rubToFirst.isPresent() && rubToSecond.isPresent()) {
+                    result = Optional.of(getConversionMultiplierFromIntermediateMultipliers(rubToFirst.get(), rubToSecond.get()));
+                }
+            }
+            if (result.isPresent()) {
+                builder.put(pair, result.get());
+            }
+        }
+        return builder.build();
+    }
+
     static BigDecimal getConversionMultiplierFromIntermediateMultipliers(BigDecimal interToFirst, BigDecimal interToSecond) {
         return interToSecond.divide(interToFirst, RATES_SCALE, RoundingMode.HALF_DOWN).stripTrailingZeros();
     }
@@ -19,8 +19,10 @@
 package ru.adios.budgeter.api;
 
 import org.joda.money.CurrencyUnit;
+import ru.adios.budgeter.api.data.ConversionPair;
 
 import java.math.BigDecimal;
+import java.util.Map;
 
 /**
  * Date: 6/13/15
@@ -51,4 +53,21 @@ public interface CurrencyRatesRepository extends CurrencyRatesProvider {
      */
     boolean addRate(UtcDay dayUtc, CurrencyUnit from, CurrencyUnit to, BigDecimal rate);
 
+    /**
+     * Add a bunch of rates for one day to repository; rates already present are skipped.
+     * @param dayUtc day of the rates
+     * @param rates  rates as decimal numbers by conversion pairs
+     * @return number of rates actually added
+     */
+    default int addRates(UtcDay dayUtc, Map<ConversionPair, BigDecimal> rates) {
+        int added = 0;
+        for (final Map.Entry<ConversionPair, BigDecimal> entry : rates.entrySet()) {
+            final ConversionPair pair = entry.getKey();
+            if (addRate(dayUtc, pair.from, pair.to, entry.getValue())) {
+                added++;
+            }
+        }
+        return added;
+    }
+
 }
@@ -24,6 +24,7 @@ import ru.adios.budgeter.api.data.FundsMutationSubject;
 
 import java.io.Serializable;
 import java.time.OffsetDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -43,6 +44,15 @@ public interface FundsMutationEventRepository extends Provider<FundsMutationEven
 
     void register(FundsMutationEvent mutationEvent);
 
+    /**
+     * Registers all given events at once, implementations may do it in bulk.
+     */
+    default void registerAll(Collection<FundsMutationEvent> mutationEvents) {
+        for (final FundsMutationEvent mutationEvent : mutationEvents) {
+            register(mutationEvent);
+        }
+    }
+
     default Stream<FundsMutationEvent> streamMutationEvents(RepoOption... options) {
         final RepoUtil.Pair<Field> pair = RepoUtil.parseOptVarArg(options, Field.class);
         return streamMutationEvents(pair.options, pair.limit);
@@ -25,6 +25,7 @@ import ru.adios.budgeter.api.data.PostponedExchange;
 
 import java.math.BigDecimal;
 import java.time.OffsetDateTime;
+import java.util.Collection;
 import java.util.Optional;
 import java.util.stream.Stream;
 
@@ -45,8 +46,31 @@ public interface PostponedCurrencyExchangeEventRepository extends Provider<Postp
             FundsMutationAgent agent
     );
 
+    /**
+     * Remembers all given exchanges at once as relevant ones, their ids and relevance are ignored.
+     * Implementations may do it in bulk.
+     */
+    default void registerAll(Collection<PostponedExchange> exchanges) {
+        for (final PostponedExchange exchange : exchanges) {
+            rememberPostponedExchange(exchange.toBuy, exchange.toBuyAccount, exchange.sellAccount, exchange.customRate, exchange.timestamp, exchange.agent);
+        }
+    }
+
     Stream<PostponedExchange> streamRememberedExchanges(UtcDay day, CurrencyUnit oneOf, CurrencyUnit secondOf);
 
     boolean markEventProcessed(PostponedExchange exchange);
 
+    /**
+     * @return number of exchanges marked
+     */
+    default int markEventsProcessed(Collection<PostponedExchange> exchanges) {
+        int marked = 0;
+        for (final PostponedExchange exchange : exchanges) {
+            if (markEventProcessed(exchange)) {
+                marked++;
+            }
+        }
+        return marked;
+    }
+
 }
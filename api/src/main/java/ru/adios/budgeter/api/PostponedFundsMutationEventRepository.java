@@ -23,6 +23,7 @@ import ru.adios.budgeter.api.data.FundsMutationEvent;
 import ru.adios.budgeter.api.data.PostponedMutationEvent;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.Optional;
 import java.util.stream.Stream;
 
@@ -36,6 +37,16 @@ public interface PostponedFundsMutationEventRepository extends Provider<Postpone
 
     void rememberPostponedExchangeableEvent(FundsMutationEvent mutationEvent, CurrencyUnit paidUnit, Optional<BigDecimal> customRate);
 
+    /**
+     * Remembers all given events at once as relevant ones, their ids and relevance are ignored.
+     * Implementations may do it in bulk.
+     */
+    default void registerAll(Collection<PostponedMutationEvent> mutationEvents) {
+        for (final PostponedMutationEvent event : mutationEvents) {
+            rememberPostponedExchangeableEvent(event.mutationEvent, event.conversionUnit, event.customRate);
+        }
+    }
+
     Stream<PostponedMutationEvent> streamRememberedBenefits(UtcDay day, CurrencyUnit oneOf, CurrencyUnit secondOf);
 
     Stream<PostponedMutationEvent> streamRememberedLosses(UtcDay day, CurrencyUnit oneOf, CurrencyUnit secondOf);
@@ -44,4 +55,17 @@ public interface PostponedFundsMutationEventRepository extends Provider<Postpone
 
     boolean markEventProcessed(PostponedMutationEvent mutationEvent);
 
+    /**
+     * @return number of events marked
+     */
+    default int markEventsProcessed(Collection<PostponedMutationEvent> mutationEvents) {
+        int marked = 0;
+        for (final PostponedMutationEvent mutationEvent : mutationEvents) {
+            if (markEventProcessed(mutationEvent)) {
+                marked++;
+            }
+        }
+        return marked;
+    }
+
 }
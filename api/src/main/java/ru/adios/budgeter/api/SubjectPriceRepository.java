@@ -23,6 +23,7 @@ import ru.adios.budgeter.api.data.FundsMutationSubject;
 import ru.adios.budgeter.api.data.SubjectPrice;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Stream;
@@ -41,6 +42,15 @@ public interface SubjectPriceRepository extends Provider<SubjectPrice, Long>{
 
     void register(SubjectPrice subjectPrice);
 
+    /**
+     * Registers all given prices at once, implementations may do it in bulk.
+     */
+    default void registerAll(Collection<SubjectPrice> subjectPrices) {
+        for (final SubjectPrice subjectPrice : subjectPrices) {
+            register(subjectPrice);
+        }
+    }
+
     boolean priceExists(FundsMutationSubject subject, FundsMutationAgent agent, UtcDay day);
 
     int countByAgent(long subjectId, long agentId);
@@ -18,14 +18,19 @@
 
 package ru.adios.budgeter.api;
 
+import com.google.common.collect.ImmutableMap;
 import org.joda.money.CurrencyUnit;
 import org.joda.money.Money;
 import ru.adios.budgeter.api.data.BalanceAccount;
+import ru.adios.budgeter.api.data.ConversionPair;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collector;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -81,46 +86,41 @@ public interface Treasury extends Provider<BalanceAccount, Long>, Repository<Lon
     }
 
     static Money calculateTotalAmount(Treasury treasury, CurrencyUnit unit, CurrencyRatesProvider ratesProvider) {
-        final class MoneyWrapper {
-            private MoneyWrapper(Money m) {
-                this.m = m;
+        final List<Money> balances = treasury.streamRegisteredAccounts()
+                .map(account -> treasury.accountBalance(account.name))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toList());
+
+        final HashSet<ConversionPair> pairs = new HashSet<>();
+        for (final Money money : balances) {
+            if (!money.getCurrencyUnit().equals(unit)) {
+                pairs.add(new ConversionPair(money.getCurrencyUnit(), unit));
             }
-            private Money m;
-            private void plus(Money m) {
-                this.m = this.m.plus(m);
-            }
-            private MoneyWrapper plus(MoneyWrapper wrapper) {
-                plus(wrapper.m);
-                return this;
+        }
+        final Map<ConversionPair, BigDecimal> multipliers = pairs.isEmpty()
+                ? ImmutableMap.of()
+                : ratesProvider.getConversionMultipliers(new UtcDay(), pairs);
+
+        Money total = Money.zero(unit);
+        for (final Money money : balances) {
+            final CurrencyUnit otherUnit = money.getCurrencyUnit();
+            if (otherUnit.equals(unit)) {
+                total = total.plus(money);
+            } else {
+                BigDecimal multiplier = multipliers.get(new ConversionPair(otherUnit, unit));
+                if (multiplier == null) {
+                    multiplier = ratesProvider.getLatestConversionMultiplier(otherUnit, unit);
+                }
+
+                if (multiplier == null) {
+                    throw new NoRateException(unit, otherUnit);
+                }
+
+                total = total.plus(money.convertedTo(unit, multiplier, RoundingMode.HALF_DOWN));
             }
         }
-        return treasury.streamRegisteredAccounts().collect(Collector.of(
-                () -> new MoneyWrapper(Money.zero(unit)),
-                (w, otherAccount) -> {
-                    final Optional<Money> amount = treasury.accountBalance(otherAccount.name);
-
-                    if (amount.isPresent()) {
-                        final Money money = amount.get();
-
-                        if (money.getCurrencyUnit().equals(unit)) {
-                            w.plus(money);
-                        } else {
-                            final CurrencyUnit otherUnit = otherAccount.getUnit();
-                            final BigDecimal multiplier = ratesProvider
-                                    .getConversionMultiplier(new UtcDay(), otherUnit, unit)
-                                    .orElseGet(() -> ratesProvider.getLatestConversionMultiplier(otherUnit, unit));
-
-                            if (multiplier == null) {
-                                throw new NoRateException(unit, otherUnit);
-                            }
-
-                            w.plus(money.convertedTo(unit, multiplier, RoundingMode.HALF_DOWN));
-                        }
-                    }
-                },
-                MoneyWrapper::plus,
-                w -> w.m
-        ));
+        return total;
     }
 
 }
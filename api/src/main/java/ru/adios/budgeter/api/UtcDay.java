@@ -66,6 +66,10 @@ public final class UtcDay implements Comparable<UtcDay> {
         }
     }
 
+    public long toEpochDay() {
+        return inner.toLocalDate().toEpochDay();
+    }
+
     @Override
     public boolean equals(Object o) {
         return this == o
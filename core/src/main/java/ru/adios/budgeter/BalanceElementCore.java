@@ -23,12 +23,15 @@ import org.joda.money.Money;
 import ru.adios.budgeter.api.CurrencyRatesProvider;
 import ru.adios.budgeter.api.Treasury;
 import ru.adios.budgeter.api.UtcDay;
+import ru.adios.budgeter.api.data.ConversionPair;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 import java.math.BigDecimal;
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Set;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -74,14 +77,18 @@ public final class BalanceElementCore {
 
     @PotentiallyBlocking
     public boolean noTodayRate() {
-        final UtcDay today = new UtcDay();
         final CurrencyUnit main = totalUnitNonNull();
-        final AtomicBoolean wasSomething = new AtomicBoolean(false);
-        final boolean foundNoRateCase = treasury.streamRegisteredCurrencies().filter(unit -> {
-            wasSomething.set(true);
-            return !main.equals(unit) && !provider.getConversionMultiplier(today, main, unit).isPresent();
-        }).findFirst().isPresent();
-        return !wasSomething.get() || foundNoRateCase;
+        final List<CurrencyUnit> units = treasury.streamRegisteredCurrencies().collect(Collectors.toList());
+        if (units.isEmpty()) {
+            return true;
+        }
+
+        final Set<ConversionPair> pairs = units.stream()
+                .filter(unit -> !main.equals(unit))
+                .map(unit -> new ConversionPair(main, unit))
+                .collect(Collectors.toSet());
+        return !pairs.isEmpty()
+                && provider.getConversionMultipliers(new UtcDay(), pairs).size() < pairs.size();
     }
 
     private CurrencyUnit totalUnitNonNull() {
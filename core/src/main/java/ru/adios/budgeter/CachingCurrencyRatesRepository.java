@@ -0,0 +1,361 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.joda.money.CurrencyUnit;
+import ru.adios.budgeter.api.CurrencyRatesRepository;
+import ru.adios.budgeter.api.UtcDay;
+import ru.adios.budgeter.api.data.ConversionPair;
+import ru.adios.budgeter.api.data.ConversionRate;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.ToIntFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Read-through cache of straight conversion rates that sits in front of any {@link CurrencyRatesRepository}.
+ * For every cached day a dense matrix of rates is kept, rows and columns are slots assigned to numeric currency codes
+ * in order of first appearance. Found and missing rates are remembered until the day is evicted (LRU order), so bidirectional
+ * and intermediate lookups of {@link ru.adios.budgeter.api.CurrencyRatesProvider} don't hit the delegate for the same absent
+ * pair over and over. All rates of a day asked with {@link #getRatesForDay(UtcDay)} fill the matrix too, after that the day
+ * is complete and lookups of any pair are answered without the delegate; {@link CrossRatesResolver} reads days this way.
+ *
+ * Every matrix is stamped with the delegate's id sequence value it was filled at, the sequence is checked on each lookup
+ * and a matrix is dropped as soon as the value changes. Rates are never deleted, so any addition moves the sequence, whether
+ * it went through this instance or to the delegate directly. When the sequence can't be read (no rates stored yet)
+ * nothing is remembered.
+ */
+@ThreadSafe
+public class CachingCurrencyRatesRepository implements CurrencyRatesRepository {
+
+    public static final int DEFAULT_MAX_DAYS = 64;
+
+    private static final int NUMERIC_CODES_BOUND = 1000; // ISO 4217 numeric codes are three digits
+    private static final int INITIAL_DIMENSION = 8;
+    private static final long UNVERSIONED = Long.MIN_VALUE;
+    private static final Object MISS = new Object();
+
+    private final CurrencyRatesRepository delegate;
+    private final int[] slotByCode = new int[NUMERIC_CODES_BOUND]; // slot + 1, zero means unassigned; guarded by itself
+    private int slotsCount = 0; // guarded by slotByCode
+    private final LinkedHashMap<UtcDay, DayMatrix> days; // guarded by itself
+
+    public CachingCurrencyRatesRepository(CurrencyRatesRepository delegate) {
+        this(delegate, DEFAULT_MAX_DAYS);
+    }
+
+    public CachingCurrencyRatesRepository(CurrencyRatesRepository delegate, final int maxDays) {
+        checkNotNull(delegate, "delegate");
+        checkArgument(maxDays > 0, "maxDays must be positive");
+        this.delegate = delegate;
+        days = new LinkedHashMap<UtcDay, DayMatrix>(maxDays + 1, 1f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UtcDay, DayMatrix> eldest) {
+                return size() > maxDays;
+            }
+        };
+    }
+
+    public final CurrencyRatesRepository getDelegate() {
+        return delegate;
+    }
+
+    public void invalidate(UtcDay day) {
+        synchronized (days) {
+            days.remove(day);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (days) {
+            days.clear();
+        }
+    }
+
+    @Override
+    public Optional<BigDecimal> getConversionMultiplierStraight(UtcDay day, CurrencyUnit from, CurrencyUnit to) {
+        final int fromSlot = slotFor(from);
+        final int toSlot = slotFor(to);
+        if (fromSlot < 0 || toSlot < 0) {
+            return delegate.getConversionMultiplierStraight(day, from, to);
+        }
+
+        final DayMatrix matrix = matrixFor(day);
+        final Object cached = matrix.lookup(fromSlot, toSlot);
+        if (cached != null) {
+            return cached == MISS
+                    ? Optional.empty()
+                    : Optional.of((BigDecimal) cached);
+        }
+
+        final Optional<BigDecimal> loaded = delegate.getConversionMultiplierStraight(day, from, to);
+        matrix.putIfUnknown(fromSlot, toSlot, loaded.isPresent() ? loaded.get() : MISS);
+        return loaded;
+    }
+
+    @Override
+    public ImmutableMap<ConversionPair, BigDecimal> getConversionMultipliersStraight(UtcDay day, Collection<ConversionPair> pairs) {
+        final DayMatrix matrix = matrixFor(day);
+        final HashMap<ConversionPair, BigDecimal> result = new HashMap<>(pairs.size() * 2);
+        final ArrayList<ConversionPair> misses = new ArrayList<>();
+        for (final ConversionPair pair : pairs) {
+            final int fromSlot = slotFor(pair.from);
+            final int toSlot = slotFor(pair.to);
+            final Object cached = fromSlot < 0 || toSlot < 0 ? null : matrix.lookup(fromSlot, toSlot);
+            if (cached == null) {
+                misses.add(pair);
+            } else if (cached != MISS) {
+                result.put(pair, (BigDecimal) cached);
+            }
+        }
+
+        if (!misses.isEmpty()) {
+            final ImmutableMap<ConversionPair, BigDecimal> loaded = delegate.getConversionMultipliersStraight(day, misses);
+            for (final ConversionPair pair : misses) {
+                final BigDecimal rate = loaded.get(pair);
+                final int fromSlot = slotFor(pair.from);
+                final int toSlot = slotFor(pair.to);
+                if (fromSlot >= 0 && toSlot >= 0) {
+                    matrix.putIfUnknown(fromSlot, toSlot, rate != null ? rate : MISS);
+                }
+                if (rate != null) {
+                    result.put(pair, rate);
+                }
+            }
+        }
+
+        return ImmutableMap.copyOf(result);
+    }
+
+    @Override
+    public boolean addRate(UtcDay dayUtc, CurrencyUnit from, CurrencyUnit to, BigDecimal rate) {
+        final boolean success = delegate.addRate(dayUtc, from, to, rate);
+
+        final int fromSlot = slotFor(from);
+        final int toSlot = slotFor(to);
+        if (fromSlot >= 0 && toSlot >= 0) {
+            // on failure we don't know what's stored, so just forget the cell
+            matrixFor(dayUtc).put(fromSlot, toSlot, success ? rate : null);
+        }
+
+        return success;
+    }
+
+    @Override
+    public int addRates(UtcDay dayUtc, Map<ConversionPair, BigDecimal> rates) {
+        final int added = delegate.addRates(dayUtc, rates);
+
+        final DayMatrix matrix = matrixFor(dayUtc);
+        final boolean allAdded = added == rates.size();
+        for (final Map.Entry<ConversionPair, BigDecimal> entry : rates.entrySet()) {
+            final int fromSlot = slotFor(entry.getKey().from);
+            final int toSlot = slotFor(entry.getKey().to);
+            if (fromSlot >= 0 && toSlot >= 0) {
+                // when some were skipped we don't know which ones, forget them all
+                matrix.put(fromSlot, toSlot, allAdded ? entry.getValue() : null);
+            }
+        }
+
+        return added;
+    }
+
+    @Override
+    public Optional<BigDecimal> getLatestOptionalConversionMultiplier(CurrencyUnit from, CurrencyUnit to) {
+        return delegate.getLatestOptionalConversionMultiplier(from, to);
+    }
+
+    @Override
+    public boolean isRateStale(CurrencyUnit to) {
+        return delegate.isRateStale(to);
+    }
+
+    @Override
+    public ImmutableSet<Long> getIndexedForDay(UtcDay day) {
+        return delegate.getIndexedForDay(day);
+    }
+
+    /**
+     * @return the same instance while the day stays cached and unchanged
+     */
+    @Override
+    public ImmutableList<ConversionRate> getRatesForDay(UtcDay day) {
+        final DayMatrix matrix = matrixFor(day);
+        final ImmutableList<ConversionRate> cached = matrix.complete;
+        if (cached != null) {
+            return cached;
+        }
+
+        final ImmutableList<ConversionRate> loaded = delegate.getRatesForDay(day);
+        return matrix.complete(loaded, this::slotFor);
+    }
+
+    @Override
+    public Optional<ConversionRate> getById(Long id) {
+        return delegate.getById(id);
+    }
+
+    @Override
+    public Long currentSeqValue() {
+        return delegate.currentSeqValue();
+    }
+
+    /**
+     * @return matrix of the day filled at the current delegate's sequence value; not remembered one if that value is unknown
+     */
+    private DayMatrix matrixFor(UtcDay day) {
+        final long version = currentVersion();
+        if (version == UNVERSIONED) {
+            return new DayMatrix(version);
+        }
+        synchronized (days) {
+            DayMatrix matrix = days.get(day);
+            if (matrix == null || matrix.version != version) {
+                matrix = new DayMatrix(version);
+                days.put(day, matrix);
+            }
+            return matrix;
+        }
+    }
+
+    private long currentVersion() {
+        try {
+            final Long seq = delegate.currentSeqValue();
+            return seq != null ? seq : UNVERSIONED;
+        } catch (RuntimeException ignore) {
+            return UNVERSIONED; // i.e. a JDBC sequence before the first insertion
+        }
+    }
+
+    private int slotFor(CurrencyUnit unit) {
+        final int code = unit.getNumericCode();
+        if (code < 0 || code >= NUMERIC_CODES_BOUND) {
+            return -1;
+        }
+        synchronized (slotByCode) {
+            int slot = slotByCode[code];
+            if (slot == 0) {
+                slot = ++slotsCount;
+                slotByCode[code] = slot;
+            }
+            return slot - 1;
+        }
+    }
+
+
+    @ThreadSafe
+    private static final class DayMatrix {
+
+        private final long version;
+        private volatile Cells cells = new Cells(INITIAL_DIMENSION);
+        @Nullable
+        private volatile ImmutableList<ConversionRate> complete; // all rates of the day once loaded
+
+        private DayMatrix(long version) {
+            this.version = version;
+        }
+
+        @Nullable
+        private Object get(int fromSlot, int toSlot) {
+            final Cells snapshot = cells;
+            if (fromSlot >= snapshot.dimension || toSlot >= snapshot.dimension) {
+                return null;
+            }
+            return snapshot.values.get(fromSlot * snapshot.dimension + toSlot);
+        }
+
+        /**
+         * @return rate, {@link #MISS} or null if unknown; anything absent from a complete day is a miss
+         */
+        @Nullable
+        private Object lookup(int fromSlot, int toSlot) {
+            final Object cached = get(fromSlot, toSlot);
+            return cached == null && complete != null ? MISS : cached;
+        }
+
+        private synchronized ImmutableList<ConversionRate> complete(ImmutableList<ConversionRate> rates, ToIntFunction<CurrencyUnit> slots) {
+            final ImmutableList<ConversionRate> concurrent = complete;
+            if (concurrent != null) {
+                return concurrent;
+            }
+            for (final ConversionRate rate : rates) {
+                final int fromSlot = slots.applyAsInt(rate.pair.from);
+                final int toSlot = slots.applyAsInt(rate.pair.to);
+                if (fromSlot >= 0 && toSlot >= 0) {
+                    putIfUnknown(fromSlot, toSlot, rate.rate);
+                }
+            }
+            complete = rates;
+            return rates;
+        }
+
+        private synchronized void put(int fromSlot, int toSlot, @Nullable Object value) {
+            final Cells snapshot = ensureDimension(Math.max(fromSlot, toSlot) + 1);
+            snapshot.values.set(fromSlot * snapshot.dimension + toSlot, value);
+        }
+
+        private synchronized void putIfUnknown(int fromSlot, int toSlot, Object value) {
+            // a concurrent addRate() might have been faster than our load from delegate, its value wins
+            final Cells snapshot = ensureDimension(Math.max(fromSlot, toSlot) + 1);
+            snapshot.values.compareAndSet(fromSlot * snapshot.dimension + toSlot, null, value);
+        }
+
+        private Cells ensureDimension(int required) {
+            final Cells current = cells;
+            if (required <= current.dimension) {
+                return current;
+            }
+
+            int dimension = current.dimension;
+            while (dimension < required) {
+                dimension <<= 1;
+            }
+            final Cells grown = new Cells(dimension);
+            for (int i = 0; i < current.dimension; i++) {
+                for (int j = 0; j < current.dimension; j++) {
+                    grown.values.set(i * dimension + j, current.values.get(i * current.dimension + j));
+                }
+            }
+            cells = grown;
+            return grown;
+        }
+
+    }
+
+    private static final class Cells {
+
+        private final int dimension;
+        private final AtomicReferenceArray<Object> values;
+
+        private Cells(int dimension) {
+            this.dimension = dimension;
+            this.values = new AtomicReferenceArray<>(dimension * dimension);
+        }
+
+    }
+
+}
@@ -0,0 +1,271 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter;
+
+import com.google.common.collect.ImmutableList;
+import org.joda.money.CurrencyUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.adios.budgeter.api.UtcDay;
+import ru.adios.budgeter.api.data.ConversionPair;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Background work queue of rates storage and postponed events replay, merging pending work by day and currency.
+ * Holds at most capacity distinct pending keys, submitters wait while it's full; the executor's thread itself never waits.
+ * Everything pending at the moment of a drain is handed to the runner as a single batch. If the batch fails, each of its keys
+ * is handed to the runner on its own, so one bad key doesn't take the work of the others down with it.
+ */
+@ThreadSafe
+final class CoalescingTaskQueue {
+
+    static final int DEFAULT_CAPACITY = 256;
+
+    private static final Logger logger = LoggerFactory.getLogger(CoalescingTaskQueue.class);
+
+    @Immutable
+    static final class Key {
+        final UtcDay day;
+        final CurrencyUnit unit;
+
+        private Key(UtcDay day, CurrencyUnit unit) {
+            this.day = day;
+            this.unit = unit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key key = (Key) o;
+            return day.equals(key.day) && unit.equals(key.unit);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * day.hashCode() + unit.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return day + "/" + unit;
+        }
+    }
+
+    /**
+     * Merged work for a key: rates to store and rates to replay postponed events with, first submitted value wins.
+     */
+    @NotThreadSafe
+    static final class Work {
+        final Key key;
+        final LinkedHashMap<ConversionPair, BigDecimal> rates = new LinkedHashMap<>();
+        final LinkedHashMap<CurrencyUnit, BigDecimal> postponed = new LinkedHashMap<>();
+        private int tasks = 0;
+
+        private Work(Key key) {
+            this.key = key;
+        }
+
+        private void merge(Work other) {
+            other.rates.forEach(rates::putIfAbsent);
+            other.postponed.forEach(postponed::putIfAbsent);
+            tasks += other.tasks;
+        }
+    }
+
+    /**
+     * Work collected by a single caller, submitted to the queue at once.
+     */
+    @NotThreadSafe
+    static final class Batch {
+        private final LinkedHashMap<Key, Work> works = new LinkedHashMap<>();
+
+        void addRates(UtcDay day, CurrencyUnit unit, Map<ConversionPair, BigDecimal> rates) {
+            final Work work = workFor(day, unit);
+            rates.forEach(work.rates::putIfAbsent);
+            work.tasks++;
+        }
+
+        void addPostponed(UtcDay day, CurrencyUnit forRates, Map<CurrencyUnit, BigDecimal> rates) {
+            final Work work = workFor(day, forRates);
+            rates.forEach(work.postponed::putIfAbsent);
+            work.tasks++;
+        }
+
+        boolean isEmpty() {
+            return works.isEmpty();
+        }
+
+        ImmutableList<Work> toWorks() {
+            return ImmutableList.copyOf(works.values());
+        }
+
+        private Work workFor(UtcDay day, CurrencyUnit unit) {
+            return works.computeIfAbsent(new Key(day, unit), Work::new);
+        }
+    }
+
+    private final Consumer<ImmutableList<Work>> runner;
+    private final Supplier<Executor> executorSupplier;
+    private final int capacity;
+
+    @GuardedBy("this") private LinkedHashMap<Key, Work> pending = new LinkedHashMap<>();
+    @GuardedBy("this") private boolean drainScheduled = false;
+    @GuardedBy("this") private Thread drainingThread = null;
+    @GuardedBy("this") private long submitted = 0;
+    @GuardedBy("this") private long coalesced = 0;
+    @GuardedBy("this") private long batches = 0;
+
+    CoalescingTaskQueue(Consumer<ImmutableList<Work>> runner, Supplier<Executor> executorSupplier, int capacity) {
+        checkArgument(capacity > 0, "Capacity must be positive");
+        this.runner = checkNotNull(runner, "runner");
+        this.executorSupplier = checkNotNull(executorSupplier, "executorSupplier");
+        this.capacity = capacity;
+    }
+
+    void submit(Batch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final boolean scheduleDrain;
+        synchronized (this) {
+            // batches larger than capacity are let in on empty queue
+            while (Thread.currentThread() != drainingThread && !pending.isEmpty() && pending.size() + newKeys(batch) > capacity) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    logger.warn("Interrupted while waiting for currencies task queue, submitting over capacity");
+                    break;
+                }
+            }
+
+            for (final Work work : batch.works.values()) {
+                submitted += work.tasks;
+                final Work existing = pending.get(work.key);
+                if (existing != null) {
+                    existing.merge(work);
+                    coalesced += work.tasks;
+                } else {
+                    pending.put(work.key, work);
+                    coalesced += work.tasks - 1;
+                }
+            }
+
+            scheduleDrain = !drainScheduled;
+            drainScheduled = true;
+        }
+
+        if (scheduleDrain) {
+            try {
+                executorSupplier.get().execute(this::drain);
+            } catch (RuntimeException ex) {
+                synchronized (this) {
+                    drainScheduled = false;
+                }
+                throw ex;
+            }
+        }
+    }
+
+    synchronized int getDepth() {
+        return pending.size();
+    }
+
+    synchronized long getSubmitted() {
+        return submitted;
+    }
+
+    synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    synchronized long getBatches() {
+        return batches;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    private void drain() {
+        while (true) {
+            final LinkedHashMap<Key, Work> drained;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    drainScheduled = false;
+                    drainingThread = null;
+                    return;
+                }
+                drained = pending;
+                pending = new LinkedHashMap<>();
+                drainingThread = Thread.currentThread();
+                batches++;
+                notifyAll();
+            }
+            try {
+                runner.accept(ImmutableList.copyOf(drained.values()));
+            } catch (Throwable th) {
+                if (drained.size() == 1) {
+                    logger.error("Currencies task batch for " + drained.keySet().iterator().next() + " failed", th);
+                } else {
+                    logger.error("Currencies task batch of " + drained.size() + " keys failed, running them one by one", th);
+                    runSeparately(drained.values());
+                }
+            }
+        }
+    }
+
+    private void runSeparately(Collection<Work> works) {
+        for (final Work work : works) {
+            try {
+                runner.accept(ImmutableList.of(work));
+            } catch (Throwable th) {
+                logger.error("Currencies task batch for " + work.key + " failed", th);
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private int newKeys(Batch batch) {
+        int count = 0;
+        for (final Key key : batch.works.keySet()) {
+            if (!pending.containsKey(key)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
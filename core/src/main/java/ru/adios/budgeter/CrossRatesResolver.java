@@ -0,0 +1,329 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import org.joda.money.CurrencyUnit;
+import ru.adios.budgeter.api.CurrencyRatesProvider;
+import ru.adios.budgeter.api.CurrencyRatesRepository;
+import ru.adios.budgeter.api.Units;
+import ru.adios.budgeter.api.UtcDay;
+import ru.adios.budgeter.api.data.ConversionPair;
+import ru.adios.budgeter.api.data.ConversionRate;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Resolves conversion rates between any two currencies connected by stored rates of a day, not only through RUB.
+ * For every requested day the graph of stored rates is built once and cross rates for all pairs are computed
+ * along the shortest paths (fewest conversions); lookups are then a couple of hash probes.
+ * Among paths of equal length the ones through preferred intermediates win, RUB by default, so results for
+ * CBR-loaded rates are the same as of {@link CurrencyRatesProvider#getConversionMultiplier(UtcDay, CurrencyUnit, CurrencyUnit)}.
+ *
+ * Rates of a day are read with {@link #getRatesForDay(UtcDay)} on each lookup and the computed closure is reused while they
+ * stay the same, so rates added to the delegate directly are seen right away. Put it over {@link CachingCurrencyRatesRepository}
+ * to have the day served from memory, the cache's day matrix is then the only thing to invalidate.
+ */
+@ThreadSafe
+public class CrossRatesResolver implements CurrencyRatesRepository {
+
+    public static final int DEFAULT_MAX_DAYS = 64;
+
+    private final CurrencyRatesRepository delegate;
+    private final ImmutableList<CurrencyUnit> preferredIntermediates;
+    private final LinkedHashMap<UtcDay, Closure> days; // guarded by itself
+
+    public CrossRatesResolver(CurrencyRatesRepository delegate) {
+        this(delegate, ImmutableList.of(Units.RUB), DEFAULT_MAX_DAYS);
+    }
+
+    public CrossRatesResolver(CurrencyRatesRepository delegate, List<CurrencyUnit> preferredIntermediates, final int maxDays) {
+        checkNotNull(delegate, "delegate");
+        checkNotNull(preferredIntermediates, "preferredIntermediates");
+        checkArgument(maxDays > 0, "maxDays must be positive");
+        this.delegate = delegate;
+        this.preferredIntermediates = ImmutableList.copyOf(preferredIntermediates);
+        days = new LinkedHashMap<UtcDay, Closure>(maxDays + 1, 1f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UtcDay, Closure> eldest) {
+                return size() > maxDays;
+            }
+        };
+    }
+
+    public final CurrencyRatesRepository getDelegate() {
+        return delegate;
+    }
+
+    public void invalidate(UtcDay day) {
+        synchronized (days) {
+            days.remove(day);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (days) {
+            days.clear();
+        }
+    }
+
+    /**
+     * @return all cross rates known for the day
+     */
+    public ImmutableMap<ConversionPair, BigDecimal> getClosure(UtcDay day) {
+        return closureFor(day).rates;
+    }
+
+    @Override
+    public Optional<BigDecimal> getConversionMultiplier(UtcDay day, CurrencyUnit from, CurrencyUnit to) {
+        return Optional.ofNullable(closureFor(day).rates.get(new ConversionPair(from, to)));
+    }
+
+    @Override
+    public Optional<BigDecimal> getConversionMultiplierBidirectional(UtcDay day, CurrencyUnit from, CurrencyUnit to) {
+        return getConversionMultiplier(day, from, to);
+    }
+
+    @Override
+    public ImmutableMap<ConversionPair, BigDecimal> getConversionMultipliers(UtcDay day, Collection<ConversionPair> pairs) {
+        final ImmutableMap<ConversionPair, BigDecimal> closure = closureFor(day).rates;
+        final ImmutableMap.Builder<ConversionPair, BigDecimal> builder = ImmutableMap.builder();
+        for (final ConversionPair pair : ImmutableSet.copyOf(pairs)) {
+            final BigDecimal rate = closure.get(pair);
+            if (rate != null) {
+                builder.put(pair, rate);
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    public ImmutableTable<UtcDay, ConversionPair, BigDecimal> getConversionMultipliers(Collection<UtcDay> days, Collection<ConversionPair> pairs) {
+        final ImmutableTable.Builder<UtcDay, ConversionPair, BigDecimal> builder = ImmutableTable.builder();
+        for (final UtcDay day : ImmutableSet.copyOf(days)) {
+            for (final Map.Entry<ConversionPair, BigDecimal> entry : getConversionMultipliers(day, pairs).entrySet()) {
+                builder.put(day, entry.getKey(), entry.getValue());
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    public Optional<BigDecimal> getConversionMultiplierStraight(UtcDay day, CurrencyUnit from, CurrencyUnit to) {
+        return delegate.getConversionMultiplierStraight(day, from, to);
+    }
+
+    @Override
+    public ImmutableMap<ConversionPair, BigDecimal> getConversionMultipliersStraight(UtcDay day, Collection<ConversionPair> pairs) {
+        return delegate.getConversionMultipliersStraight(day, pairs);
+    }
+
+    @Override
+    public ImmutableTable<UtcDay, ConversionPair, BigDecimal> getConversionMultipliersStraight(Collection<UtcDay> days, Collection<ConversionPair> pairs) {
+        return delegate.getConversionMultipliersStraight(days, pairs);
+    }
+
+    @Override
+    public boolean addRate(UtcDay dayUtc, CurrencyUnit from, CurrencyUnit to, BigDecimal rate) {
+        final boolean success = delegate.addRate(dayUtc, from, to, rate);
+        if (success) {
+            invalidate(dayUtc);
+        }
+        return success;
+    }
+
+    @Override
+    public int addRates(UtcDay dayUtc, Map<ConversionPair, BigDecimal> rates) {
+        final int added = delegate.addRates(dayUtc, rates);
+        if (added > 0) {
+            invalidate(dayUtc);
+        }
+        return added;
+    }
+
+    @Override
+    public Optional<BigDecimal> getLatestOptionalConversionMultiplier(CurrencyUnit from, CurrencyUnit to) {
+        return delegate.getLatestOptionalConversionMultiplier(from, to);
+    }
+
+    @Override
+    public boolean isRateStale(CurrencyUnit to) {
+        return delegate.isRateStale(to);
+    }
+
+    @Override
+    public ImmutableSet<Long> getIndexedForDay(UtcDay day) {
+        return delegate.getIndexedForDay(day);
+    }
+
+    @Override
+    public ImmutableList<ConversionRate> getRatesForDay(UtcDay day) {
+        return delegate.getRatesForDay(day);
+    }
+
+    @Override
+    public Optional<ConversionRate> getById(Long id) {
+        return delegate.getById(id);
+    }
+
+    @Override
+    public Long currentSeqValue() {
+        return delegate.currentSeqValue();
+    }
+
+    private Closure closureFor(UtcDay day) {
+        final ImmutableList<ConversionRate> stored = delegate.getRatesForDay(day);
+        synchronized (days) {
+            final Closure closure = days.get(day);
+            // the caching repository hands out the same instance while the day is unchanged, others are compared
+            if (closure != null && (closure.stored == stored || closure.stored.equals(stored))) {
+                return closure;
+            }
+        }
+
+        final Closure computed = new Closure(stored, preferredIntermediates);
+        synchronized (days) {
+            days.put(day, computed);
+        }
+        return computed;
+    }
+
+
+    @Immutable
+    private static final class Closure {
+
+        private final ImmutableList<ConversionRate> stored;
+        private final ImmutableMap<ConversionPair, BigDecimal> rates;
+
+        private Closure(ImmutableList<ConversionRate> stored, ImmutableList<CurrencyUnit> preferredIntermediates) {
+            this.stored = stored;
+            final HashMap<CurrencyUnit, ArrayList<Edge>> graph = new HashMap<>();
+            for (final ConversionRate rate : stored) {
+                graph.computeIfAbsent(rate.pair.from, unit -> new ArrayList<>()).add(new Edge(rate.pair.to, rate.rate, true));
+                graph.computeIfAbsent(rate.pair.to, unit -> new ArrayList<>()).add(new Edge(rate.pair.from, rate.rate, false));
+            }
+            final Comparator<Edge> edgesOrder = Comparator
+                    .<Edge>comparingInt(edge -> preferenceRank(edge.target, preferredIntermediates))
+                    .thenComparing(edge -> edge.target.getCode())
+                    .thenComparing(edge -> !edge.forward);
+            for (final ArrayList<Edge> edges : graph.values()) {
+                edges.sort(edgesOrder);
+            }
+
+            final ImmutableMap.Builder<ConversionPair, BigDecimal> builder = ImmutableMap.builder();
+            for (final CurrencyUnit source : graph.keySet()) {
+                breadthFirst(source, graph, builder);
+            }
+            rates = builder.build();
+        }
+
+        private static void breadthFirst(CurrencyUnit source, HashMap<CurrencyUnit, ArrayList<Edge>> graph, ImmutableMap.Builder<ConversionPair, BigDecimal> builder) {
+            final HashMap<CurrencyUnit, Path> paths = new HashMap<>();
+            final ArrayDeque<CurrencyUnit> queue = new ArrayDeque<>();
+            paths.put(source, Path.EMPTY);
+            queue.add(source);
+
+            while (!queue.isEmpty()) {
+                final CurrencyUnit current = queue.poll();
+                final Path path = paths.get(current);
+                for (final Edge edge : graph.get(current)) {
+                    if (paths.containsKey(edge.target)) {
+                        continue;
+                    }
+                    final Path next = path.append(edge);
+                    paths.put(edge.target, next);
+                    queue.add(edge.target);
+                    builder.put(new ConversionPair(source, edge.target), next.rate());
+                }
+            }
+        }
+
+        private static int preferenceRank(CurrencyUnit unit, ImmutableList<CurrencyUnit> preferredIntermediates) {
+            final int i = preferredIntermediates.indexOf(unit);
+            return i < 0 ? preferredIntermediates.size() : i;
+        }
+
+    }
+
+    @Immutable
+    private static final class Edge {
+
+        private final CurrencyUnit target;
+        private final BigDecimal rate;
+        private final boolean forward;
+
+        private Edge(CurrencyUnit target, BigDecimal rate, boolean forward) {
+            this.target = target;
+            this.rate = rate;
+            this.forward = forward;
+        }
+
+    }
+
+    /**
+     * Rate along a path kept as a fraction to divide only once, so the results are the same as of
+     * {@link CurrencyRatesProvider#reverseRate(BigDecimal)} and
+     * {@link CurrencyRatesProvider#getConversionMultiplierFromIntermediateMultipliers(BigDecimal, BigDecimal)} for short paths.
+     */
+    @Immutable
+    private static final class Path {
+
+        private static final Path EMPTY = new Path(BigDecimal.ONE, BigDecimal.ONE, 0, null);
+
+        private final BigDecimal numerator;
+        private final BigDecimal denominator;
+        private final int length;
+        @Nullable
+        private final BigDecimal single;
+
+        private Path(BigDecimal numerator, BigDecimal denominator, int length, @Nullable BigDecimal single) {
+            this.numerator = numerator;
+            this.denominator = denominator;
+            this.length = length;
+            this.single = single;
+        }
+
+        private Path append(Edge edge) {
+            if (edge.forward) {
+                return new Path(numerator.multiply(edge.rate), denominator, length + 1, length == 0 ? edge.rate : null);
+            }
+            return new Path(numerator, denominator.multiply(edge.rate), length + 1, null);
+        }
+
+        private BigDecimal rate() {
+            if (single != null) {
+                return single; // stored straight rate as is
+            }
+            return numerator.divide(denominator, CurrencyRatesProvider.RATES_SCALE, RoundingMode.HALF_DOWN).stripTrailingZeros();
+        }
+
+    }
+
+}
@@ -22,6 +22,8 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Iterables;
 import org.joda.money.CurrencyUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,11 +37,22 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Date: 6/14/15
@@ -52,6 +65,9 @@ public class CurrenciesExchangeService implements CurrencyRatesRepository {
 
     private static final Logger logger = LoggerFactory.getLogger(CurrenciesExchangeService.class);
 
+    public static final int BACKFILL_DAYS_IN_FLIGHT = 4;
+    public static final int REPLAY_MARK_CHUNK = 500;
+
     private static final class LazyExecutorHolder {
 
         private static final Executor EXECUTOR = Executors.newSingleThreadExecutor(r -> {
@@ -66,13 +82,15 @@ public class CurrenciesExchangeService implements CurrencyRatesRepository {
 
     }
 
-    @Autowired private volatile CurrencyRatesRepository ratesRepository;
+    private volatile CurrencyRatesRepository ratesRepository;
     @Autowired private volatile Accounter accounter;
     @Autowired private volatile Treasury treasury;
     @Autowired private volatile ExchangeRatesLoader.BtcLoader btcLoader;
     @Autowired private volatile ExchangeRatesLoader.CbrLoader cbrLoader;
 
     private final AtomicReference<Executor> executorRef = new AtomicReference<>(null);
+    private volatile int postponedParallelism = 1;
+    private final CoalescingTaskQueue taskQueue = new CoalescingTaskQueue(this::runTaskBatch, this::getExecutor, CoalescingTaskQueue.DEFAULT_CAPACITY);
     private final Optional<TransactionalSupport> nonSpringTransactional;
 
     public CurrenciesExchangeService() {
@@ -87,7 +105,7 @@ public class CurrenciesExchangeService implements CurrencyRatesRepository {
             ExchangeRatesLoader.BtcLoader btcLoader,
             ExchangeRatesLoader.CbrLoader cbrLoader
     ) {
-        this.ratesRepository = ratesRepository;
+        this.ratesRepository = withRatesCaches(ratesRepository);
         this.accounter = accounter;
         this.treasury = treasury;
         this.btcLoader = btcLoader;
@@ -95,6 +113,15 @@ public class CurrenciesExchangeService implements CurrencyRatesRepository {
         this.nonSpringTransactional = Optional.ofNullable(nonSpringTransactional);
     }
 
+    /**
+     * Repository is put behind {@link CachingCurrencyRatesRepository} and {@link CrossRatesResolver} unless it's already one of them.
+     * Both follow the repository's id sequence, so rates may be added to it directly as well.
+     */
+    @Autowired
+    public void setRatesRepository(CurrencyRatesRepository ratesRepository) {
+        this.ratesRepository = withRatesCaches(ratesRepository);
+    }
+
     public void setExecutor(Executor executor) {
         executorRef.set(executor);
     }
@@ -134,15 +161,75 @@ public class CurrenciesExchangeService implements CurrencyRatesRepository {
         }
     }
 
+    /**
+     * Background work queue metrics: pending (day, currency) keys, submitted tasks, tasks merged into already pending ones
+     * and batches run.
+     */
+    public static final class TaskQueueStats {
+        public final int depth;
+        public final int capacity;
+        public final long submitted;
+        public final long coalesced;
+        public final long batches;
+
+        private TaskQueueStats(int depth, int capacity, long submitted, long coalesced, long batches) {
+            this.depth = depth;
+            this.capacity = capacity;
+            this.submitted = submitted;
+            this.coalesced = coalesced;
+            this.batches = batches;
+        }
+
+        public double getMergeRatio() {
+            return submitted == 0
+                    ? 0.0
+                    : (double) coalesced / submitted;
+        }
+
+        @Override
+        public String toString() {
+            return "TaskQueueStats{depth=" + depth + "/" + capacity + ", submitted=" + submitted + ", coalesced=" + coalesced + ", batches=" + batches + '}';
+        }
+    }
+
+    public TaskQueueStats getTaskQueueStats() {
+        synchronized (taskQueue) {
+            return new TaskQueueStats(taskQueue.getDepth(), taskQueue.getCapacity(), taskQueue.getSubmitted(), taskQueue.getCoalesced(), taskQueue.getBatches());
+        }
+    }
+
     public static final class ProcessPostponedResult {
         public final ImmutableList<ConversionRate> succeeded;
         public final ImmutableList<ConversionRate> failed;
+        /**
+         * Days which processing failed as a whole; their pairs are in {@link #failed}.
+         */
+        public final ImmutableList<UtcDay> failedDays;
 
-        private ProcessPostponedResult(ImmutableList<ConversionRate> succeeded, ImmutableList<ConversionRate> failed) {
+        private ProcessPostponedResult(ImmutableList<ConversionRate> succeeded, ImmutableList<ConversionRate> failed, ImmutableList<UtcDay> failedDays) {
             this.succeeded = succeeded;
             this.failed = failed;
+            this.failedDays = failedDays;
         }
     }
+
+    /**
+     * Number of days {@link #processAllPostponedEvents} processes concurrently; 1 means processing in the calling thread.
+     */
+    public void setPostponedParallelism(int postponedParallelism) {
+        checkArgument(postponedParallelism > 0, "Parallelism must be positive");
+        this.postponedParallelism = postponedParallelism;
+    }
+
+    public int getPostponedParallelism() {
+        return postponedParallelism;
+    }
+
+    /**
+     * Resolves rates for all days with postponed events and reenacts the events. Every day is processed as a unit in its own
+     * transaction: rates resolution, storage of rates loaded from net and reenactment of the day's remembered events;
+     * failure of a day doesn't affect other days. Up to {@link #getPostponedParallelism()} days are processed concurrently.
+     */
     public final ProcessPostponedResult processAllPostponedEvents(Optional<Consumer<Integer>> percentageProgressTracker, boolean compatMode) {
         final Integer[] counter = new Integer[] {0};
         final List<Accounter.PostponingReasons> collected =
@@ -190,15 +277,124 @@ public class CurrenciesExchangeService implements CurrencyRatesRepository {
             quantaLastStage = 60f / tw;
         }
 
-        final ImmutableList.Builder<ConversionRate> successesBuilder = ImmutableList.builder();
-        final ImmutableList.Builder<ConversionRate> failsBuilder = ImmutableList.builder();
+        final HashSet<ConversionPair> allPairs = new HashSet<>();
+        for (final List<ConversionPair> pairsList : work.values()) {
+            allPairs.addAll(pairsList);
+        }
+        final ImmutableTable<UtcDay, ConversionPair, BigDecimal> known = ratesRepository.getConversionMultipliers(work.keySet(), allPairs);
 
+        final ArrayList<Callable<DayOutcome>> dayTasks = new ArrayList<>(work.size());
+        final int[] percentageRef = new int[] {totalPercentage};
+        final float quantaLast = quantaLastStage;
         for (final Map.Entry<UtcDay, List<ConversionPair>> entry : work.entrySet()) {
             final UtcDay day = entry.getKey();
             final List<ConversionPair> pairsList = entry.getValue();
+            dayTasks.add(() -> {
+                final DayOutcome outcome = processPostponedDay(day, pairsList, known.row(day));
+                if (percentageProgressTracker.isPresent()) {
+                    synchronized (percentageRef) {
+                        percentageProgressTracker.get().accept(percentageRef[0] += (int) (quantaLast * pairsList.size()));
+                    }
+                }
+                return outcome;
+            });
+        }
+
+        final ImmutableList.Builder<ConversionRate> successesBuilder = ImmutableList.builder();
+        final ImmutableList.Builder<ConversionRate> failsBuilder = ImmutableList.builder();
+        final ImmutableList.Builder<UtcDay> failedDaysBuilder = ImmutableList.builder();
+        for (final DayOutcome outcome : runDayTasks(dayTasks)) {
+            successesBuilder.addAll(outcome.succeeded);
+            failsBuilder.addAll(outcome.failed);
+            if (outcome.failure != null) {
+                failedDaysBuilder.add(outcome.day);
+            }
+        }
+
+        if (percentageProgressTracker.isPresent() && percentageRef[0] < 100) {
+            percentageProgressTracker.get().accept(100);
+        }
+
+        return new ProcessPostponedResult(successesBuilder.build(), failsBuilder.build(), failedDaysBuilder.build());
+    }
+
+    private static final class DayOutcome {
+        private final UtcDay day;
+        private final ImmutableList<ConversionRate> succeeded;
+        private final ImmutableList<ConversionRate> failed;
+        @Nullable private final Throwable failure;
 
-            for (ConversionPair conversionPair : pairsList) {
-                final Optional<BigDecimal> multiplier = getConversionMultiplier(day, conversionPair.from, conversionPair.to, true);
+        private DayOutcome(UtcDay day, ImmutableList<ConversionRate> succeeded, ImmutableList<ConversionRate> failed, @Nullable Throwable failure) {
+            this.day = day;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * Receiver of {@link #processAllPostponedEvents(boolean, PostponedEventsSink)} results, called from the processing thread
+     * after every day is committed.
+     */
+    public interface PostponedEventsSink {
+
+        void succeeded(ConversionRate rate);
+
+        void failed(ConversionRate rate);
+
+        /**
+         * Called before {@link #failed} calls for all pairs of a day which processing failed as a whole.
+         */
+        default void dayFailed(UtcDay day, Throwable cause) {}
+
+    }
+
+    /**
+     * Streaming variant of {@link #processAllPostponedEvents(Optional, boolean)}: days are fetched from accounter one at a time
+     * in ascending order, the next one only after the previous is processed and committed in the calling thread, and their
+     * results are handed to the sink right away. Nothing is accumulated across days and no reading cursor is held open during
+     * days' transactions, so memory use doesn't depend on the number of days with postponed events.
+     *
+     * @return number of processed days
+     */
+    public final long processAllPostponedEvents(boolean compatMode, PostponedEventsSink sink) {
+        long days = 0;
+        Optional<Accounter.PostponingReasons> next = accounter.getPostponingReasonsAfter(Optional.empty(), compatMode);
+        while (next.isPresent()) {
+            final Accounter.PostponingReasons reasons = next.get();
+            final List<ConversionPair> pairsList =
+                    CurrencyRatesProvider.streamConversionPairs(reasons.sufferingUnits).collect(Collectors.toList());
+
+            if (!pairsList.isEmpty()) {
+                final DayOutcome outcome = processPostponedDay(reasons.dayUtc, pairsList, null);
+
+                if (outcome.failure != null) {
+                    sink.dayFailed(outcome.day, outcome.failure);
+                }
+                outcome.succeeded.forEach(sink::succeeded);
+                outcome.failed.forEach(sink::failed);
+                days++;
+            }
+
+            // failed days keep their reasons, so paging goes by day rather than from the start
+            next = accounter.getPostponingReasonsAfter(Optional.of(reasons.dayUtc), compatMode);
+        }
+        return days;
+    }
+
+    /**
+     * @param knownForDay prefetched repository rates, fetched here when null
+     */
+    private DayOutcome processPostponedDay(UtcDay day, List<ConversionPair> pairsList, @Nullable Map<ConversionPair, BigDecimal> knownForDay) {
+        final ImmutableList.Builder<ConversionRate> successesBuilder = ImmutableList.builder();
+        final ImmutableList.Builder<ConversionRate> failsBuilder = ImmutableList.builder();
+        try {
+            if (knownForDay == null) {
+                knownForDay = ratesRepository.getConversionMultipliers(day, pairsList);
+            }
+            final CoalescingTaskQueue.Batch tasks = new CoalescingTaskQueue.Batch();
+            for (final ConversionPair conversionPair : pairsList) {
+                final Optional<BigDecimal> multiplier = resolveConversionMultiplier(day, conversionPair.from, conversionPair.to, true, knownForDay, tasks);
 
                 if (multiplier.isPresent()) {
                     successesBuilder.add(new ConversionRate(day, conversionPair, multiplier.get()));
@@ -206,9 +402,147 @@ public class CurrenciesExchangeService implements CurrencyRatesRepository {
                     failsBuilder.add(new ConversionRate(day, conversionPair, BigDecimal.ZERO));
                 }
             }
+            runTaskBatch(tasks.toWorks());
+            return new DayOutcome(day, successesBuilder.build(), failsBuilder.build(), null);
+        } catch (Throwable th) {
+            logger.error("Postponed events processing failed for " + day, th);
+            final ImmutableList.Builder<ConversionRate> allFailed = ImmutableList.builder();
+            for (final ConversionPair conversionPair : pairsList) {
+                allFailed.add(new ConversionRate(day, conversionPair, BigDecimal.ZERO));
+            }
+            return new DayOutcome(day, ImmutableList.of(), allFailed.build(), th);
+        }
+    }
+
+    private List<DayOutcome> runDayTasks(List<Callable<DayOutcome>> dayTasks) {
+        final int parallelism = Math.min(postponedParallelism, dayTasks.size());
+        final ArrayList<DayOutcome> outcomes = new ArrayList<>(dayTasks.size());
+        if (parallelism <= 1) {
+            for (final Callable<DayOutcome> task : dayTasks) {
+                try {
+                    outcomes.add(task.call());
+                } catch (Exception ex) {
+                    throw Throwables.propagate(ex);
+                }
+            }
+            return outcomes;
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (final Future<DayOutcome> future : pool.invokeAll(dayTasks)) {
+                outcomes.add(future.get());
+            }
+            return outcomes;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(ex);
+        } catch (ExecutionException ex) {
+            throw Throwables.propagate(ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static final class BackfillResult {
+        public final ImmutableList<UtcDay> filled;
+        public final ImmutableList<UtcDay> failed;
+        public final int ratesAdded;
+
+        private BackfillResult(ImmutableList<UtcDay> filled, ImmutableList<UtcDay> failed, int ratesAdded) {
+            this.filled = filled;
+            this.failed = failed;
+            this.ratesAdded = ratesAdded;
+        }
+    }
+    public final BackfillResult backfill(UtcDay from, UtcDay to, Set<CurrencyUnit> units) {
+        return backfill(from, to, units, Optional.empty());
+    }
+
+    /**
+     * Loads from net and stores rates of the given currencies for every day in [from, to] (today at most) where they are absent.
+     * Rates of all currencies except BTC are against RUB; BTC rates are against all other given currencies.
+     * Up to {@link #BACKFILL_DAYS_IN_FLIGHT} days are fetched concurrently, each fetched day is stored with one batch insert.
+     */
+    public final BackfillResult backfill(UtcDay from, UtcDay to, Set<CurrencyUnit> units, Optional<Consumer<Integer>> percentageProgressTracker) {
+        checkArgument(from.compareTo(to) <= 0, "from is after to");
+        final UtcDay today = new UtcDay();
+        final UtcDay last = to.compareTo(today) > 0 ? today : to;
+
+        final CurrencyUnit btcUnit = btcLoader.getMainUnit();
+        final CurrencyUnit rubUnit = cbrLoader.getMainUnit();
+        final ImmutableList.Builder<ConversionPair> cbrPairsBuilder = ImmutableList.builder();
+        final ImmutableList.Builder<ConversionPair> btcPairsBuilder = ImmutableList.builder();
+        for (final CurrencyUnit unit : units) {
+            if (!unit.equals(rubUnit) && !unit.equals(btcUnit)) {
+                cbrPairsBuilder.add(new ConversionPair(unit, rubUnit));
+            }
+            if (units.contains(btcUnit) && !unit.equals(btcUnit)) {
+                btcPairsBuilder.add(new ConversionPair(btcUnit, unit));
+            }
+        }
+        final ImmutableList<ConversionPair> cbrPairs = cbrPairsBuilder.build();
+        final ImmutableList<ConversionPair> btcPairs = btcPairsBuilder.build();
+
+        // planning: one lookup for the whole range, rate in either direction counts as present
+        final ArrayList<UtcDay> days = new ArrayList<>();
+        for (UtcDay day = from; day.compareTo(last) <= 0; day = day.add(1)) {
+            days.add(day);
+        }
+        final HashSet<ConversionPair> lookupPairs = new HashSet<>();
+        for (final ConversionPair pair : Iterables.concat(cbrPairs, btcPairs)) {
+            lookupPairs.add(pair);
+            lookupPairs.add(new ConversionPair(pair.to, pair.from));
+        }
+        final ImmutableTable<UtcDay, ConversionPair, BigDecimal> present = ratesRepository.getConversionMultipliersStraight(days, lookupPairs);
+
+        final ArrayList<BackfillTask> plan = new ArrayList<>();
+        for (final UtcDay day : days) {
+            final ImmutableMap<ConversionPair, BigDecimal> presentForDay = present.row(day);
+            final List<CurrencyUnit> cbrMissing = missingUnits(cbrPairs, presentForDay, false);
+            if (!cbrMissing.isEmpty()) {
+                plan.add(new BackfillTask(cbrLoader, day, cbrMissing));
+            }
+            if (!day.equals(today)) { // only momentary rates for btc today
+                final List<CurrencyUnit> btcMissing = missingUnits(btcPairs, presentForDay, true);
+                if (!btcMissing.isEmpty()) {
+                    plan.add(new BackfillTask(btcLoader, day, btcMissing));
+                }
+            }
+        }
+        int totalPercentage = 10;
+        if (percentageProgressTracker.isPresent()) {
+            percentageProgressTracker.get().accept(totalPercentage);
+        }
+
+        final float quanta = 90f / Math.max(plan.size(), 1);
+        float progress = totalPercentage;
+        final ArrayDeque<BackfillTask> inFlight = new ArrayDeque<>(BACKFILL_DAYS_IN_FLIGHT);
+        final Set<UtcDay> filledDays = new TreeSet<>();
+        final Set<UtcDay> failedDays = new TreeSet<>();
+        int ratesAdded = 0;
+        final Iterator<BackfillTask> planIterator = plan.iterator();
+        while (planIterator.hasNext() || !inFlight.isEmpty()) {
+            while (planIterator.hasNext() && inFlight.size() < BACKFILL_DAYS_IN_FLIGHT) {
+                final BackfillTask task = planIterator.next();
+                task.future = task.loader.loadCurrenciesAsync(false, Optional.of(task.day), Optional.of(task.units));
+                inFlight.add(task);
+            }
+
+            final BackfillTask task = inFlight.poll();
+            final int added = storeBackfilled(task);
+            if (added > 0) {
+                ratesAdded += added;
+                filledDays.add(task.day);
+            } else if (added < 0) {
+                failedDays.add(task.day);
+            }
 
             if (percentageProgressTracker.isPresent()) {
-                percentageProgressTracker.get().accept(totalPercentage += (int) (quantaLastStage * pairsList.size()));
+                progress += quanta;
+                if ((int) progress > totalPercentage) {
+                    percentageProgressTracker.get().accept(totalPercentage = (int) progress);
+                }
             }
         }
 
@@ -216,12 +550,64 @@ public class CurrenciesExchangeService implements CurrencyRatesRepository {
             percentageProgressTracker.get().accept(100);
         }
 
-        return new ProcessPostponedResult(successesBuilder.build(), failsBuilder.build());
+        failedDays.removeAll(filledDays);
+        return new BackfillResult(ImmutableList.copyOf(filledDays), ImmutableList.copyOf(failedDays), ratesAdded);
+    }
+
+    private static List<CurrencyUnit> missingUnits(List<ConversionPair> pairs, Map<ConversionPair, BigDecimal> present, boolean mainIsFrom) {
+        final ArrayList<CurrencyUnit> missing = new ArrayList<>(pairs.size());
+        for (final ConversionPair pair : pairs) {
+            if (!present.containsKey(pair) && !present.containsKey(new ConversionPair(pair.to, pair.from))) {
+                missing.add(mainIsFrom ? pair.to : pair.from);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * @return number of added rates or -1 if nothing was loaded
+     */
+    private int storeBackfilled(BackfillTask task) {
+        final Map<CurrencyUnit, BigDecimal> rates;
+        try {
+            rates = task.future.join();
+        } catch (CompletionException ex) {
+            logger.warn("Backfill load for " + task.day + " failed", ex.getCause());
+            return -1;
+        }
+
+        final CurrencyUnit mainUnit = task.loader.getMainUnit();
+        final boolean directionFromMainToMapped = task.loader.directionFromMainToMapped();
+        final ImmutableMap.Builder<ConversionPair, BigDecimal> batchBuilder = ImmutableMap.builder();
+        for (final CurrencyUnit unit : task.units) {
+            final BigDecimal rate = rates.get(unit);
+            if (rate != null) {
+                batchBuilder.put(directionFromMainToMapped ? new ConversionPair(mainUnit, unit) : new ConversionPair(unit, mainUnit), rate);
+            }
+        }
+        final ImmutableMap<ConversionPair, BigDecimal> batch = batchBuilder.build();
+        if (batch.isEmpty()) {
+            return -1;
+        }
+        return addRates(task.day, batch);
+    }
+
+    private static final class BackfillTask {
+        private final ExchangeRatesLoader loader;
+        private final UtcDay day;
+        private final List<CurrencyUnit> units;
+        private CompletableFuture<Map<CurrencyUnit, BigDecimal>> future;
+
+        private BackfillTask(ExchangeRatesLoader loader, UtcDay day, List<CurrencyUnit> units) {
+            this.loader = loader;
+            this.day = day;
+            this.units = units;
+        }
     }
 
     @Override
     public final Optional<BigDecimal> getConversionMultiplier(UtcDay day, CurrencyUnit from, CurrencyUnit to) {
-        return getConversionMultiplier(day, from, to, false);
+        return getConversionMultiplier(day, from, to, false, null);
     }
 
     @Override
@@ -229,58 +615,127 @@ public class CurrenciesExchangeService implements CurrencyRatesRepository {
         return getConversionMultiplier(day, from, to);
     }
 
-    private Optional<BigDecimal> getConversionMultiplier(UtcDay day, CurrencyUnit from, CurrencyUnit to, boolean processPostponedForExistingRates) {
-        final ImmutableList.Builder<Runnable> tasksBuilder = ImmutableList.builder();
-
-        try {
-            final CurrencyUnit btcUnit = btcLoader.getMainUnit();
-            if (from.equals(btcUnit) || to.equals(btcUnit)) {
-                // btc case
-                final CurrencyUnit other = from.equals(btcUnit)
-                        ? to
-                        : from;
-
-                if (day.equals(new UtcDay())) {
-                    // only momentary rates for btc, return right away
-                    return loadFromNet(btcLoader, day, other, btcUnit, from, to, tasksBuilder, null);
-                }
+    @Override
+    public final ImmutableMap<ConversionPair, BigDecimal> getConversionMultipliers(UtcDay day, Collection<ConversionPair> pairs) {
+        return getConversionMultipliersWithKnown(day, pairs, ratesRepository.getConversionMultipliers(day, pairs));
+    }
 
-                return conversionMultiplierFor(btcLoader, day, other, btcUnit, from, to, tasksBuilder, processPostponedForExistingRates, null);
+    @Override
+    public final ImmutableTable<UtcDay, ConversionPair, BigDecimal> getConversionMultipliers(Collection<UtcDay> days, Collection<ConversionPair> pairs) {
+        final ImmutableTable<UtcDay, ConversionPair, BigDecimal> known = ratesRepository.getConversionMultipliers(days, pairs);
+        final ImmutableTable.Builder<UtcDay, ConversionPair, BigDecimal> builder = ImmutableTable.builder();
+        for (final UtcDay day : ImmutableSet.copyOf(days)) {
+            for (final Map.Entry<ConversionPair, BigDecimal> entry : getConversionMultipliersWithKnown(day, pairs, known.row(day)).entrySet()) {
+                builder.put(day, entry.getKey(), entry.getValue());
             }
+        }
+        return builder.build();
+    }
 
-            final CurrencyUnit rubUnit = cbrLoader.getMainUnit();
-            if (from.equals(rubUnit) || to.equals(rubUnit)) {
-                // rub case
-                final CurrencyUnit other = from.equals(rubUnit)
-                        ? to
-                        : from;
+    @Override
+    public final ImmutableMap<ConversionPair, BigDecimal> getConversionMultipliersStraight(UtcDay day, Collection<ConversionPair> pairs) {
+        return getConversionMultipliers(day, pairs);
+    }
 
-                return conversionMultiplierFor(cbrLoader, day, other, rubUnit, from, to, tasksBuilder, processPostponedForExistingRates, null);
-            }
+    @Override
+    public final ImmutableTable<UtcDay, ConversionPair, BigDecimal> getConversionMultipliersStraight(Collection<UtcDay> days, Collection<ConversionPair> pairs) {
+        return getConversionMultipliers(days, pairs);
+    }
 
-            // arbitrary case
-            final HashMap<CurrencyUnit, BigDecimal> rubCache = new HashMap<>();
-            final Optional<BigDecimal> rubToFrom = conversionMultiplierFor(cbrLoader, day, from, rubUnit, rubUnit, from, tasksBuilder, processPostponedForExistingRates, rubCache);
-            Optional<BigDecimal> rubToTo = Optional.ofNullable(rubCache.get(to));
-            if (!rubToTo.isPresent()) {
-                rubToTo = conversionMultiplierFor(cbrLoader, day, to, rubUnit, rubUnit, to, tasksBuilder, processPostponedForExistingRates, null);
-            }
-            if (rubToFrom.isPresent() && rubToTo.isPresent()) {
-                final BigDecimal arbitraryRate = CurrencyRatesProvider.getConversionMultiplierFromIntermediateMultipliers(rubToFrom.get(), rubToTo.get());
-                addPostponedTask(ImmutableMap.of(from, arbitraryRate), day, to, tasksBuilder);
-                return Optional.of(arbitraryRate);
+    private ImmutableMap<ConversionPair, BigDecimal> getConversionMultipliersWithKnown(UtcDay day, Collection<ConversionPair> pairs, Map<ConversionPair, BigDecimal> known) {
+        final ImmutableMap.Builder<ConversionPair, BigDecimal> builder = ImmutableMap.builder();
+        for (final ConversionPair pair : ImmutableSet.copyOf(pairs)) {
+            final Optional<BigDecimal> multiplier = getConversionMultiplier(day, pair.from, pair.to, false, known);
+            if (multiplier.isPresent()) {
+                builder.put(pair, multiplier.get());
             }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Stored rates are looked up along any path between currencies, the service only decides which loader
+     * to ask when nothing is stored.
+     */
+    private static CurrencyRatesRepository withRatesCaches(CurrencyRatesRepository ratesRepository) {
+        checkNotNull(ratesRepository, "ratesRepository");
+        if (ratesRepository instanceof CrossRatesResolver) {
+            return ratesRepository;
+        }
+        return new CrossRatesResolver(ratesRepository instanceof CachingCurrencyRatesRepository
+                ? ratesRepository
+                : new CachingCurrencyRatesRepository(ratesRepository));
+    }
 
-            return Optional.empty(); // nothing worked :(
+    private Optional<BigDecimal> getConversionMultiplier(UtcDay day,
+                                                         CurrencyUnit from,
+                                                         CurrencyUnit to,
+                                                         boolean processPostponedForExistingRates,
+                                                         @Nullable Map<ConversionPair, BigDecimal> known) {
+        final CoalescingTaskQueue.Batch tasks = new CoalescingTaskQueue.Batch();
+        try {
+            return resolveConversionMultiplier(day, from, to, processPostponedForExistingRates, known, tasks);
         } finally {
-            scheduleTasks(tasksBuilder);
+            taskQueue.submit(tasks);
         }
     }
 
-    private void scheduleTasks(ImmutableList.Builder<Runnable> tasksBuilder) {
-        final ImmutableList<Runnable> tasks = tasksBuilder.build();
-        if (tasks.size() > 0)
-            getExecutor().execute(() -> runWithTransaction(tasks.reverse()));
+    private Optional<BigDecimal> resolveConversionMultiplier(UtcDay day,
+                                                             CurrencyUnit from,
+                                                             CurrencyUnit to,
+                                                             boolean processPostponedForExistingRates,
+                                                             @Nullable Map<ConversionPair, BigDecimal> known,
+                                                             CoalescingTaskQueue.Batch tasks) {
+        final CurrencyUnit btcUnit = btcLoader.getMainUnit();
+        final boolean btcCase = from.equals(btcUnit) || to.equals(btcUnit);
+        if (btcCase && day.equals(new UtcDay())) {
+            // only momentary rates for btc, return right away
+            final CurrencyUnit other = from.equals(btcUnit)
+                    ? to
+                    : from;
+            return loadFromNet(btcLoader, day, other, btcUnit, from, to, tasks, null);
+        }
+
+        final Optional<BigDecimal> stored = storedConversionMultiplier(day, from, to, known);
+        if (stored.isPresent()) {
+            if (processPostponedForExistingRates) {
+                addPostponedTask(ImmutableMap.of(from, stored.get()), day, to, tasks);
+            }
+            return stored;
+        }
+
+        // nothing stored, ask the loader that publishes such rates
+        if (btcCase) {
+            final CurrencyUnit other = from.equals(btcUnit)
+                    ? to
+                    : from;
+
+            return fromNetToRepo(btcLoader, day, other, btcUnit, from, to, tasks, null);
+        }
+
+        final CurrencyUnit rubUnit = cbrLoader.getMainUnit();
+        if (from.equals(rubUnit) || to.equals(rubUnit)) {
+            final CurrencyUnit other = from.equals(rubUnit)
+                    ? to
+                    : from;
+
+            return fromNetToRepo(cbrLoader, day, other, rubUnit, from, to, tasks, null);
+        }
+
+        // arbitrary case
+        final HashMap<CurrencyUnit, BigDecimal> rubCache = new HashMap<>();
+        final Optional<BigDecimal> rubToFrom = conversionMultiplierFor(cbrLoader, day, from, rubUnit, rubUnit, from, tasks, processPostponedForExistingRates, rubCache, known);
+        Optional<BigDecimal> rubToTo = Optional.ofNullable(rubCache.get(to));
+        if (!rubToTo.isPresent()) {
+            rubToTo = conversionMultiplierFor(cbrLoader, day, to, rubUnit, rubUnit, to, tasks, processPostponedForExistingRates, null, known);
+        }
+        if (rubToFrom.isPresent() && rubToTo.isPresent()) {
+            final BigDecimal arbitraryRate = CurrencyRatesProvider.getConversionMultiplierFromIntermediateMultipliers(rubToFrom.get(), rubToTo.get());
+            addPostponedTask(ImmutableMap.of(from, arbitraryRate), day, to, tasks);
+            return Optional.of(arbitraryRate);
+        }
+
+        return Optional.empty(); // nothing worked :(
     }
 
     @Override
@@ -288,17 +743,40 @@ public class CurrenciesExchangeService implements CurrencyRatesRepository {
         final boolean success = ratesRepository.addRate(dayUtc, from, to, rate);
 
         if (success) {
-            final ImmutableList.Builder<Runnable> tasksBuilder = new ImmutableList.Builder<>();
+            final CoalescingTaskQueue.Batch tasks = new CoalescingTaskQueue.Batch();
             try {
-                addPostponedTask(ImmutableMap.of(from, rate), dayUtc, to, tasksBuilder);
+                addPostponedTask(ImmutableMap.of(from, rate), dayUtc, to, tasks);
             } finally {
-                scheduleTasks(tasksBuilder);
+                taskQueue.submit(tasks);
             }
         }
 
         return success;
     }
 
+    @Override
+    public int addRates(UtcDay dayUtc, Map<ConversionPair, BigDecimal> rates) {
+        final int added = ratesRepository.addRates(dayUtc, rates);
+
+        if (added > 0) {
+            final HashMap<CurrencyUnit, HashMap<CurrencyUnit, BigDecimal>> byTo = new HashMap<>();
+            for (final Map.Entry<ConversionPair, BigDecimal> entry : rates.entrySet()) {
+                byTo.computeIfAbsent(entry.getKey().to, unit -> new HashMap<>()).put(entry.getKey().from, entry.getValue());
+            }
+
+            final CoalescingTaskQueue.Batch tasks = new CoalescingTaskQueue.Batch();
+            try {
+                for (final Map.Entry<CurrencyUnit, HashMap<CurrencyUnit, BigDecimal>> entry : byTo.entrySet()) {
+                    addPostponedTask(entry.getValue(), dayUtc, entry.getKey(), tasks);
+                }
+            } finally {
+                taskQueue.submit(tasks);
+            }
+        }
+
+        return added;
+    }
+
     @Override
     public final BigDecimal getLatestConversionMultiplier(CurrencyUnit from, CurrencyUnit to) {
         return ratesRepository.getLatestConversionMultiplier(from, to);
@@ -319,6 +797,11 @@ public class CurrenciesExchangeService implements CurrencyRatesRepository {
         return ratesRepository.getIndexedForDay(day);
     }
 
+    @Override
+    public ImmutableList<ConversionRate> getRatesForDay(UtcDay day) {
+        return ratesRepository.getRatesForDay(day);
+    }
+
     @Override
     public Long currentSeqValue() {
         return ratesRepository.currentSeqValue();
@@ -336,19 +819,28 @@ public class CurrenciesExchangeService implements CurrencyRatesRepository {
             CurrencyUnit mainUnit,
             CurrencyUnit from,
             CurrencyUnit to,
-            ImmutableList.Builder<Runnable> tasksBuilder,
+            CoalescingTaskQueue.Batch tasks,
             boolean processPostponedForExistingRates,
-            @Nullable HashMap<CurrencyUnit, BigDecimal> rubCache
+            @Nullable HashMap<CurrencyUnit, BigDecimal> rubCache,
+            @Nullable Map<ConversionPair, BigDecimal> known
     ) {
-        final Optional<BigDecimal> resultRef = ratesRepository.getConversionMultiplier(day, from, to);
+        final Optional<BigDecimal> resultRef = storedConversionMultiplier(day, from, to, known);
         if (resultRef.isPresent()) {
             if (processPostponedForExistingRates) {
-                addPostponedTask(ImmutableMap.of(from, resultRef.get()), day, to, tasksBuilder);
+                addPostponedTask(ImmutableMap.of(from, resultRef.get()), day, to, tasks);
             }
             return resultRef;
         }
 
-        return fromNetToRepo(loader, day, other, mainUnit, from, to, tasksBuilder, rubCache);
+        return fromNetToRepo(loader, day, other, mainUnit, from, to, tasks, rubCache);
+    }
+
+    private Optional<BigDecimal> storedConversionMultiplier(UtcDay day, CurrencyUnit from, CurrencyUnit to, @Nullable Map<ConversionPair, BigDecimal> known) {
+        // absence in prefetched rates is not trusted: rates loaded from net earlier might be already stored
+        final BigDecimal prefetched = known != null ? known.get(new ConversionPair(from, to)) : null;
+        return prefetched != null
+                ? Optional.of(prefetched)
+                : ratesRepository.getConversionMultiplier(day, from, to);
     }
 
     private Optional<BigDecimal> fromNetToRepo(
@@ -358,21 +850,11 @@ public class CurrenciesExchangeService implements CurrencyRatesRepository {
             CurrencyUnit mainUnit,
             final CurrencyUnit from,
             final CurrencyUnit to,
-            ImmutableList.Builder<Runnable> tasksBuilder,
+            CoalescingTaskQueue.Batch tasks,
             @Nullable final HashMap<CurrencyUnit, BigDecimal> rubCache
     ) {
-        final Optional<BigDecimal> result = loadFromNet(loader, day, other, mainUnit, from, to, tasksBuilder, rubCache);
-        result.ifPresent(
-                bigDecimal -> tasksBuilder.add(
-                        () -> {
-                            try {
-                                addRateToDelegate(day, from, to, bigDecimal);
-                            } catch (Throwable th) {
-                                logger.error("Rate addition (the one requested) after load from net failed", th);
-                            }
-                        }
-                )
-        );
+        final Optional<BigDecimal> result = loadFromNet(loader, day, other, mainUnit, from, to, tasks, rubCache);
+        result.ifPresent(bigDecimal -> tasks.addRates(day, mainUnit, ImmutableMap.of(new ConversionPair(from, to), bigDecimal)));
         return result;
     }
 
@@ -383,11 +865,11 @@ public class CurrenciesExchangeService implements CurrencyRatesRepository {
             CurrencyUnit mainUnit,
             CurrencyUnit from,
             CurrencyUnit to,
-            ImmutableList.Builder<Runnable> tasksBuilder,
+            CoalescingTaskQueue.Batch tasks,
             @Nullable final HashMap<CurrencyUnit, BigDecimal> rubCache
     ) {
         final Map<CurrencyUnit, BigDecimal> rates = loadCurrencies(loader, day, other);
-        return checkOtherWayAroundAndGet(day, mainUnit, rates, from, to, tasksBuilder, loader.directionFromMainToMapped(), rubCache);
+        return checkOtherWayAroundAndGet(day, mainUnit, rates, from, to, tasks, loader.directionFromMainToMapped(), rubCache);
     }
 
     private static Map<CurrencyUnit, BigDecimal> loadCurrencies(ExchangeRatesLoader loader, UtcDay day, CurrencyUnit other) {
@@ -407,7 +889,7 @@ public class CurrenciesExchangeService implements CurrencyRatesRepository {
                                                            final Map<CurrencyUnit, BigDecimal> rates,
                                                            CurrencyUnit from,
                                                            CurrencyUnit to,
-                                                           final ImmutableList.Builder<Runnable> tasksBuilder,
+                                                           final CoalescingTaskQueue.Batch tasks,
                                                            final boolean directionFromMainToMapped,
                                                            @Nullable final HashMap<CurrencyUnit, BigDecimal> rubCache) {
         if (rates.isEmpty())
@@ -415,7 +897,7 @@ public class CurrenciesExchangeService implements CurrencyRatesRepository {
         final boolean btcVolatile = day.equals(new UtcDay()) && mainUnit.equals(Units.BTC);
 
         if (!btcVolatile) {
-            addPostponedTask(rates, day, mainUnit, tasksBuilder);
+            addPostponedTask(rates, day, mainUnit, tasks);
         }
 
         final boolean fromIsMain = from.equals(mainUnit);
@@ -438,66 +920,121 @@ public class CurrenciesExchangeService implements CurrencyRatesRepository {
                 }
             }
         } finally {
-            if (!btcVolatile) {
+            if (!btcVolatile && !rates.isEmpty()) {
+                // whole fetched day goes to repository in one batch
+                final ImmutableMap.Builder<ConversionPair, BigDecimal> batchBuilder = ImmutableMap.builder();
                 for (final Map.Entry<CurrencyUnit, BigDecimal> entry : rates.entrySet()) {
-                    final CurrencyUnit key = entry.getKey();
-                    tasksBuilder.add(() -> {
-                        try {
-                            if (directionFromMainToMapped) {
-                                addRateToDelegate(day, mainUnit, key, entry.getValue());
-                            } else {
-                                addRateToDelegate(day, key, mainUnit, entry.getValue());
-                            }
-                        } catch (Throwable th) {
-                            logger.error("Rate addition after load from net failed", th);
-                            Throwables.propagate(th);
-                        }
-                    });
+                    final ConversionPair pair = directionFromMainToMapped
+                            ? new ConversionPair(mainUnit, entry.getKey())
+                            : new ConversionPair(entry.getKey(), mainUnit);
+                    batchBuilder.put(pair, entry.getValue());
                 }
+                tasks.addRates(day, mainUnit, batchBuilder.build());
             }
         }
     }
 
-    private void addRateToDelegate(UtcDay day, CurrencyUnit from, CurrencyUnit to, BigDecimal bigDecimal) {
-        if (!ratesRepository.addRate(day, from, to, bigDecimal)) {
-            logger.error("Rate addition after load from net failed for some reason");
+    private void addRatesToDelegate(UtcDay day, ImmutableMap<ConversionPair, BigDecimal> rates) {
+        final int added = ratesRepository.addRates(day, rates);
+        if (added < rates.size()) {
+            logger.info("Only {} of {} rates for {} added after load from net, others are already present or failed", added, rates.size(), day);
         }
     }
 
-    private void addPostponedTask(Map<CurrencyUnit, BigDecimal> rates, UtcDay day, CurrencyUnit forRates, ImmutableList.Builder<Runnable> tasksBuilder) {
-        final ImmutableMap<CurrencyUnit, BigDecimal> ratesSnapshot = ImmutableMap.copyOf(rates);
-        tasksBuilder.add(() -> {
-            try {
-                for (final Map.Entry<CurrencyUnit, BigDecimal> entry : ratesSnapshot.entrySet()) {
-                    final BigDecimal rate = entry.getValue();
-                    final BigDecimal rateReversed = CurrencyRatesProvider.reverseRate(rate);
-                    final CurrencyUnit toUnit = entry.getKey();
-                    accounter.postponedFundsMutationEventRepository().streamRememberedEvents(day, forRates, toUnit).collect(Collectors.toList()).forEach(postponedMutationEvent -> {
-                        final FundsMutationElementCore core = new FundsMutationElementCore(accounter, treasury, this);
-                        core.setPostponedEvent(postponedMutationEvent, postponedMutationEvent.conversionUnit.equals(forRates) ? rate : rateReversed);
-                        final Submitter.Result res = core.submit();
-                        if (!res.isSuccessful()) {
-                            logger.info("Remembered events save fail; general error: {}; field errors: {}", res.generalError, Arrays.toString(res.fieldErrors.toArray()));
-                        } else {
-                            accounter.postponedFundsMutationEventRepository().markEventProcessed(postponedMutationEvent);
-                        }
-                    });
-                    accounter.postponedCurrencyExchangeEventRepository().streamRememberedExchanges(day, forRates, toUnit).collect(Collectors.toList()).forEach(postponedExchange -> {
-                        final ExchangeCurrenciesElementCore core = new ExchangeCurrenciesElementCore(accounter, treasury, this);
-                        core.setPostponedEvent(postponedExchange, postponedExchange.sellAccount.getUnit().equals(forRates) ? rate : rateReversed);
-                        final Submitter.Result res = core.submit();
-                        if (!res.isSuccessful()) {
-                            logger.info("Remembered exchanges save fail; general error: {}; field errors: {}", res.generalError, Arrays.toString(res.fieldErrors.toArray()));
-                        } else {
-                            accounter.postponedCurrencyExchangeEventRepository().markEventProcessed(postponedExchange);
-                        }
-                    });
+    private void addPostponedTask(Map<CurrencyUnit, BigDecimal> rates, UtcDay day, CurrencyUnit forRates, CoalescingTaskQueue.Batch tasks) {
+        tasks.addPostponed(day, forRates, rates);
+    }
+
+    /**
+     * Runs a drained batch of background work in one transaction; rates are stored first, so that replayed
+     * postponed events find them in repository.
+     */
+    private void runTaskBatch(ImmutableList<CoalescingTaskQueue.Work> works) {
+        final ImmutableList.Builder<Runnable> runnables = ImmutableList.builder();
+        for (final CoalescingTaskQueue.Work work : works) {
+            if (!work.rates.isEmpty()) {
+                final ImmutableMap<ConversionPair, BigDecimal> rates = ImmutableMap.copyOf(work.rates);
+                runnables.add(() -> {
+                    try {
+                        addRatesToDelegate(work.key.day, rates);
+                    } catch (Throwable th) {
+                        logger.error("Rates addition after load from net failed", th);
+                        Throwables.propagate(th);
+                    }
+                });
+            }
+        }
+        for (final CoalescingTaskQueue.Work work : works) {
+            if (!work.postponed.isEmpty()) {
+                final ImmutableMap<CurrencyUnit, BigDecimal> rates = ImmutableMap.copyOf(work.postponed);
+                runnables.add(() -> replayPostponed(rates, work.key.day, work.key.unit));
+            }
+        }
+        runWithTransaction(runnables.build());
+    }
+
+    private void replayPostponed(ImmutableMap<CurrencyUnit, BigDecimal> ratesSnapshot, UtcDay day, CurrencyUnit forRates) {
+        try {
+            for (final Map.Entry<CurrencyUnit, BigDecimal> entry : ratesSnapshot.entrySet()) {
+                final BigDecimal rate = entry.getValue();
+                final BigDecimal rateReversed = CurrencyRatesProvider.reverseRate(rate);
+                final CurrencyUnit toUnit = entry.getKey();
+                replayRemembered(
+                        accounter.postponedFundsMutationEventRepository().streamRememberedEvents(day, forRates, toUnit),
+                        postponedMutationEvent -> {
+                            final FundsMutationElementCore core = new FundsMutationElementCore(accounter, treasury, this);
+                            core.setPostponedEvent(postponedMutationEvent, postponedMutationEvent.conversionUnit.equals(forRates) ? rate : rateReversed);
+                            final Submitter.Result res = core.submit();
+                            if (!res.isSuccessful()) {
+                                logger.info("Remembered events save fail; general error: {}; field errors: {}", res.generalError, Arrays.toString(res.fieldErrors.toArray()));
+                            }
+                            return res.isSuccessful();
+                        },
+                        accounter.postponedFundsMutationEventRepository()::markEventsProcessed
+                );
+
+                replayRemembered(
+                        accounter.postponedCurrencyExchangeEventRepository().streamRememberedExchanges(day, forRates, toUnit),
+                        postponedExchange -> {
+                            final ExchangeCurrenciesElementCore core = new ExchangeCurrenciesElementCore(accounter, treasury, this);
+                            core.setPostponedEvent(postponedExchange, postponedExchange.sellAccount.getUnit().equals(forRates) ? rate : rateReversed);
+                            final Submitter.Result res = core.submit();
+                            if (!res.isSuccessful()) {
+                                logger.info("Remembered exchanges save fail; general error: {}; field errors: {}", res.generalError, Arrays.toString(res.fieldErrors.toArray()));
+                            }
+                            return res.isSuccessful();
+                        },
+                        accounter.postponedCurrencyExchangeEventRepository()::markEventsProcessed
+                );
+            }
+        } catch (Throwable th) {
+            logger.error("Postponed tasks reenactment error", th);
+            Throwables.propagate(th);
+        }
+    }
+
+    /**
+     * Reenacts remembered events straight from the stream; successfully reenacted ones are marked processed in chunks
+     * of {@link #REPLAY_MARK_CHUNK}, so neither the events nor their ids pile up in memory.
+     */
+    private static <T> void replayRemembered(Stream<T> remembered, Predicate<T> reenactment, Consumer<List<T>> markProcessed) {
+        final ArrayList<T> processed = new ArrayList<>(REPLAY_MARK_CHUNK);
+        try (final Stream<T> stream = remembered) {
+            final Iterator<T> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                final T event = iterator.next();
+                if (reenactment.test(event)) {
+                    processed.add(event);
+                    if (processed.size() == REPLAY_MARK_CHUNK) {
+                        markProcessed.accept(processed);
+                        processed.clear();
+                    }
                 }
-            } catch (Throwable th) {
-                logger.error("Postponed tasks reenactment error", th);
-                Throwables.propagate(th);
             }
-        });
+        }
+        if (!processed.isEmpty()) {
+            markProcessed.accept(processed);
+        }
     }
 
 }
@@ -19,7 +19,12 @@
 package ru.adios.budgeter;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.codehaus.jackson.JsonFactory;
@@ -35,17 +40,22 @@ import org.xml.sax.helpers.DefaultHandler;
 import ru.adios.budgeter.api.Treasury;
 import ru.adios.budgeter.api.UtcDay;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.math.BigDecimal;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.file.Path;
 import java.text.ParsePosition;
 import java.time.DateTimeException;
 import java.time.LocalDateTime;
@@ -53,12 +63,17 @@ import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.time.chrono.IsoChronology;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -72,26 +87,87 @@ import java.util.zip.GZIPInputStream;
  * @author Mikhail Kulikov
  */
 @ThreadSafe
-public class ExchangeRatesLoader {
+public class ExchangeRatesLoader implements Closeable {
 
     public static ExchangeRatesLoader.CbrLoader createCbrLoader(Treasury currenciesRepo) {
-        return new CbrLoader(currenciesRepo, CurrencyUnit.of(CbrLoader.CODE_RUB), new CbrParser());
+        return createCbrLoader(currenciesRepo, CbrLoader.CBR_ADDRESS);
+    }
+
+    /**
+     * For tests against a local stand-in of CBR daily rates service.
+     */
+    static ExchangeRatesLoader.CbrLoader createCbrLoader(Treasury currenciesRepo, String address) {
+        return new CbrLoader(currenciesRepo, CurrencyUnit.of(CbrLoader.CODE_RUB), new CbrParser(address));
     }
 
     public static ExchangeRatesLoader.BtcLoader createBtcLoader(Treasury currenciesRepo) {
-        return new BtcLoader(currenciesRepo, CurrencyUnit.of(BtcLoader.CODE_BTC), new BtcParser());
+        return createBtcLoader(currenciesRepo, BtcLoader.BITCOIN_AVERAGE_HISTORY_START);
+    }
+
+    /**
+     * Loader which keeps parsed BitcoinAverage history in memory-mapped files inside {@code historyDirectory},
+     * so history survives restarts and isn't downloaded again for days already stored. Files stay open until the loader
+     * is {@link #close() closed}.
+     */
+    public static ExchangeRatesLoader.BtcLoader createBtcLoader(Treasury currenciesRepo, Path historyDirectory) throws IOException {
+        return createBtcLoader(currenciesRepo, BtcLoader.BITCOIN_AVERAGE_HISTORY_START, historyDirectory);
+    }
+
+    /**
+     * For tests against a local stand-in of BitcoinAverage history service.
+     */
+    static ExchangeRatesLoader.BtcLoader createBtcLoader(Treasury currenciesRepo, String historyStart) {
+        return new BtcLoader(currenciesRepo, CurrencyUnit.of(BtcLoader.CODE_BTC), new BtcParser(historyStart, null));
+    }
+
+    static ExchangeRatesLoader.BtcLoader createBtcLoader(Treasury currenciesRepo, String historyStart, Path historyDirectory) throws IOException {
+        return new BtcLoader(currenciesRepo, CurrencyUnit.of(BtcLoader.CODE_BTC), new BtcParser(historyStart, new MappedDailyRatesStore(historyDirectory)));
     }
 
     private static final Logger logger = LoggerFactory.getLogger(ExchangeRatesLoader.class);
 
     private static final int HTTP_TIMEOUT_MS = 15000;
+    private static final int FETCH_THREADS = 4;
+    private static final int MAX_VALIDATED_RESPONSES = 64;
+
+    private static final class LazyFetchExecutorHolder {
+
+        private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+                FETCH_THREADS, FETCH_THREADS,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    final Thread thread = new Thread(r, "exchangeRatesFetchThread");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+
+        static {
+            EXECUTOR.allowCoreThreadTimeOut(true);
+        }
+
+    }
 
 
     private final Treasury currenciesRepo;
     private final CopyOnWriteArrayList<CurrencyUnit> supportedCurrencies = new CopyOnWriteArrayList<>();
+    private final AtomicReference<CodeSet> supportedCodesRef = new AtomicReference<>(null);
     private final CurrencyUnit mainUnit;
 
     private final Parser parser;
+    private final ConcurrentHashMap<RequestKey, CompletableFuture<Map<CurrencyUnit, BigDecimal>>> inFlight = new ConcurrentHashMap<>(8, 0.75f, 2);
+    private final AtomicReference<Executor> fetchExecutorRef = new AtomicReference<>(null);
+    private final Map<String, ValidatedResponse> validatedResponses = Collections.synchronizedMap(new LinkedHashMap<String, ValidatedResponse>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ValidatedResponse> eldest) {
+            return size() > MAX_VALIDATED_RESPONSES;
+        }
+    });
+    @Nullable
+    private volatile HttpResponseCache responseCache;
+    private final AtomicLong receivedBytes = new AtomicLong(0);
+    private final AtomicLong parseCalls = new AtomicLong(0);
 
     private ExchangeRatesLoader(Treasury currenciesRepo, CurrencyUnit mainUnit, Parser parser) {
         this.currenciesRepo = currenciesRepo;
@@ -115,74 +191,238 @@ public class ExchangeRatesLoader {
         return parser.directionFromMainToMapped();
     }
 
+    /**
+     * Concurrent calls for the same day and currencies share one fetch; every caller gets its own mutable copy of the result.
+     */
     public final Map<CurrencyUnit, BigDecimal> loadCurrencies(boolean updateSupported, Optional<UtcDay> dayRef, Optional<List<CurrencyUnit>> problematicsRef) {
+        try {
+            return loadCurrenciesAsync(updateSupported, dayRef, problematicsRef).join();
+        } catch (CompletionException ex) {
+            throw Throwables.propagate(ex.getCause());
+        }
+    }
+
+    /**
+     * Same as {@link #loadCurrencies(boolean, Optional, Optional)}, but doesn't block; when the source needs several
+     * requests (like BitcoinAverage history, one CSV per currency) they run in parallel on the fetch executor.
+     */
+    public final CompletableFuture<Map<CurrencyUnit, BigDecimal>> loadCurrenciesAsync(boolean updateSupported, Optional<UtcDay> dayRef, Optional<List<CurrencyUnit>> problematicsRef) {
         if (updateSupported) {
             updateSupportedCurrencies();
         }
 
         final UtcDay utcDay = dayRef.orElseGet(UtcDay::new);
-        final Map<CurrencyUnit, BigDecimal> mergedResults = new TreeMap<>();
+        final RequestKey key = new RequestKey(utcDay, ImmutableSet.copyOf(supportedFromOptional(problematicsRef)));
+        final CompletableFuture<Map<CurrencyUnit, BigDecimal>> ours = new CompletableFuture<>();
+        final CompletableFuture<Map<CurrencyUnit, BigDecimal>> running = inFlight.putIfAbsent(key, ours);
 
-        for (String urlStr : parser.getUrlStrings(utcDay, problematicsRef, this)) {
-            HttpURLConnection connection = null;
-            InputStream is = null;
-            Map<CurrencyUnit, BigDecimal> result = null;
+        if (running == null) {
+            CompletableFuture<Map<CurrencyUnit, BigDecimal>> fetch;
+            try {
+                fetch = fetchCurrencies(utcDay, problematicsRef);
+            } catch (Throwable th) {
+                fetch = new CompletableFuture<>();
+                fetch.completeExceptionally(th);
+            }
+            fetch.whenComplete((result, th) -> {
+                inFlight.remove(key, ours);
+                if (th != null) {
+                    ours.completeExceptionally(th instanceof CompletionException ? th.getCause() : th);
+                } else {
+                    ours.complete(ImmutableMap.copyOf(result));
+                }
+            });
+        }
 
-            final Optional<Map<CurrencyUnit, BigDecimal>> resultRef = parser.maybeFromCache(urlStr, utcDay, problematicsRef, this);
-            if (resultRef.isPresent()) {
-                result = resultRef.get();
-            } else {
-                final long start = System.currentTimeMillis();
-                try {
-                    final URL url = new URL(urlStr);
-                    connection = (HttpURLConnection) url.openConnection();
+        return (running != null ? running : ours).thenApply(TreeMap::new);
+    }
 
-                    connection.setInstanceFollowRedirects(false);
-                    connection.setConnectTimeout(HTTP_TIMEOUT_MS);
-                    connection.setReadTimeout(HTTP_TIMEOUT_MS);
-                    connection.addRequestProperty("User-Agent", "ru.adios.budgeter-core");
-                    connection.addRequestProperty("Accept-Encoding", "gzip");
-                    connection.connect();
+    public void setFetchExecutor(Executor executor) {
+        fetchExecutorRef.set(executor);
+    }
 
-                    final int responseCode = connection.getResponseCode();
-                    if (responseCode == HttpURLConnection.HTTP_OK) {
-                        final String contentEncoding = connection.getContentEncoding();
+    public Executor getFetchExecutor() {
+        final Executor executor = fetchExecutorRef.get();
+        if (executor == null) {
+            fetchExecutorRef.compareAndSet(null, LazyFetchExecutorHolder.EXECUTOR);
+        }
+        return fetchExecutorRef.get();
+    }
 
-                        is = new BufferedInputStream(connection.getInputStream(), 1024);
-                        if ("gzip".equalsIgnoreCase(contentEncoding))
-                            is = new GZIPInputStream(is);
+    private CompletableFuture<Map<CurrencyUnit, BigDecimal>> fetchCurrencies(UtcDay utcDay, Optional<List<CurrencyUnit>> problematicsRef) {
+        final Executor executor = getFetchExecutor();
+        final ArrayList<String> alternatives = new ArrayList<>();
+        final ArrayList<CompletableFuture<Void>> parts = new ArrayList<>();
+        final Map<CurrencyUnit, BigDecimal> mergedResults = new ConcurrentSkipListMap<>();
 
-                        result = parser.parseInput(is, urlStr, utcDay, problematicsRef, this);
+        for (final String urlStr : parser.getUrlStrings(utcDay, problematicsRef, this)) {
+            if (parser.resultInOneQuery(urlStr)) {
+                alternatives.add(urlStr);
+            } else {
+                parts.add(CompletableFuture.runAsync(
+                        () -> fetchOne(urlStr, utcDay, problematicsRef).ifPresent(mergedResults::putAll),
+                        executor
+                ));
+            }
+        }
 
-                        logger.info("fetched exchange rates from {} ({}), took {} ms", url, contentEncoding, System.currentTimeMillis() - start);
-                    } else {
-                        logger.warn("http status {} when fetching exchange rates from {}", responseCode, url);
+        if (!alternatives.isEmpty()) {
+            // each one of those gives complete result, so try them in order until success
+            return CompletableFuture.supplyAsync(() -> {
+                for (final String urlStr : alternatives) {
+                    final Optional<Map<CurrencyUnit, BigDecimal>> result = fetchOne(urlStr, utcDay, problematicsRef);
+                    if (result.isPresent()) {
+                        return result.get();
                     }
                 }
-                catch (Throwable th) {
-                    logger.warn("problem fetching exchange rates from " + urlStr, th);
-                } finally {
-                    if (is != null) {
-                        try {
-                            is.close();
-                        } catch (IOException ignore) {}
-                    }
+                return new TreeMap<>();
+            }, executor);
+        }
 
-                    if (connection != null)
-                        connection.disconnect();
-                }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture[parts.size()]))
+                .thenApply(aVoid -> new TreeMap<>(mergedResults));
+    }
+
+    private Optional<Map<CurrencyUnit, BigDecimal>> fetchOne(String urlStr, UtcDay utcDay, Optional<List<CurrencyUnit>> problematicsRef) {
+        final Optional<Map<CurrencyUnit, BigDecimal>> resultRef = parser.maybeFromCache(urlStr, utcDay, problematicsRef, this);
+        if (resultRef.isPresent()) {
+            return resultRef;
+        }
+
+        final RequestKey requestKey = new RequestKey(utcDay, ImmutableSet.copyOf(supportedFromOptional(problematicsRef)));
+        final ValidatedResponse validated = validatedResponses.get(urlStr);
+        final ValidatedResponse remembered = validated != null && validated.key.equals(requestKey) ? validated : null;
+        final HttpResponseCache cache = responseCache;
+        final Optional<HttpResponseCache.Entry> stored = cache != null ? cache.get(urlStr) : Optional.empty();
+
+        HttpURLConnection connection = null;
+        InputStream is = null;
+        Map<CurrencyUnit, BigDecimal> result = null;
+
+        final long start = System.currentTimeMillis();
+        try {
+            final URL url = new URL(urlStr);
+            connection = (HttpURLConnection) url.openConnection();
+
+            connection.setInstanceFollowRedirects(false);
+            connection.setConnectTimeout(HTTP_TIMEOUT_MS);
+            connection.setReadTimeout(HTTP_TIMEOUT_MS);
+            connection.addRequestProperty("User-Agent", "ru.adios.budgeter-core");
+            connection.addRequestProperty("Accept-Encoding", "gzip");
+            final String eTag = remembered != null ? remembered.eTag : stored.map(entry -> entry.eTag).orElse(null);
+            final String lastModified = remembered != null ? remembered.lastModified : stored.map(entry -> entry.lastModified).orElse(null);
+            if (eTag != null) {
+                connection.addRequestProperty("If-None-Match", eTag);
+            }
+            if (lastModified != null) {
+                connection.addRequestProperty("If-Modified-Since", lastModified);
             }
+            connection.connect();
+
+            final int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                final String contentEncoding = connection.getContentEncoding();
+
+                is = connection.getInputStream();
+                if ("gzip".equalsIgnoreCase(contentEncoding))
+                    is = new GZIPInputStream(is);
+                final String newETag = connection.getHeaderField("ETag");
+                final String newLastModified = connection.getHeaderField("Last-Modified");
+                final Optional<HttpResponseCache.Entry> written = cache != null
+                        ? cache.put(urlStr, newETag, newLastModified, is, receivedBytes::addAndGet)
+                        : Optional.empty();
+                if (written.isPresent()) {
+                    result = parse(written.get(), urlStr, utcDay, problematicsRef);
+                } else {
+                    final CountingInputStream counting = new CountingInputStream(is);
+                    try {
+                        result = parse(counting, urlStr, utcDay, problematicsRef);
+                        // parsers may stop early, rest must be read out for the connection to be reused
+                        ByteStreams.copy(counting, ByteStreams.nullOutputStream());
+                    } finally {
+                        receivedBytes.addAndGet(counting.getCount());
+                    }
+                }
+                rememberValidated(urlStr, requestKey, newETag, newLastModified, result);
 
-            if (result != null) {
-                if (parser.resultInOneQuery(urlStr)) {
-                    return result;
+                logger.info("fetched exchange rates from {} ({}), took {} ms", url, contentEncoding, System.currentTimeMillis() - start);
+            } else if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && (remembered != null || stored.isPresent())) {
+                if (remembered != null) {
+                    result = new TreeMap<>(remembered.rates);
                 } else {
-                    mergedResults.putAll(result);
+                    final HttpResponseCache.Entry entry = stored.get();
+                    result = parse(entry, urlStr, utcDay, problematicsRef);
+                    rememberValidated(urlStr, requestKey, entry.eTag, entry.lastModified, result);
                 }
+
+                logger.info("exchange rates from {} not modified, took {} ms", url, System.currentTimeMillis() - start);
+            } else {
+                // error body must be read out too, otherwise connection can't be reused
+                is = connection.getErrorStream();
+                if (is != null) {
+                    ByteStreams.copy(is, ByteStreams.nullOutputStream());
+                }
+                logger.warn("http status {} when fetching exchange rates from {}", responseCode, url);
             }
         }
+        catch (Throwable th) {
+            logger.warn("problem fetching exchange rates from " + urlStr, th);
+            if (connection != null) {
+                connection.disconnect();
+            }
+        } finally {
+            // no disconnect() on success: closed stream returns the socket to the JDK keep-alive pool
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException ignore) {}
+            }
+        }
+
+        return Optional.ofNullable(result);
+    }
+
+    private Map<CurrencyUnit, BigDecimal> parse(HttpResponseCache.Entry entry, String urlStr, UtcDay utcDay, Optional<List<CurrencyUnit>> problematicsRef) throws IOException {
+        try (final InputStream body = new BufferedInputStream(entry.openBody())) {
+            return parse(body, urlStr, utcDay, problematicsRef);
+        }
+    }
+
+    private Map<CurrencyUnit, BigDecimal> parse(InputStream body, String urlStr, UtcDay utcDay, Optional<List<CurrencyUnit>> problematicsRef) throws IOException {
+        parseCalls.incrementAndGet();
+        return parser.parseInput(body, urlStr, utcDay, problematicsRef, this);
+    }
+
+    private void rememberValidated(String urlStr, RequestKey key, @Nullable String eTag, @Nullable String lastModified, Map<CurrencyUnit, BigDecimal> rates) {
+        if (eTag != null || lastModified != null) {
+            validatedResponses.put(urlStr, new ValidatedResponse(key, eTag, lastModified, ImmutableMap.copyOf(rates)));
+        } else {
+            validatedResponses.remove(urlStr);
+        }
+    }
+
+    /**
+     * Responses are additionally stored in {@code directory} along with their validators, so that conditional requests
+     * are possible after restart too. {@code null} turns disk cache off.
+     */
+    public void setResponseCacheDirectory(@Nullable Path directory) throws IOException {
+        responseCache = directory != null ? new HttpResponseCache(directory) : null;
+    }
 
-        return mergedResults;
+    long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    long getParseCalls() {
+        return parseCalls.get();
+    }
+
+    /**
+     * Releases files held by the loader; it must not be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        parser.close();
     }
 
     public final Map<CurrencyUnit, BigDecimal> loadCurrencies(Optional<UtcDay> dayRef, Optional<List<CurrencyUnit>> problematicsRef) {
@@ -194,7 +434,7 @@ public class ExchangeRatesLoader {
     }
 
 
-    private interface Parser {
+    private interface Parser extends Closeable {
 
         List<String> getUrlStrings(UtcDay day, Optional<List<CurrencyUnit>> problematicsRef, ExchangeRatesLoader loader);
 
@@ -206,6 +446,9 @@ public class ExchangeRatesLoader {
 
         boolean directionFromMainToMapped();
 
+        @Override
+        default void close() throws IOException {}
+
     }
 
     @ThreadSafe
@@ -222,13 +465,28 @@ public class ExchangeRatesLoader {
     }
 
     @ThreadSafe
-    private final static class CbrParser implements Parser {
+    final static class CbrParser implements Parser {
 
-        private CbrParser() {}
+        /**
+         * Parsers and factories aren't thread-safe, so every fetch thread keeps its own pair.
+         */
+        private static final ThreadLocal<SaxContext> SAX_CONTEXT = ThreadLocal.withInitial(() -> {
+            try {
+                return new SaxContext(SAXParserFactory.newInstance().newSAXParser());
+            } catch (ParserConfigurationException | SAXException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        private final String address;
+
+        CbrParser(String address) {
+            this.address = address;
+        }
 
         @Override
         public List<String> getUrlStrings(UtcDay day, Optional<List<CurrencyUnit>> problematicsRef, ExchangeRatesLoader loader) {
-            return ImmutableList.of(CbrLoader.CBR_ADDRESS + CbrLoader.DAY_FORMATTER.format(day.inner));
+            return ImmutableList.of(address + CbrLoader.DAY_FORMATTER.format(day.inner));
         }
 
         @Override
@@ -259,65 +517,241 @@ public class ExchangeRatesLoader {
             final Optional<StringBuilder> debugDump = logger.isDebugEnabled()
                     ? Optional.of(new StringBuilder(1000))
                     : Optional.empty();
-            final SAXParserFactory factory = SAXParserFactory.newInstance();
+            final SaxContext context;
             try {
-                final SAXParser saxParser = factory.newSAXParser();
-
-                final InputStreamReader r = new InputStreamReader(stream, "windows-1251");
-                final InputSource inputSource = new InputSource(r);
-                saxParser.parse(inputSource, new DefaultHandler() {
-                    private boolean insideCode = false;
-                    private boolean insideValue = false;
-
-                    private CurrencyUnit currentUnit;
-                    private BigDecimal currentRate;
-
-                    @Override
-                    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
-                        if (qName.equalsIgnoreCase("CharCode")) {
-                            insideCode = true;
-                        } else if (qName.equalsIgnoreCase("Value")) {
-                            insideValue = true;
-                        }
-                    }
+                context = SAX_CONTEXT.get();
+            } catch (IllegalStateException ex) {
+                throw new IOException(ex.getCause());
+            }
+            final CodeSet supported = problematicsRef.isPresent()
+                    ? context.problematics.fill(problematicsRef.get())
+                    : loader.supportedCodes();
+            context.handler.prepare(rates, supported, debugDump.orElse(null));
+            try {
+                context.parser.parse(new InputSource(new InputStreamReader(stream, "windows-1251")), context.handler);
+            } catch (SAXException | NumberFormatException e) {
+                throw new IOException(e);
+            } finally {
+                context.handler.release();
+                context.problematics.clear();
+                context.parser.reset();
+            }
 
-                    @Override
-                    public void characters(final char[] ch, final int start, final int length) throws SAXException {
-                        debugDump.ifPresent(builder -> builder.append(new String(ch, start, length)));
+            debugDump.ifPresent(builder -> logger.debug(builder.toString()));
 
-                        if (insideCode) {
-                            final String code = new String(ch, start, length).toUpperCase();
-                            if (loader.supportedCurrency(code, problematicsRef)) {
-                                currentUnit = CurrencyUnit.getInstance(code);
-                            }
-                            insideCode = false;
-                        } else if (insideValue) {
-                            final String value = new String(ch, start, length).replace(',', '.');
-                            currentRate = new BigDecimal(value);
-                            insideValue = false;
-                        }
+            return rates;
+        }
 
-                        if (currentUnit != null && currentRate != null) {
-                            rates.put(currentUnit, currentRate);
-                            currentUnit = null;
-                            currentRate = null;
-                        }
-                    }
+        private static final class SaxContext {
+            private final SAXParser parser;
+            private final CbrHandler handler = new CbrHandler();
+            private final CodeSet problematics = new CodeSet();
 
-                    @Override
-                    public void endElement(String uri, String localName, String qName) throws SAXException {
-                        if (qName.equalsIgnoreCase("Valute")) {
-                            currentRate = null;
-                        }
-                    }
-                });
-            } catch (ParserConfigurationException | SAXException e) {
-                throw new IOException(e);
+            private SaxContext(SAXParser parser) {
+                this.parser = parser;
             }
+        }
 
-            debugDump.ifPresent(builder -> logger.debug(builder.toString()));
+    }
 
-            return rates;
+    /**
+     * Collects element text into a reusable buffer, since parser may split it between several {@link #characters(char[], int, int)} calls.
+     */
+    @NotThreadSafe
+    static final class CbrHandler extends DefaultHandler {
+
+        private static final int NONE = 0;
+        private static final int CODE = 1;
+        private static final int VALUE = 2;
+
+        private char[] buffer = new char[32];
+        private int length;
+        private int collecting = NONE;
+
+        private Map<CurrencyUnit, BigDecimal> rates;
+        private CodeSet supported;
+        @Nullable
+        private StringBuilder debugDump;
+
+        private CurrencyUnit currentUnit;
+        private BigDecimal currentRate;
+
+        void prepare(Map<CurrencyUnit, BigDecimal> rates, CodeSet supported, @Nullable StringBuilder debugDump) {
+            this.rates = rates;
+            this.supported = supported;
+            this.debugDump = debugDump;
+        }
+
+        void release() {
+            rates = null;
+            supported = null;
+            debugDump = null;
+            currentUnit = null;
+            currentRate = null;
+            collecting = NONE;
+            length = 0;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            if (qName.equalsIgnoreCase("CharCode")) {
+                collecting = CODE;
+                length = 0;
+            } else if (qName.equalsIgnoreCase("Value")) {
+                collecting = VALUE;
+                length = 0;
+            } else if (qName.equalsIgnoreCase("Valute")) {
+                currentUnit = null;
+                currentRate = null;
+            }
+        }
+
+        @Override
+        public void characters(final char[] ch, final int start, final int len) throws SAXException {
+            if (debugDump != null) {
+                debugDump.append(ch, start, len);
+            }
+            if (collecting != NONE) {
+                if (length + len > buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + len));
+                }
+                System.arraycopy(ch, start, buffer, length, len);
+                length += len;
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (collecting == CODE) {
+                currentUnit = supported.get(buffer, 0, length);
+            } else if (collecting == VALUE) {
+                currentRate = parseDecimal(buffer, length);
+            } else if (qName.equalsIgnoreCase("Valute")) {
+                currentRate = null;
+            }
+            collecting = NONE;
+
+            if (currentUnit != null && currentRate != null) {
+                rates.put(currentUnit, currentRate);
+                currentUnit = null;
+                currentRate = null;
+            }
+        }
+
+        private static BigDecimal parseDecimal(char[] chars, int length) {
+            int from = 0;
+            while (from < length && Character.isWhitespace(chars[from])) {
+                from++;
+            }
+            int to = length;
+            while (to > from && Character.isWhitespace(chars[to - 1])) {
+                to--;
+            }
+            for (int i = from; i < to; i++) {
+                if (chars[i] == ',') {
+                    chars[i] = '.';
+                }
+            }
+            return new BigDecimal(chars, from, to - from);
+        }
+
+    }
+
+    /**
+     * Set of three-letter currency codes packed into ints: bitset for membership, sorted arrays to find the unit.
+     * Shared snapshots are never refilled after publication; the one of {@link CbrParser.SaxContext} is refilled for each parse of its thread.
+     */
+    @NotThreadSafe
+    static final class CodeSet {
+
+        private static final int LETTERS = 26;
+
+        private final long[] bits = new long[(LETTERS * LETTERS * LETTERS + 63) / 64];
+        private int[] packed = new int[0];
+        private CurrencyUnit[] units = new CurrencyUnit[0];
+        private int size;
+        private int sourceSize;
+
+        CodeSet() {}
+
+        CodeSet(List<CurrencyUnit> source) {
+            fill(source);
+        }
+
+        /**
+         * Replaces contents with codes of {@code source}, reusing arrays if they are big enough.
+         */
+        CodeSet fill(List<CurrencyUnit> source) {
+            clear();
+            if (packed.length < source.size()) {
+                packed = new int[source.size()];
+                units = new CurrencyUnit[source.size()];
+            }
+            for (final CurrencyUnit unit : source) {
+                final String code = unit.getCode();
+                final int key = pack(code.toCharArray(), 0, code.length());
+                if (key < 0 || (bits[key >>> 6] & (1L << key)) != 0) {
+                    continue;
+                }
+                bits[key >>> 6] |= 1L << key;
+                // lists are short, insertion keeps arrays sorted without boxing
+                int i = size++;
+                for (; i > 0 && packed[i - 1] > key; i--) {
+                    packed[i] = packed[i - 1];
+                    units[i] = units[i - 1];
+                }
+                packed[i] = key;
+                units[i] = unit;
+            }
+            sourceSize = source.size();
+            return this;
+        }
+
+        /**
+         * Unsets only the bits that are set, so clearing costs as much as the set is big.
+         */
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                final int key = packed[i];
+                bits[key >>> 6] &= ~(1L << key);
+                units[i] = null;
+            }
+            size = 0;
+            sourceSize = 0;
+        }
+
+        /**
+         * Case-insensitive, surrounding whitespace is ignored.
+         */
+        @Nullable
+        CurrencyUnit get(char[] chars, int offset, int length) {
+            while (length > 0 && Character.isWhitespace(chars[offset])) {
+                offset++;
+                length--;
+            }
+            while (length > 0 && Character.isWhitespace(chars[offset + length - 1])) {
+                length--;
+            }
+            final int key = pack(chars, offset, length);
+            if (key < 0 || (bits[key >>> 6] & (1L << key)) == 0) {
+                return null;
+            }
+            return units[Arrays.binarySearch(packed, 0, size, key)];
+        }
+
+        private static int pack(char[] chars, int offset, int length) {
+            if (length != 3) {
+                return -1;
+            }
+            int key = 0;
+            for (int i = offset; i < offset + 3; i++) {
+                final int letter = Character.toUpperCase(chars[i]) - 'A';
+                if (letter < 0 || letter >= LETTERS) {
+                    return -1;
+                }
+                key = key * LETTERS + letter;
+            }
+            return key;
         }
 
     }
@@ -328,7 +762,7 @@ public class ExchangeRatesLoader {
         private static final String BITCOIN_AVERAGE_URL_STR = "https://api.bitcoinaverage.com/custom/abw";
         private static final String BLOCKCHAIN_INFO_URL_STR = "https://blockchain.info/ticker";
         private static final String BITCOIN_AVERAGE_HISTORY_START = "https://api.bitcoinaverage.com/history/";
-        private static final String BITCOIN_AVERAGE_HISTORY_URL_TEMPLATE = BITCOIN_AVERAGE_HISTORY_START + "<>/per_day_all_time_history.csv";
+        private static final String BITCOIN_AVERAGE_HISTORY_URL_POSTFIX = "/per_day_all_time_history.csv";
         private static final String CODE_BTC = "BTC";
         private static final String CODE_MBTC = "mBTC";
         private static final String CODE_UBTC = "µBTC";
@@ -348,10 +782,18 @@ public class ExchangeRatesLoader {
     @ThreadSafe
     private final static class BtcParser implements Parser {
 
+        private static final BigDecimal ABSENT = BigDecimal.ZERO; // history cache mark of days without rate, rates are positive
+
         private final ConcurrentHashMap<CurrencyUnit, ConcurrentHashMap<UtcDay, BigDecimal>> historyCache = new ConcurrentHashMap<>(20, 1.0f, 2);
         private final AtomicReference<UtcDay> lastCacheUpdate = new AtomicReference<>(new UtcDay());
+        private final String historyStart;
+        @Nullable
+        private final MappedDailyRatesStore store;
 
-        private BtcParser() {}
+        private BtcParser(String historyStart, @Nullable MappedDailyRatesStore store) {
+            this.historyStart = historyStart;
+            this.store = store;
+        }
 
         @Override
         public List<String> getUrlStrings(UtcDay day, Optional<List<CurrencyUnit>> problematicsRef, ExchangeRatesLoader loader) {
@@ -361,7 +803,7 @@ public class ExchangeRatesLoader {
                 final List<CurrencyUnit> relevant = loader.supportedFromOptional(problematicsRef);
                 return relevant
                         .stream()
-                        .map(unit -> BtcLoader.BITCOIN_AVERAGE_HISTORY_URL_TEMPLATE.replace("<>", unit.getCode().toUpperCase()))
+                        .map(unit -> historyStart + unit.getCode().toUpperCase() + BtcLoader.BITCOIN_AVERAGE_HISTORY_URL_POSTFIX)
                         .collect(Collectors.toList());
             }
         }
@@ -373,39 +815,54 @@ public class ExchangeRatesLoader {
 
         @Override
         public boolean resultInOneQuery(String urlStr) {
-            return !urlStr.startsWith(BtcLoader.BITCOIN_AVERAGE_HISTORY_START);
+            return !urlStr.startsWith(historyStart);
         }
 
         @Override
         public Optional<Map<CurrencyUnit, BigDecimal>> maybeFromCache(String urlStr, UtcDay day, Optional<List<CurrencyUnit>> problematicsRef, ExchangeRatesLoader loader) {
-            if (urlStr.startsWith(BtcLoader.BITCOIN_AVERAGE_HISTORY_START)) {
-                final UtcDay lcuSnapshot = lastCacheUpdate.get();
-                final UtcDay today = new UtcDay();
-
-                if (lcuSnapshot.compareTo(today) >= 0) {
-                    final Map<CurrencyUnit, BigDecimal> result = new TreeMap<>();
-
-                    for (final CurrencyUnit unit : loader.supportedFromOptional(problematicsRef)) {
-                        final ConcurrentHashMap<UtcDay, BigDecimal> unitCache = historyCache.get(unit);
-
-                        if (unitCache == null)
-                            return Optional.empty();
+            if (!urlStr.startsWith(historyStart)) {
+                return Optional.empty();
+            }
 
-                        final BigDecimal rate = unitCache.get(day);
+            // every history URL is a single currency's CSV, so it's served from cache by that currency alone
+            final CurrencyUnit unit = historyUnit(urlStr);
+            final Map<CurrencyUnit, BigDecimal> result = new TreeMap<>();
+            if (store != null) {
+                // past days' rates never change once stored, so no rollover here
+                if (!store.isKnown(unit, day)) {
+                    return Optional.empty();
+                }
+                store.get(unit, day).ifPresent(rate -> result.put(unit, rate));
+                return Optional.of(result);
+            }
 
-                        if (rate == null) {
-                            return Optional.empty();
-                        }
+            final UtcDay lcuSnapshot = lastCacheUpdate.get();
+            final UtcDay today = new UtcDay();
+            if (lcuSnapshot.compareTo(today) < 0) {
+                lastCacheUpdate.compareAndSet(lcuSnapshot, today);
+                return Optional.empty();
+            }
 
-                        result.put(unit, rate);
-                    }
+            final ConcurrentHashMap<UtcDay, BigDecimal> unitCache = historyCache.get(unit);
+            final BigDecimal rate = unitCache != null ? unitCache.get(day) : null;
+            if (rate == null) {
+                return Optional.empty();
+            }
+            if (rate.signum() > 0) {
+                result.put(unit, rate);
+            }
+            return Optional.of(result);
+        }
 
-                    return Optional.of(result);
-                } else {
-                    lastCacheUpdate.compareAndSet(lcuSnapshot, today);
-                }
+        @Override
+        public void close() throws IOException {
+            if (store != null) {
+                store.close();
             }
-            return Optional.empty();
+        }
+
+        private CurrencyUnit historyUnit(String urlStr) {
+            return CurrencyUnit.of(urlStr.substring(historyStart.length(), historyStart.length() + 3));
         }
 
         @Override
@@ -418,15 +875,37 @@ public class ExchangeRatesLoader {
         ) throws IOException {
             final Map<CurrencyUnit, BigDecimal> rates = new TreeMap<>();
 
-            if (urlStr.startsWith(BtcLoader.BITCOIN_AVERAGE_HISTORY_START)) {
-                final String code = urlStr.replace(BtcLoader.BITCOIN_AVERAGE_HISTORY_START, "").substring(0, 3);
-                final CurrencyUnit unit = CurrencyUnit.of(code);
+            if (urlStr.startsWith(historyStart)) {
+                final CurrencyUnit unit = historyUnit(urlStr);
+                final UtcDay today = new UtcDay();
+                final ConcurrentHashMap<UtcDay, BigDecimal> unitCache =
+                        store == null ? historyCache.computeIfAbsent(unit, key -> new ConcurrentHashMap<>(1000, 0.75f, 4)) : null;
+
+                UtcDay latest = null;
+                final Iterator<DayAndRate> iterator = parseCsv(stream).iterator();
+                while (iterator.hasNext()) {
+                    final DayAndRate dayAndRate = iterator.next();
+                    if (dayAndRate.day.equals(day)) {
+                        rates.put(unit, dayAndRate.rate);
+                    }
+                    if (unitCache != null) {
+                        unitCache.putIfAbsent(dayAndRate.day, dayAndRate.rate);
+                    } else if (dayAndRate.day.compareTo(today) < 0) { // today's average is not final yet
+                        store.putIfAbsent(unit, dayAndRate.day, dayAndRate.rate);
+                    }
+                    if (latest == null || dayAndRate.day.compareTo(latest) > 0) {
+                        latest = dayAndRate.day;
+                    }
+                }
 
-                final ConcurrentHashMap<UtcDay, BigDecimal> unitCache = historyCache.computeIfAbsent(unit, key -> new ConcurrentHashMap<>(1000, 0.75f, 4));
-                parseCsv(stream).forEach(
-                        dayAndRate -> unitCache.putIfAbsent(dayAndRate.day, dayAndRate.rate)
-                );
-                rates.put(unit, unitCache.get(day));
+                if (rates.isEmpty() && latest != null && day.compareTo(latest) < 0) {
+                    // history goes on past the day, so its rate won't show up anymore
+                    if (unitCache != null) {
+                        unitCache.putIfAbsent(day, ABSENT);
+                    } else {
+                        store.markAbsent(unit, day);
+                    }
+                }
             } else {
                 final JsonFactory jsonFactory = new JsonFactory();
                 final JsonParser jsonParser = jsonFactory.createJsonParser(stream);
@@ -491,6 +970,55 @@ public class ExchangeRatesLoader {
 
     }
 
+    @Immutable
+    private static final class RequestKey {
+        private final UtcDay day;
+        private final ImmutableSet<CurrencyUnit> currencies;
+
+        private RequestKey(UtcDay day, ImmutableSet<CurrencyUnit> currencies) {
+            this.day = day;
+            this.currencies = currencies;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            RequestKey that = (RequestKey) o;
+
+            return day.equals(that.day)
+                    && currencies.equals(that.currencies);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = day.hashCode();
+            result = 31 * result + currencies.hashCode();
+            return result;
+        }
+    }
+
+    /**
+     * Parsed response with its validators; parsing result is reused on 304 for the same request key only.
+     */
+    @Immutable
+    private static final class ValidatedResponse {
+        private final RequestKey key;
+        @Nullable
+        private final String eTag;
+        @Nullable
+        private final String lastModified;
+        private final ImmutableMap<CurrencyUnit, BigDecimal> rates;
+
+        private ValidatedResponse(RequestKey key, @Nullable String eTag, @Nullable String lastModified, ImmutableMap<CurrencyUnit, BigDecimal> rates) {
+            this.key = key;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.rates = rates;
+        }
+    }
+
     private static final class DayAndRate {
         private final UtcDay day;
         private final BigDecimal rate;
@@ -509,6 +1037,17 @@ public class ExchangeRatesLoader {
         return problematicsRef.orElseGet(this::getSupportedCurrenciesSnapshot);
     }
 
+    private CodeSet supportedCodes() {
+        // supported currencies are only ever added, so size tells if the snapshot is stale
+        final CodeSet snapshot = supportedCodesRef.get();
+        if (snapshot != null && snapshot.sourceSize == supportedCurrencies.size()) {
+            return snapshot;
+        }
+        final CodeSet fresh = new CodeSet(getSupportedCurrenciesSnapshot());
+        supportedCodesRef.set(fresh);
+        return fresh;
+    }
+
     private boolean supportedCurrency(String code, Optional<List<CurrencyUnit>> problematicsRef) {
         if (problematicsRef.isPresent()) {
             return _supportedCurrency(problematicsRef.get(), code);
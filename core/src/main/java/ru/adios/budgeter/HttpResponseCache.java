@@ -0,0 +1,150 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.function.LongConsumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Small on-disk cache of HTTP response bodies along with their validators (ETag, Last-Modified), keyed by URL.
+ * Every entry is a pair of files named by URL hash: properties with validators and the decoded body.
+ */
+@ThreadSafe
+final class HttpResponseCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpResponseCache.class);
+
+    private static final String META_SUFFIX = ".meta";
+    private static final String BODY_SUFFIX = ".body";
+    private static final String PROP_URL = "url";
+    private static final String PROP_ETAG = "etag";
+    private static final String PROP_LAST_MODIFIED = "lastModified";
+
+    @Immutable
+    static final class Entry {
+        @Nullable final String eTag;
+        @Nullable final String lastModified;
+        private final Path bodyFile;
+
+        private Entry(@Nullable String eTag, @Nullable String lastModified, Path bodyFile) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.bodyFile = bodyFile;
+        }
+
+        InputStream openBody() throws IOException {
+            return Files.newInputStream(bodyFile);
+        }
+    }
+
+    private final Path directory;
+
+    HttpResponseCache(Path directory) throws IOException {
+        checkNotNull(directory, "directory");
+        this.directory = Files.createDirectories(directory);
+    }
+
+    Optional<Entry> get(String url) {
+        final String key = key(url);
+        final Path metaFile = directory.resolve(key + META_SUFFIX);
+        final Path bodyFile = directory.resolve(key + BODY_SUFFIX);
+        if (!Files.exists(metaFile) || !Files.exists(bodyFile)) {
+            return Optional.empty();
+        }
+
+        final Properties meta = new Properties();
+        try (final InputStream is = Files.newInputStream(metaFile)) {
+            meta.load(is);
+        } catch (IOException ex) {
+            logger.warn("Unable to read cached response metadata for " + url, ex);
+            return Optional.empty();
+        }
+        if (!url.equals(meta.getProperty(PROP_URL))) {
+            return Optional.empty(); // hash collision
+        }
+        return Optional.of(new Entry(meta.getProperty(PROP_ETAG), meta.getProperty(PROP_LAST_MODIFIED), bodyFile));
+    }
+
+    /**
+     * Copies {@code body} to disk without buffering it in memory. Responses without validators are useless for conditional requests,
+     * so they are not stored and the stream is left untouched, in which case an empty result is returned.
+     *
+     * @param copiedBytes receives the number of body bytes copied
+     * @throws IOException if body could not be copied; the stream is then partially consumed
+     */
+    Optional<Entry> put(String url, @Nullable String eTag, @Nullable String lastModified, InputStream body, LongConsumer copiedBytes) throws IOException {
+        if (eTag == null && lastModified == null) {
+            return Optional.empty();
+        }
+
+        final String key = key(url);
+        final Path bodyFile = directory.resolve(key + BODY_SUFFIX);
+        // body first: meta pointing to a stale body is caught by the server's validation, the other way around is not
+        final Path tmpBody = Files.createTempFile(directory, key, BODY_SUFFIX);
+        try {
+            copiedBytes.accept(Files.copy(body, tmpBody, StandardCopyOption.REPLACE_EXISTING));
+            Files.move(tmpBody, bodyFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            Files.deleteIfExists(tmpBody);
+            throw ex;
+        }
+
+        final Properties meta = new Properties();
+        meta.setProperty(PROP_URL, url);
+        if (eTag != null) {
+            meta.setProperty(PROP_ETAG, eTag);
+        }
+        if (lastModified != null) {
+            meta.setProperty(PROP_LAST_MODIFIED, lastModified);
+        }
+        try {
+            final Path tmpMeta = Files.createTempFile(directory, key, META_SUFFIX);
+            try (final OutputStream os = Files.newOutputStream(tmpMeta)) {
+                meta.store(os, null);
+            }
+            Files.move(tmpMeta, directory.resolve(key + META_SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            // body is in place, it just won't be used for conditional requests
+            logger.warn("Unable to cache response metadata for " + url, ex);
+        }
+        return Optional.of(new Entry(eTag, lastModified, bodyFile));
+    }
+
+    private static String key(String url) {
+        return Hashing.sha1().hashString(url, Charsets.UTF_8).toString();
+    }
+
+}
@@ -0,0 +1,275 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter;
+
+import org.joda.money.CurrencyUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.adios.budgeter.api.UtcDay;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * On-disk store of daily rates, one memory-mapped file per currency.
+ * File is a header followed by fixed-width slots: a long per epoch day starting from {@link #BASE_DAY},
+ * holding the rate scaled by 10^{@link #SCALE}; zero means nothing is known about the day, {@link #ABSENT} that source has
+ * no rate for it. Lookup is a single read at computed offset.
+ */
+@ThreadSafe
+final class MappedDailyRatesStore implements Closeable {
+
+    static final int SCALE = 8;
+    static final UtcDay BASE_DAY = new UtcDay(OffsetDateTime.of(2010, 7, 17, 0, 0, 0, 0, ZoneOffset.UTC)); // bitcoin exchange history start
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedDailyRatesStore.class);
+
+    private static final int MAGIC = 0x42445253;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16; // magic, version, base epoch day
+    private static final int GROWTH_DAYS = 1024;
+    private static final String FILE_SUFFIX = ".rates";
+    private static final long ABSENT = -1L; // rates are positive
+
+    private final Path directory;
+    private final long baseEpochDay = BASE_DAY.toEpochDay();
+    private final ConcurrentHashMap<CurrencyUnit, Segment> segments = new ConcurrentHashMap<>(20, 0.75f, 2);
+
+    MappedDailyRatesStore(Path directory) throws IOException {
+        checkNotNull(directory, "directory");
+        this.directory = Files.createDirectories(directory);
+    }
+
+    Optional<BigDecimal> get(CurrencyUnit unit, UtcDay day) {
+        final long index = day.toEpochDay() - baseEpochDay;
+        if (index < 0) {
+            return Optional.empty();
+        }
+        final Segment segment = segmentFor(unit, false);
+        if (segment == null) {
+            return Optional.empty();
+        }
+        final long scaled = segment.read(index);
+        return scaled > 0
+                ? Optional.of(fromScaled(scaled))
+                : Optional.empty();
+    }
+
+    /**
+     * @return true if either rate or its absence is stored for the day
+     */
+    boolean isKnown(CurrencyUnit unit, UtcDay day) {
+        final long index = day.toEpochDay() - baseEpochDay;
+        if (index < 0) {
+            return false;
+        }
+        final Segment segment = segmentFor(unit, false);
+        return segment != null && segment.read(index) != 0;
+    }
+
+    /**
+     * Remembers that there is no rate for the day, so that it isn't looked for again; a rate put later replaces the mark.
+     */
+    boolean markAbsent(CurrencyUnit unit, UtcDay day) {
+        return write(unit, day, ABSENT);
+    }
+
+    /**
+     * @return false if rate is out of store's range or couldn't be written
+     */
+    boolean putIfAbsent(CurrencyUnit unit, UtcDay day, BigDecimal rate) {
+        if (rate.signum() <= 0) {
+            return false;
+        }
+        final long scaled;
+        try {
+            scaled = toScaled(rate);
+        } catch (ArithmeticException ex) {
+            logger.warn("Rate {} of {} for {} doesn't fit rates file: {}", rate, unit, day, ex.getMessage());
+            return false;
+        }
+        return write(unit, day, scaled);
+    }
+
+    private boolean write(CurrencyUnit unit, UtcDay day, long value) {
+        final long index = day.toEpochDay() - baseEpochDay;
+        if (index < 0) {
+            return false;
+        }
+        final Segment segment = segmentFor(unit, true);
+        if (segment == null) {
+            return false;
+        }
+        try {
+            segment.writeIfAbsent(index, value);
+            return true;
+        } catch (IOException ex) {
+            logger.warn("Unable to grow rates file for " + unit, ex);
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException first = null;
+        for (final Segment segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (IOException ex) {
+                if (first == null) {
+                    first = ex;
+                }
+            }
+        }
+        segments.clear();
+        if (first != null) {
+            throw first;
+        }
+    }
+
+    /**
+     * @throws ArithmeticException if positive rate doesn't fit a slot, being either too large or too small to differ from zero
+     */
+    static long toScaled(BigDecimal rate) {
+        final long scaled = rate.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+        if (scaled == 0 && rate.signum() != 0) {
+            throw new ArithmeticException("rate is below precision");
+        }
+        return scaled;
+    }
+
+    static BigDecimal fromScaled(long scaled) {
+        final BigDecimal rate = BigDecimal.valueOf(scaled, SCALE).stripTrailingZeros();
+        return rate.scale() < 0
+                ? rate.setScale(0)
+                : rate;
+    }
+
+    @Nullable
+    private Segment segmentFor(CurrencyUnit unit, boolean create) {
+        final Segment existing = segments.get(unit);
+        if (existing != null) {
+            return existing;
+        }
+
+        final Path file = directory.resolve(unit.getCode() + FILE_SUFFIX);
+        if (!create && !Files.exists(file)) {
+            return null;
+        }
+        synchronized (segments) {
+            final Segment concurrent = segments.get(unit);
+            if (concurrent != null) {
+                return concurrent;
+            }
+            try {
+                final Segment segment = new Segment(file, baseEpochDay);
+                segments.put(unit, segment);
+                return segment;
+            } catch (IOException | IllegalStateException ex) {
+                logger.warn("Unable to open rates file " + file, ex);
+                return null;
+            }
+        }
+    }
+
+
+    @ThreadSafe
+    private static final class Segment implements Closeable {
+
+        private final FileChannel channel;
+        private volatile MappedByteBuffer buffer; // absolute gets and puts only, so it's shared between threads
+
+        private Segment(Path file, long baseEpochDay) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                final long size = channel.size();
+                if (size < HEADER_BYTES) {
+                    map(GROWTH_DAYS);
+                    buffer.putInt(0, MAGIC);
+                    buffer.putInt(4, VERSION);
+                    buffer.putLong(8, baseEpochDay);
+                } else {
+                    map((size - HEADER_BYTES) / 8);
+                    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getLong(8) != baseEpochDay) {
+                        throw new IllegalStateException("Unknown rates file format: " + file);
+                    }
+                }
+            } catch (IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+        }
+
+        private long read(long index) {
+            final MappedByteBuffer snapshot = buffer;
+            if (index >= capacity(snapshot)) {
+                return 0;
+            }
+            return snapshot.getLong(offset(index));
+        }
+
+        private synchronized void writeIfAbsent(long index, long scaled) throws IOException {
+            if (index >= capacity(buffer)) {
+                map((index / GROWTH_DAYS + 1) * GROWTH_DAYS);
+            }
+            final int offset = offset(index);
+            final long current = buffer.getLong(offset);
+            if (current == 0 || (current == ABSENT && scaled > 0)) {
+                buffer.putLong(offset, scaled);
+            }
+        }
+
+        private void map(long days) throws IOException {
+            checkArgument(HEADER_BYTES + days * 8 <= Integer.MAX_VALUE, "Rates file is too large");
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + days * 8);
+        }
+
+        private static long capacity(MappedByteBuffer buffer) {
+            return (buffer.capacity() - HEADER_BYTES) / 8;
+        }
+
+        private static int offset(long index) {
+            return (int) (HEADER_BYTES + index * 8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            buffer.force();
+            channel.close();
+        }
+
+    }
+
+}
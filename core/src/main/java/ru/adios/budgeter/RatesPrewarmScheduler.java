@@ -0,0 +1,191 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.joda.money.CurrencyUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.adios.budgeter.api.Treasury;
+import ru.adios.budgeter.api.UtcDay;
+import ru.adios.budgeter.api.Units;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Loads and stores new day's rates of registered currencies in background, so that the first conversion after UTC midnight
+ * doesn't wait for the net. Runs once started, then daily at UTC midnight plus publication delay; while some rates
+ * stay stale, retries every retry period.
+ * BTC rates aren't prewarmed since today's ones are never stored.
+ */
+@ThreadSafe
+public class RatesPrewarmScheduler {
+
+    public static final Duration DEFAULT_PUBLICATION_DELAY = Duration.ofMinutes(10);
+    public static final Duration DEFAULT_RETRY_PERIOD = Duration.ofMinutes(15);
+
+    private static final Logger logger = LoggerFactory.getLogger(RatesPrewarmScheduler.class);
+
+    private static final class LazySchedulerHolder {
+
+        private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "ratesPrewarmThread");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    }
+
+    private final CurrenciesExchangeService exchangeService;
+    private final Treasury treasury;
+
+    private volatile Duration publicationDelay = DEFAULT_PUBLICATION_DELAY;
+    private volatile Duration retryPeriod = DEFAULT_RETRY_PERIOD;
+    private volatile boolean started = false;
+    private long generation = 0; // guarded by this, bumped on every start and stop so that runs of a previous start don't reschedule
+    private final AtomicReference<ScheduledExecutorService> executorRef = new AtomicReference<>(null);
+    private final AtomicReference<ScheduledFuture<?>> nextRunRef = new AtomicReference<>(null);
+
+    public RatesPrewarmScheduler(CurrenciesExchangeService exchangeService, Treasury treasury) {
+        this.exchangeService = checkNotNull(exchangeService, "exchangeService");
+        this.treasury = checkNotNull(treasury, "treasury");
+    }
+
+    /**
+     * Time after UTC midnight when new day's rates are expected to be published; takes effect from the next scheduling.
+     */
+    public void setPublicationDelay(Duration publicationDelay) {
+        checkArgument(!publicationDelay.isNegative() && publicationDelay.compareTo(Duration.ofDays(1)) < 0, "Publication delay must be within a day");
+        this.publicationDelay = publicationDelay;
+    }
+
+    public Duration getPublicationDelay() {
+        return publicationDelay;
+    }
+
+    public void setRetryPeriod(Duration retryPeriod) {
+        checkArgument(!retryPeriod.isNegative() && !retryPeriod.isZero(), "Retry period must be positive");
+        this.retryPeriod = retryPeriod;
+    }
+
+    public Duration getRetryPeriod() {
+        return retryPeriod;
+    }
+
+    public void setExecutor(ScheduledExecutorService executor) {
+        executorRef.set(executor);
+    }
+
+    public ScheduledExecutorService getExecutor() {
+        final ScheduledExecutorService executor = executorRef.get();
+        if (executor == null) {
+            executorRef.compareAndSet(null, LazySchedulerHolder.SCHEDULER);
+        }
+        return executorRef.get();
+    }
+
+    public synchronized void start() {
+        if (!started) {
+            started = true;
+            schedule(++generation, Duration.ZERO);
+        }
+    }
+
+    public synchronized void stop() {
+        started = false;
+        generation++;
+        final ScheduledFuture<?> nextRun = nextRunRef.getAndSet(null);
+        if (nextRun != null) {
+            nextRun.cancel(false);
+        }
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Loads and stores today's rates of stale registered currencies right away.
+     * @return currencies which rates are still stale
+     */
+    public ImmutableList<CurrencyUnit> prewarm() {
+        final ImmutableSet<CurrencyUnit> stale = findStale();
+        if (stale.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        final UtcDay today = new UtcDay();
+        final CurrenciesExchangeService.BackfillResult result = exchangeService.backfill(today, today, stale, Optional.empty());
+        logger.info("Prewarmed {} rates for {}", result.ratesAdded, today);
+
+        return findStale().asList();
+    }
+
+    private ImmutableSet<CurrencyUnit> findStale() {
+        final ImmutableSet.Builder<CurrencyUnit> builder = ImmutableSet.builder();
+        treasury.streamRegisteredCurrencies()
+                .filter(unit -> !unit.equals(Units.RUB) && !unit.equals(Units.BTC) && exchangeService.isRateStale(unit))
+                .forEach(builder::add);
+        return builder.build();
+    }
+
+    private void run(long runGeneration) {
+        boolean allFresh = false;
+        try {
+            final ImmutableList<CurrencyUnit> stillStale = prewarm();
+            allFresh = stillStale.isEmpty();
+            if (!allFresh) {
+                logger.info("Rates of {} are still stale, will retry in {}", stillStale, retryPeriod);
+            }
+        } catch (Throwable th) {
+            logger.error("Rates prewarm failed", th);
+        } finally {
+            final Duration untilPublication = untilNextPublication();
+            schedule(runGeneration, allFresh || untilPublication.compareTo(retryPeriod) < 0 ? untilPublication : retryPeriod);
+        }
+    }
+
+    private synchronized void schedule(long runGeneration, Duration delay) {
+        if (started && runGeneration == generation) {
+            nextRunRef.set(getExecutor().schedule(() -> run(runGeneration), delay.toMillis(), TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private Duration untilNextPublication() {
+        final OffsetDateTime now = OffsetDateTime.now(new UtcDay().inner.getOffset());
+        OffsetDateTime publication = new UtcDay().inner.plus(publicationDelay);
+        if (!publication.isAfter(now)) {
+            publication = publication.plusDays(1);
+        }
+        return Duration.between(now, publication);
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter;
+
+import com.google.common.collect.ImmutableList;
+import org.joda.money.CurrencyUnit;
+import org.junit.Test;
+import ru.adios.budgeter.api.Bundle;
+import ru.adios.budgeter.api.CurrencyRatesProvider;
+import ru.adios.budgeter.api.CurrencyRatesRepository;
+import ru.adios.budgeter.api.Units;
+import ru.adios.budgeter.api.data.ConversionPair;
+import ru.adios.budgeter.inmemrepo.Schema;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CachingCurrencyRatesRepositoryTest {
+
+    @Test
+    public void testGetConversionMultiplier() throws Exception {
+        Schema.INSTANCE.clear(Bundle.Repo.CURRENCY_RATES);
+        testGetConversionMultiplierWith(Schema.INSTANCE, TestUtils.CASE_INNER);
+        TestUtils.JDBC_BUNDLE.clear(Bundle.Repo.CURRENCY_RATES);
+        TestUtils.JDBC_BUNDLE.tryExecuteInTransaction(() -> testGetConversionMultiplierWith(TestUtils.JDBC_BUNDLE, TestUtils.CASE_JDBC));
+    }
+
+    private void testGetConversionMultiplierWith(Bundle bundle, String caseName) {
+        caseName += ": ";
+        final CurrencyRatesRepository delegate = bundle.currencyRates();
+        final CachingCurrencyRatesRepository cache = new CachingCurrencyRatesRepository(delegate);
+
+        final BigDecimal usdRate = BigDecimal.valueOf(55);
+        final BigDecimal eurRate = BigDecimal.valueOf(65);
+        assertTrue(caseName + "Rate addition failed", cache.addRate(TestUtils.TODAY, Units.RUB, CurrencyUnit.USD, usdRate));
+        assertTrue(caseName + "Rate addition failed", cache.addRate(TestUtils.TODAY, Units.RUB, CurrencyUnit.EUR, eurRate));
+
+        assertEquals(caseName + "Straight rate", usdRate, cache.getConversionMultiplier(TestUtils.TODAY, Units.RUB, CurrencyUnit.USD).get());
+        assertEquals(caseName + "Reversed rate", CurrencyRatesProvider.reverseRate(usdRate),
+                cache.getConversionMultiplier(TestUtils.TODAY, CurrencyUnit.USD, Units.RUB).get());
+        assertEquals(caseName + "Intermediate rate", CurrencyRatesProvider.getConversionMultiplierFromIntermediateMultipliers(usdRate, eurRate),
+                cache.getConversionMultiplier(TestUtils.TODAY, CurrencyUnit.USD, CurrencyUnit.EUR).get());
+
+        final ConversionPair usdEur = new ConversionPair(CurrencyUnit.USD, CurrencyUnit.EUR);
+        assertEquals(caseName + "Batch intermediate rate", CurrencyRatesProvider.getConversionMultiplierFromIntermediateMultipliers(usdRate, eurRate),
+                cache.getConversionMultipliers(TestUtils.TODAY, ImmutableList.of(usdEur)).get(usdEur));
+
+        // rates added to the delegate directly are seen right away
+        assertFalse(caseName + "Unexpected rate", cache.getConversionMultiplier(TestUtils.YESTERDAY, Units.RUB, CurrencyUnit.USD).isPresent());
+        delegate.addRate(TestUtils.YESTERDAY, Units.RUB, CurrencyUnit.USD, usdRate);
+        assertEquals(caseName + "Remembered miss hid the rate", usdRate, cache.getConversionMultiplierStraight(TestUtils.YESTERDAY, Units.RUB, CurrencyUnit.USD).get());
+        final ConversionPair rubChf = new ConversionPair(Units.RUB, CurrencyUnit.CHF);
+        assertTrue(caseName + "Unexpected rate", cache.getConversionMultipliersStraight(TestUtils.YESTERDAY, ImmutableList.of(rubChf)).isEmpty());
+        delegate.addRate(TestUtils.YESTERDAY, Units.RUB, CurrencyUnit.CHF, eurRate);
+        assertEquals(caseName + "Remembered batch miss hid the rate", eurRate,
+                cache.getConversionMultipliersStraight(TestUtils.YESTERDAY, ImmutableList.of(rubChf)).get(rubChf));
+    }
+
+    @Test
+    public void testMissesRemembered() throws Exception {
+        Schema.INSTANCE.clear(Bundle.Repo.CURRENCY_RATES);
+        final AtomicInteger reads = new AtomicInteger(0);
+        final CurrencyRatesRepository delegate = countingReads(Schema.INSTANCE.currencyRates(), reads);
+        final CachingCurrencyRatesRepository cache = new CachingCurrencyRatesRepository(delegate, 1);
+        delegate.addRate(TestUtils.TODAY, Units.RUB, CurrencyUnit.EUR, BigDecimal.ONE);
+
+        assertFalse(cache.getConversionMultiplierStraight(TestUtils.DAY_BF_YESTER, Units.RUB, CurrencyUnit.USD).isPresent());
+        assertFalse(cache.getConversionMultiplierStraight(TestUtils.DAY_BF_YESTER, Units.RUB, CurrencyUnit.USD).isPresent());
+        assertEquals("Miss wasn't remembered", 1, reads.get());
+
+        cache.getConversionMultiplierStraight(TestUtils.TODAY, Units.RUB, CurrencyUnit.USD); // evicts the day before yesterday
+        assertFalse(cache.getConversionMultiplierStraight(TestUtils.DAY_BF_YESTER, Units.RUB, CurrencyUnit.USD).isPresent());
+        assertEquals("Least recently used day wasn't evicted", 3, reads.get());
+    }
+
+    @Test
+    public void testDayServedFromMatrix() throws Exception {
+        Schema.INSTANCE.clear(Bundle.Repo.CURRENCY_RATES);
+        final AtomicInteger reads = new AtomicInteger(0);
+        final CurrencyRatesRepository delegate = countingReads(Schema.INSTANCE.currencyRates(), reads);
+        final CachingCurrencyRatesRepository cache = new CachingCurrencyRatesRepository(delegate);
+        final CrossRatesResolver resolver = new CrossRatesResolver(cache);
+        delegate.addRate(TestUtils.TODAY, Units.RUB, CurrencyUnit.EUR, BigDecimal.valueOf(70L));
+        delegate.addRate(TestUtils.TODAY, Units.RUB, CurrencyUnit.USD, BigDecimal.valueOf(60L));
+
+        assertTrue(resolver.getConversionMultiplier(TestUtils.TODAY, CurrencyUnit.EUR, CurrencyUnit.USD).isPresent());
+        assertEquals("Day wasn't read once", 1, reads.get());
+        assertTrue(resolver.getConversionMultiplier(TestUtils.TODAY, CurrencyUnit.USD, CurrencyUnit.EUR).isPresent());
+        assertEquals(BigDecimal.valueOf(70L), cache.getConversionMultiplierStraight(TestUtils.TODAY, Units.RUB, CurrencyUnit.EUR).get());
+        assertFalse(cache.getConversionMultiplierStraight(TestUtils.TODAY, Units.RUB, CurrencyUnit.GBP).isPresent());
+        assertEquals("Complete day was read again", 1, reads.get());
+
+        delegate.addRate(TestUtils.TODAY, Units.RUB, CurrencyUnit.GBP, BigDecimal.valueOf(80L));
+        assertTrue(resolver.getConversionMultiplier(TestUtils.TODAY, CurrencyUnit.GBP, CurrencyUnit.USD).isPresent());
+        assertEquals("Changed day wasn't reread", 2, reads.get());
+    }
+
+    private static CurrencyRatesRepository countingReads(CurrencyRatesRepository delegate, AtomicInteger reads) {
+        return (CurrencyRatesRepository) Proxy.newProxyInstance(
+                CurrencyRatesRepository.class.getClassLoader(),
+                new Class<?>[] {CurrencyRatesRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().startsWith("getConversionMultiplier") || method.getName().equals("getRatesForDay")) {
+                        reads.incrementAndGet();
+                    }
+                    try {
+                        return method.invoke(delegate, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                }
+        );
+    }
+
+}
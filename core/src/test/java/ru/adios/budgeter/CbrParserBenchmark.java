@@ -0,0 +1,141 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import org.joda.money.CurrencyUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+import ru.adios.budgeter.inmemrepo.Schema;
+
+import javax.xml.parsers.SAXParserFactory;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of a recorded CBR daily response: current parser against the previous one-shot implementation.
+ * Run {@link #main(String[])} from the test classpath, GC profiler reports allocation rate per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CbrParserBenchmark {
+
+    private static final List<CurrencyUnit> SUPPORTED = ImmutableList.of(
+            CurrencyUnit.USD, CurrencyUnit.EUR, CurrencyUnit.GBP, CurrencyUnit.JPY, CurrencyUnit.CHF, CurrencyUnit.of("CNY")
+    );
+
+    private byte[] response;
+    private ExchangeRatesLoader.CbrLoader loader;
+    private ExchangeRatesLoader.CbrParser parser;
+    private CopyOnWriteArrayList<CurrencyUnit> legacySupported;
+
+    @Setup
+    public void setUp() throws Exception {
+        response = ByteStreams.toByteArray(CbrParserBenchmark.class.getResourceAsStream("/cbr_daily.xml"));
+        loader = ExchangeRatesLoader.createCbrLoader(Schema.INSTANCE.treasury());
+        SUPPORTED.forEach(loader::addToSupportedCurrencies);
+        parser = new ExchangeRatesLoader.CbrParser("");
+        legacySupported = new CopyOnWriteArrayList<>(SUPPORTED);
+    }
+
+    @Benchmark
+    public Map<CurrencyUnit, BigDecimal> parse() throws Exception {
+        return parser.parseInput(new ByteArrayInputStream(response), "", TestUtils.TODAY, Optional.empty(), loader);
+    }
+
+    @Benchmark
+    public Map<CurrencyUnit, BigDecimal> legacyParse() throws Exception {
+        final Map<CurrencyUnit, BigDecimal> rates = new TreeMap<>();
+        SAXParserFactory.newInstance().newSAXParser().parse(
+                new InputSource(new InputStreamReader(new ByteArrayInputStream(response), "windows-1251")),
+                new DefaultHandler() {
+                    private boolean insideCode = false;
+                    private boolean insideValue = false;
+                    private CurrencyUnit currentUnit;
+                    private BigDecimal currentRate;
+
+                    @Override
+                    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                        if (qName.equalsIgnoreCase("CharCode")) {
+                            insideCode = true;
+                        } else if (qName.equalsIgnoreCase("Value")) {
+                            insideValue = true;
+                        }
+                    }
+
+                    @Override
+                    public void characters(char[] ch, int start, int length) {
+                        if (insideCode) {
+                            final String code = new String(ch, start, length).toUpperCase();
+                            for (final CurrencyUnit unit : legacySupported) {
+                                if (unit.getCode().equals(code)) {
+                                    currentUnit = CurrencyUnit.getInstance(code);
+                                    break;
+                                }
+                            }
+                            insideCode = false;
+                        } else if (insideValue) {
+                            currentRate = new BigDecimal(new String(ch, start, length).replace(',', '.'));
+                            insideValue = false;
+                        }
+                        if (currentUnit != null && currentRate != null) {
+                            rates.put(currentUnit, currentRate);
+                            currentUnit = null;
+                            currentRate = null;
+                        }
+                    }
+
+                    @Override
+                    public void endElement(String uri, String localName, String qName) {
+                        if (qName.equalsIgnoreCase("Valute")) {
+                            currentRate = null;
+                        }
+                    }
+                }
+        );
+        return rates;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(
+                new OptionsBuilder()
+                        .include(CbrParserBenchmark.class.getSimpleName())
+                        .addProfiler(GCProfiler.class)
+                        .build()
+        ).run();
+    }
+
+}
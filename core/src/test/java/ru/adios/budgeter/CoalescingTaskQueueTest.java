@@ -0,0 +1,141 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.joda.money.CurrencyUnit;
+import org.junit.Test;
+import ru.adios.budgeter.api.Units;
+import ru.adios.budgeter.api.data.ConversionPair;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CoalescingTaskQueueTest {
+
+    @Test
+    public void testCoalescing() throws Exception {
+        final ConcurrentLinkedQueue<Runnable> executor = new ConcurrentLinkedQueue<>();
+        final ArrayList<ImmutableList<CoalescingTaskQueue.Work>> batches = new ArrayList<>();
+        final CoalescingTaskQueue queue = new CoalescingTaskQueue(batches::add, () -> executor::add, 16);
+
+        for (int i = 0; i < 10; i++) {
+            final CoalescingTaskQueue.Batch batch = new CoalescingTaskQueue.Batch();
+            batch.addRates(TestUtils.DAY_BF_YESTER, Units.RUB, ImmutableMap.of(new ConversionPair(Units.RUB, CurrencyUnit.USD), BigDecimal.valueOf(60 + i)));
+            batch.addPostponed(TestUtils.DAY_BF_YESTER, Units.RUB, ImmutableMap.of(CurrencyUnit.USD, BigDecimal.valueOf(60 + i)));
+            queue.submit(batch);
+        }
+        final CoalescingTaskQueue.Batch other = new CoalescingTaskQueue.Batch();
+        other.addPostponed(TestUtils.DAY_BF_YESTER, CurrencyUnit.EUR, ImmutableMap.of(CurrencyUnit.USD, BigDecimal.ONE));
+        queue.submit(other);
+
+        assertEquals("Drain must be scheduled once", 1, executor.size());
+        assertEquals(2, queue.getDepth());
+        assertEquals(21, queue.getSubmitted());
+        assertEquals(19, queue.getCoalesced());
+
+        executor.poll().run();
+        assertEquals(0, queue.getDepth());
+        assertEquals(1, queue.getBatches());
+        assertEquals(1, batches.size());
+        final ImmutableList<CoalescingTaskQueue.Work> works = batches.get(0);
+        assertEquals(2, works.size());
+        assertEquals("First submitted rate must win", BigDecimal.valueOf(60), works.get(0).rates.get(new ConversionPair(Units.RUB, CurrencyUnit.USD)));
+        assertEquals(1, works.get(0).postponed.size());
+
+        queue.submit(other);
+        assertEquals("Drain must be rescheduled after queue emptied", 1, executor.size());
+    }
+
+    @Test
+    public void testBackPressure() throws Exception {
+        final CountDownLatch runnerStarted = new CountDownLatch(1);
+        final CountDownLatch runnerRelease = new CountDownLatch(1);
+        final ConcurrentLinkedQueue<Runnable> executor = new ConcurrentLinkedQueue<>();
+        final CoalescingTaskQueue queue = new CoalescingTaskQueue(works -> {
+            runnerStarted.countDown();
+            try {
+                runnerRelease.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, () -> executor::add, 1);
+
+        queue.submit(batchFor(CurrencyUnit.USD));
+        queue.submit(batchFor(CurrencyUnit.USD)); // merged, doesn't take capacity
+
+        final CountDownLatch submitted = new CountDownLatch(1);
+        final Thread producer = new Thread(() -> {
+            queue.submit(batchFor(CurrencyUnit.EUR));
+            submitted.countDown();
+        });
+        producer.start();
+        assertFalse("Producer must wait for a full queue", submitted.await(300, TimeUnit.MILLISECONDS));
+
+        final Thread drainer = new Thread(executor.poll());
+        drainer.start();
+        assertTrue(runnerStarted.await(5, TimeUnit.SECONDS));
+        assertTrue("Producer must proceed once queue is drained", submitted.await(5, TimeUnit.SECONDS));
+        runnerRelease.countDown();
+        drainer.join(5000);
+        producer.join(5000);
+        assertEquals(0, queue.getDepth());
+        assertEquals(2, queue.getBatches());
+    }
+
+    @Test
+    public void testFailedBatchRunSeparately() throws Exception {
+        final ConcurrentLinkedQueue<Runnable> executor = new ConcurrentLinkedQueue<>();
+        final ArrayList<CurrencyUnit> done = new ArrayList<>();
+        final ArrayList<Integer> batchSizes = new ArrayList<>();
+        final CoalescingTaskQueue queue = new CoalescingTaskQueue(works -> {
+            batchSizes.add(works.size());
+            for (final CoalescingTaskQueue.Work work : works) {
+                if (work.key.unit.equals(CurrencyUnit.GBP)) {
+                    throw new IllegalStateException("Bad key");
+                }
+            }
+            for (final CoalescingTaskQueue.Work work : works) {
+                done.add(work.key.unit);
+            }
+        }, () -> executor::add, 16);
+
+        queue.submit(batchFor(CurrencyUnit.USD));
+        queue.submit(batchFor(CurrencyUnit.GBP));
+        queue.submit(batchFor(CurrencyUnit.EUR));
+        executor.poll().run();
+
+        assertEquals("Merged batch, then each key", ImmutableList.of(3, 1, 1, 1), batchSizes);
+        assertEquals("Good keys must survive the bad one", ImmutableList.of(CurrencyUnit.USD, CurrencyUnit.EUR), done);
+        assertEquals(0, queue.getDepth());
+    }
+
+    private static CoalescingTaskQueue.Batch batchFor(CurrencyUnit unit) {
+        final CoalescingTaskQueue.Batch batch = new CoalescingTaskQueue.Batch();
+        batch.addPostponed(TestUtils.DAY_BF_YESTER, unit, ImmutableMap.of(Units.RUB, BigDecimal.ONE));
+        return batch;
+    }
+
+}
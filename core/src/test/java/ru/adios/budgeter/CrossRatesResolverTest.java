@@ -0,0 +1,116 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter;
+
+import com.google.common.collect.ImmutableList;
+import org.joda.money.CurrencyUnit;
+import org.junit.Test;
+import ru.adios.budgeter.api.Bundle;
+import ru.adios.budgeter.api.CurrencyRatesProvider;
+import ru.adios.budgeter.api.CurrencyRatesRepository;
+import ru.adios.budgeter.api.Units;
+import ru.adios.budgeter.api.data.ConversionPair;
+import ru.adios.budgeter.inmemrepo.Schema;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import static org.junit.Assert.*;
+
+public class CrossRatesResolverTest {
+
+    @Test
+    public void testGetConversionMultiplier() throws Exception {
+        Schema.INSTANCE.clear(Bundle.Repo.CURRENCY_RATES);
+        testGetConversionMultiplierWith(Schema.INSTANCE, TestUtils.CASE_INNER);
+        TestUtils.JDBC_BUNDLE.clear(Bundle.Repo.CURRENCY_RATES);
+        TestUtils.JDBC_BUNDLE.tryExecuteInTransaction(() -> testGetConversionMultiplierWith(TestUtils.JDBC_BUNDLE, TestUtils.CASE_JDBC));
+    }
+
+    private void testGetConversionMultiplierWith(Bundle bundle, String caseName) {
+        caseName += ": ";
+        final CurrencyRatesRepository delegate = bundle.currencyRates();
+        final CrossRatesResolver resolver = new CrossRatesResolver(delegate);
+
+        final BigDecimal usdRate = BigDecimal.valueOf(55);
+        final BigDecimal eurRate = BigDecimal.valueOf(65);
+        final BigDecimal btcRate = new BigDecimal("0.004");
+        delegate.addRate(TestUtils.TODAY, Units.RUB, CurrencyUnit.USD, usdRate);
+        delegate.addRate(TestUtils.TODAY, Units.RUB, CurrencyUnit.EUR, eurRate);
+        delegate.addRate(TestUtils.TODAY, CurrencyUnit.USD, Units.BTC, btcRate);
+
+        assertEquals(caseName + "Straight rate", usdRate, resolver.getConversionMultiplier(TestUtils.TODAY, Units.RUB, CurrencyUnit.USD).get());
+        assertEquals(caseName + "Reversed rate", CurrencyRatesProvider.reverseRate(usdRate),
+                resolver.getConversionMultiplier(TestUtils.TODAY, CurrencyUnit.USD, Units.RUB).get());
+        assertEquals(caseName + "Intermediate rate differs from the provider's one",
+                delegate.getConversionMultiplier(TestUtils.TODAY, CurrencyUnit.USD, CurrencyUnit.EUR).get(),
+                resolver.getConversionMultiplier(TestUtils.TODAY, CurrencyUnit.USD, CurrencyUnit.EUR).get());
+
+        // EUR -> RUB -> USD -> BTC, unreachable for the provider
+        assertFalse(caseName + "Provider is not supposed to know", delegate.getConversionMultiplier(TestUtils.TODAY, CurrencyUnit.EUR, Units.BTC).isPresent());
+        final BigDecimal expected = usdRate.multiply(btcRate).divide(eurRate, CurrencyRatesProvider.RATES_SCALE, RoundingMode.HALF_DOWN).stripTrailingZeros();
+        assertEquals(caseName + "Three hops rate", expected, resolver.getConversionMultiplier(TestUtils.TODAY, CurrencyUnit.EUR, Units.BTC).get());
+        final ConversionPair btcEur = new ConversionPair(Units.BTC, CurrencyUnit.EUR);
+        assertTrue(caseName + "Batch lookup", resolver.getConversionMultipliers(TestUtils.TODAY, ImmutableList.of(btcEur)).containsKey(btcEur));
+
+        assertFalse(caseName + "Unknown currency", resolver.getConversionMultiplier(TestUtils.TODAY, CurrencyUnit.EUR, CurrencyUnit.CHF).isPresent());
+        assertTrue(caseName + "Rate addition failed", resolver.addRate(TestUtils.TODAY, CurrencyUnit.CHF, CurrencyUnit.EUR, BigDecimal.ONE));
+        assertTrue(caseName + "Day wasn't invalidated", resolver.getConversionMultiplier(TestUtils.TODAY, Units.RUB, CurrencyUnit.CHF).isPresent());
+    }
+
+    @Test
+    public void testPreferredIntermediates() throws Exception {
+        Schema.INSTANCE.clear(Bundle.Repo.CURRENCY_RATES);
+        final CurrencyRatesRepository delegate = Schema.INSTANCE.currencyRates();
+        delegate.addRate(TestUtils.TODAY, Units.RUB, CurrencyUnit.USD, BigDecimal.valueOf(50));
+        delegate.addRate(TestUtils.TODAY, Units.RUB, CurrencyUnit.EUR, BigDecimal.valueOf(100));
+        delegate.addRate(TestUtils.TODAY, CurrencyUnit.CHF, CurrencyUnit.USD, BigDecimal.ONE);
+        delegate.addRate(TestUtils.TODAY, CurrencyUnit.CHF, CurrencyUnit.EUR, BigDecimal.ONE);
+
+        assertEquals(BigDecimal.valueOf(2), new CrossRatesResolver(delegate).getConversionMultiplier(TestUtils.TODAY, CurrencyUnit.USD, CurrencyUnit.EUR).get());
+        assertEquals(BigDecimal.ONE,
+                new CrossRatesResolver(delegate, ImmutableList.of(CurrencyUnit.CHF), CrossRatesResolver.DEFAULT_MAX_DAYS)
+                        .getConversionMultiplier(TestUtils.TODAY, CurrencyUnit.USD, CurrencyUnit.EUR).get());
+    }
+
+    @Test
+    public void testDelegateWrites() throws Exception {
+        Schema.INSTANCE.clear(Bundle.Repo.CURRENCY_RATES);
+        testDelegateWritesWith(Schema.INSTANCE, TestUtils.CASE_INNER);
+        TestUtils.JDBC_BUNDLE.clear(Bundle.Repo.CURRENCY_RATES);
+        TestUtils.JDBC_BUNDLE.tryExecuteInTransaction(() -> testDelegateWritesWith(TestUtils.JDBC_BUNDLE, TestUtils.CASE_JDBC));
+    }
+
+    private void testDelegateWritesWith(Bundle bundle, String caseName) {
+        caseName += ": ";
+        final CurrencyRatesRepository delegate = bundle.currencyRates();
+        final CrossRatesResolver resolver = new CrossRatesResolver(delegate);
+
+        assertFalse(caseName + "Unexpected rate", resolver.getConversionMultiplier(TestUtils.YESTERDAY, CurrencyUnit.USD, Units.RUB).isPresent());
+        delegate.addRate(TestUtils.YESTERDAY, Units.RUB, CurrencyUnit.USD, BigDecimal.TEN);
+        assertEquals(caseName + "Rate added to the delegate is hidden", CurrencyRatesProvider.reverseRate(BigDecimal.TEN),
+                resolver.getConversionMultiplier(TestUtils.YESTERDAY, CurrencyUnit.USD, Units.RUB).get());
+
+        assertFalse(caseName + "Unexpected rate", resolver.getConversionMultiplier(TestUtils.YESTERDAY, CurrencyUnit.USD, CurrencyUnit.EUR).isPresent());
+        delegate.addRate(TestUtils.YESTERDAY, Units.RUB, CurrencyUnit.EUR, BigDecimal.ONE);
+        assertEquals(caseName + "Closure wasn't recomputed", CurrencyRatesProvider.getConversionMultiplierFromIntermediateMultipliers(BigDecimal.TEN, BigDecimal.ONE),
+                resolver.getConversionMultiplier(TestUtils.YESTERDAY, CurrencyUnit.USD, CurrencyUnit.EUR).get());
+    }
+
+}
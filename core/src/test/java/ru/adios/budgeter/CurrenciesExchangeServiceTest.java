@@ -18,6 +18,11 @@
 
 package ru.adios.budgeter;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
 import org.joda.money.CurrencyUnit;
 import org.joda.money.Money;
 import org.junit.Before;
@@ -26,13 +31,19 @@ import ru.adios.budgeter.api.*;
 import ru.adios.budgeter.api.data.*;
 import ru.adios.budgeter.inmemrepo.Schema;
 
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.math.RoundingMode;
+import java.net.InetSocketAddress;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
@@ -179,6 +190,57 @@ public class CurrenciesExchangeServiceTest {
         testPostponed(state, caseName);
     }
 
+    @Test
+    public void testProcessAllPostponedEventsInParallel() throws Exception {
+        testProcessAllPostponedEventsInParallelWith(innerState, TestUtils.CASE_INNER);
+        testProcessAllPostponedEventsInParallelWith(jdbcState, TestUtils.CASE_JDBC);
+    }
+
+    private void testProcessAllPostponedEventsInParallelWith(State state, String caseName) throws Exception {
+        caseName += ": ";
+        state.service.setPostponedParallelism(2);
+        try {
+            postponedNaturalRates(state, caseName);
+        } finally {
+            state.service.setPostponedParallelism(1);
+        }
+
+        // days are reenacted before processing returns
+        testPostponed(state, caseName);
+    }
+
+    @Test
+    public void testProcessAllPostponedEventsStreaming() throws Exception {
+        testProcessAllPostponedEventsStreamingWith(innerState, TestUtils.CASE_INNER);
+        testProcessAllPostponedEventsStreamingWith(jdbcState, TestUtils.CASE_JDBC);
+    }
+
+    private void testProcessAllPostponedEventsStreamingWith(State state, String caseName) throws Exception {
+        caseName += ": ";
+        prepareForPostponed(state);
+        state.ratesRepository.addRate(TestUtils.YESTERDAY, CurrencyUnit.EUR, Units.RUB, BigDecimal.valueOf(62.0));
+        state.ratesRepository.addRate(TestUtils.TODAY, CurrencyUnit.EUR, Units.RUB, BigDecimal.valueOf(61.0));
+
+        final List<ConversionRate> succeeded = new ArrayList<>();
+        final List<ConversionRate> failed = new ArrayList<>();
+        final long days = state.service.processAllPostponedEvents(false, new CurrenciesExchangeService.PostponedEventsSink() {
+            @Override
+            public void succeeded(ConversionRate rate) {
+                succeeded.add(rate);
+            }
+
+            @Override
+            public void failed(ConversionRate rate) {
+                failed.add(rate);
+            }
+        });
+
+        assertEquals(caseName + "Days processed", 2, days);
+        assertEquals(caseName + "Must be 2 succeeded conversion rates", 2, succeeded.size());
+        assertTrue(caseName + "There are failed pairs", failed.isEmpty());
+        testPostponed(state, caseName);
+    }
+
     @Test
     public void testProcessAllPostponedTwice() throws Exception {
         testProcessAllPostponedTwiceWith(innerState, TestUtils.CASE_INNER);
@@ -223,6 +285,7 @@ public class CurrenciesExchangeServiceTest {
         assertTrue(caseName + "Conversion rate is not between RUB/EUR pair ",
                 processPostponedResult.succeeded.get(0).pair.containsIgnoreOrder(CurrencyUnit.EUR, Units.RUB));
         assertTrue(caseName + "There are failed pairs", processPostponedResult.failed.isEmpty());
+        assertTrue(caseName + "There are failed days", processPostponedResult.failedDays.isEmpty());
     }
 
     @Test
@@ -277,4 +340,148 @@ public class CurrenciesExchangeServiceTest {
         assertTrue(caseName + "No remembered exchange event", yesterdayFirst.isPresent());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testRatesCache() throws Exception {
+        final CountingRatesRepository counting = new CountingRatesRepository(innerState.ratesRepository);
+        final CurrenciesExchangeService service = new CurrenciesExchangeService(
+                innerState.bundle.getTransactionalSupport(),
+                counting,
+                innerState.accounter,
+                innerState.treasury,
+                ExchangeRatesLoader.createBtcLoader(innerState.treasury),
+                ExchangeRatesLoader.createCbrLoader(innerState.treasury)
+        );
+        service.executeInSameThread();
+
+        final BigDecimal rate = BigDecimal.valueOf(55);
+        assertTrue("Rate addition failed", service.addRate(TestUtils.DAY_BF_YESTER, Units.RUB, CurrencyUnit.USD, rate));
+        assertEquals(CurrencyRatesProvider.reverseRate(rate), service.getConversionMultiplier(TestUtils.DAY_BF_YESTER, CurrencyUnit.USD, Units.RUB).get());
+        final int reads = counting.reads.get();
+        assertTrue("Delegate wasn't asked", reads > 0);
+
+        assertEquals(CurrencyRatesProvider.reverseRate(rate), service.getConversionMultiplier(TestUtils.DAY_BF_YESTER, CurrencyUnit.USD, Units.RUB).get());
+        assertEquals(rate, service.getConversionMultiplier(TestUtils.DAY_BF_YESTER, Units.RUB, CurrencyUnit.USD).get());
+        assertEquals("Repeated lookups reached the delegate", reads, counting.reads.get());
+    }
+
+    @Test
+    public void testBackfill() throws Exception {
+        final byte[] body = ByteStreams.toByteArray(getClass().getResourceAsStream("/cbr_daily.xml"));
+        final AtomicInteger requests = new AtomicInteger(0);
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.createContext("/cbr", exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(200, body.length);
+            try (final OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+
+        try {
+            final String address = "http://127.0.0.1:" + server.getAddress().getPort() + "/cbr?date_req=";
+            testBackfillWith(innerState, address, requests, TestUtils.CASE_INNER);
+            requests.set(0);
+            testBackfillWith(jdbcState, address, requests, TestUtils.CASE_JDBC);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private void testBackfillWith(State state, String address, AtomicInteger requests, String caseName) {
+        caseName += ": ";
+        final CurrenciesExchangeService service = new CurrenciesExchangeService(
+                state.bundle.getTransactionalSupport(),
+                state.ratesRepository,
+                state.accounter,
+                state.treasury,
+                ExchangeRatesLoader.createBtcLoader(state.treasury),
+                ExchangeRatesLoader.createCbrLoader(state.treasury, address)
+        );
+        service.executeInSameThread();
+
+        final UtcDay from = TestUtils.DAY_BF_YESTER.add(-2);
+        state.ratesRepository.addRate(TestUtils.YESTERDAY, CurrencyUnit.USD, Units.RUB, BigDecimal.TEN);
+        state.ratesRepository.addRate(TestUtils.YESTERDAY, Units.RUB, CurrencyUnit.EUR, BigDecimal.ONE);
+
+        final List<Integer> progress = new ArrayList<>();
+        final CurrenciesExchangeService.BackfillResult result =
+                service.backfill(from, TestUtils.YESTERDAY, ImmutableSet.of(CurrencyUnit.USD, CurrencyUnit.EUR, Units.RUB), Optional.of(progress::add));
+
+        assertEquals(caseName + "Present day was fetched", 3, requests.get());
+        assertEquals(caseName + "Wrong filled days", ImmutableList.of(from, from.add(1), TestUtils.DAY_BF_YESTER), result.filled);
+        assertTrue(caseName + "Unexpected failures", result.failed.isEmpty());
+        assertEquals(caseName + "Wrong rates count", 6, result.ratesAdded);
+        assertEquals(caseName + "Progress not finished", Integer.valueOf(100), progress.get(progress.size() - 1));
+        for (int i = 1; i < progress.size(); i++) {
+            assertTrue(caseName + "Progress went back", progress.get(i) >= progress.get(i - 1));
+        }
+        assertEquals(caseName + "Rate not stored", new BigDecimal("62.4508"), state.ratesRepository.getConversionMultiplierStraight(from, CurrencyUnit.USD, Units.RUB).get());
+        assertEquals(caseName + "Present rate overwritten", BigDecimal.TEN, state.ratesRepository.getConversionMultiplierStraight(TestUtils.YESTERDAY, CurrencyUnit.USD, Units.RUB).get());
+
+        assertEquals(caseName + "Second run isn't empty", 0, service.backfill(from, TestUtils.YESTERDAY, ImmutableSet.of(CurrencyUnit.USD, CurrencyUnit.EUR)).ratesAdded);
+        assertEquals(caseName + "Second run fetched", 3, requests.get());
+    }
+
+    private static final class CountingRatesRepository implements CurrencyRatesRepository {
+
+        private final CurrencyRatesRepository delegate;
+        private final AtomicInteger reads = new AtomicInteger(0);
+
+        private CountingRatesRepository(CurrencyRatesRepository delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Optional<BigDecimal> getConversionMultiplierStraight(UtcDay day, CurrencyUnit from, CurrencyUnit to) {
+            reads.incrementAndGet();
+            return delegate.getConversionMultiplierStraight(day, from, to);
+        }
+
+        @Override
+        public ImmutableMap<ConversionPair, BigDecimal> getConversionMultipliersStraight(UtcDay day, Collection<ConversionPair> pairs) {
+            reads.incrementAndGet();
+            return delegate.getConversionMultipliersStraight(day, pairs);
+        }
+
+        @Override
+        public ImmutableList<ConversionRate> getRatesForDay(UtcDay day) {
+            reads.incrementAndGet();
+            return delegate.getRatesForDay(day);
+        }
+
+        @Override
+        public ImmutableSet<Long> getIndexedForDay(UtcDay day) {
+            reads.incrementAndGet();
+            return delegate.getIndexedForDay(day);
+        }
+
+        @Override
+        public Optional<BigDecimal> getLatestOptionalConversionMultiplier(CurrencyUnit from, CurrencyUnit to) {
+            return delegate.getLatestOptionalConversionMultiplier(from, to);
+        }
+
+        @Override
+        public boolean isRateStale(CurrencyUnit to) {
+            return delegate.isRateStale(to);
+        }
+
+        @Override
+        public boolean addRate(UtcDay dayUtc, CurrencyUnit from, CurrencyUnit to, BigDecimal rate) {
+            return delegate.addRate(dayUtc, from, to, rate);
+        }
+
+        @Override
+        public Optional<ConversionRate> getById(Long id) {
+            return delegate.getById(id);
+        }
+
+        @Override
+        public Long currentSeqValue() {
+            return delegate.currentSeqValue();
+        }
+
+    }
+
+}
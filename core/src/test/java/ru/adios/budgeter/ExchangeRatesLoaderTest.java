@@ -0,0 +1,363 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
+import org.joda.money.CurrencyUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.adios.budgeter.inmemrepo.Schema;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ExchangeRatesLoaderTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLoadCurrenciesAsync() throws Exception {
+        final AtomicInteger concurrent = new AtomicInteger(0);
+        final AtomicInteger maxConcurrent = new AtomicInteger(0);
+        final AtomicInteger requests = new AtomicInteger(0);
+        final String day = TestUtils.DAY_BF_YESTER.inner.toLocalDate().toString();
+
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.createContext("/history/", exchange -> {
+            requests.incrementAndGet();
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(300);
+                final String code = exchange.getRequestURI().getPath().substring("/history/".length(), "/history/".length() + 3);
+                final byte[] body = ("datetime,high,low,average,volume\n"
+                        + day + " 00:00:00,1,1," + (code.equals("USD") ? "250.5" : "300") + ",1\n").getBytes(Charsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                try (final OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        });
+        server.start();
+
+        try {
+            final ExchangeRatesLoader.BtcLoader loader =
+                    ExchangeRatesLoader.createBtcLoader(Schema.INSTANCE.treasury(), "http://127.0.0.1:" + server.getAddress().getPort() + "/history/");
+            final Optional<List<CurrencyUnit>> units = Optional.of(ImmutableList.of(CurrencyUnit.USD, CurrencyUnit.EUR, CurrencyUnit.CHF));
+
+            final Map<CurrencyUnit, BigDecimal> rates = loader.loadCurrenciesAsync(false, Optional.of(TestUtils.DAY_BF_YESTER), units).get(10, TimeUnit.SECONDS);
+            assertEquals(3, rates.size());
+            assertEquals(new BigDecimal("250.5"), rates.get(CurrencyUnit.USD));
+            assertEquals(new BigDecimal("300"), rates.get(CurrencyUnit.CHF));
+            assertTrue("History CSVs weren't fetched in parallel", maxConcurrent.get() > 1);
+            assertEquals(3, requests.get());
+
+            // parsed history is cached, no more requests
+            assertEquals(rates, loader.loadCurrencies(false, Optional.of(TestUtils.DAY_BF_YESTER), units));
+            assertEquals(3, requests.get());
+
+            // on-disk history is warm for a loader created after "restart"
+            final Path historyDir = folder.getRoot().toPath();
+            final String historyStart = "http://127.0.0.1:" + server.getAddress().getPort() + "/history/";
+            try (final ExchangeRatesLoader.BtcLoader stored = ExchangeRatesLoader.createBtcLoader(Schema.INSTANCE.treasury(), historyStart, historyDir)) {
+                assertEquals(rates, stored.loadCurrencies(false, Optional.of(TestUtils.DAY_BF_YESTER), units));
+            }
+            assertEquals(6, requests.get());
+            try (final ExchangeRatesLoader.BtcLoader restarted = ExchangeRatesLoader.createBtcLoader(Schema.INSTANCE.treasury(), historyStart, historyDir)) {
+                assertEquals(rates, restarted.loadCurrencies(false, Optional.of(TestUtils.DAY_BF_YESTER), units));
+            }
+            assertEquals("History wasn't read from disk", 6, requests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testHistoryAbsentDays() throws Exception {
+        final ConcurrentHashMap<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.createContext("/history/", exchange -> {
+            final String code = exchange.getRequestURI().getPath().substring("/history/".length(), "/history/".length() + 3);
+            requests.computeIfAbsent(code, key -> new AtomicInteger(0)).incrementAndGet();
+            // GBP history lacks the day before yesterday, but goes on past it
+            final StringBuilder csv = new StringBuilder("datetime,high,low,average,volume\n");
+            if (!code.equals("GBP")) {
+                csv.append(TestUtils.DAY_BF_YESTER.inner.toLocalDate()).append(" 00:00:00,1,1,250.5,1\n");
+            }
+            csv.append(TestUtils.YESTERDAY.inner.toLocalDate()).append(" 00:00:00,1,1,260.5,1\n");
+            final byte[] body = csv.toString().getBytes(Charsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (final OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+
+        final String historyStart = "http://127.0.0.1:" + server.getAddress().getPort() + "/history/";
+        try {
+            testHistoryAbsentDaysWith(ExchangeRatesLoader.createBtcLoader(Schema.INSTANCE.treasury(), historyStart), requests);
+            requests.clear();
+            try (final ExchangeRatesLoader.BtcLoader stored = ExchangeRatesLoader.createBtcLoader(Schema.INSTANCE.treasury(), historyStart, folder.getRoot().toPath())) {
+                testHistoryAbsentDaysWith(stored, requests);
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static void testHistoryAbsentDaysWith(ExchangeRatesLoader.BtcLoader loader, ConcurrentHashMap<String, AtomicInteger> requests) throws Exception {
+        final Optional<List<CurrencyUnit>> units = Optional.of(ImmutableList.of(CurrencyUnit.USD, CurrencyUnit.GBP));
+        final Map<CurrencyUnit, BigDecimal> rates = loader.loadCurrencies(false, Optional.of(TestUtils.DAY_BF_YESTER), units);
+        assertEquals(1, rates.size());
+        assertEquals(new BigDecimal("250.5"), rates.get(CurrencyUnit.USD));
+
+        assertEquals(rates, loader.loadCurrencies(false, Optional.of(TestUtils.DAY_BF_YESTER), units));
+        assertEquals("Absent day was downloaded again", 1, requests.get("GBP").get());
+        assertEquals("Present currency was downloaded again", 1, requests.get("USD").get());
+
+        final Map<CurrencyUnit, BigDecimal> withNew = loader.loadCurrencies(
+                false, Optional.of(TestUtils.DAY_BF_YESTER), Optional.of(ImmutableList.of(CurrencyUnit.USD, CurrencyUnit.GBP, CurrencyUnit.JPY))
+        );
+        assertEquals(2, withNew.size());
+        assertEquals(1, requests.get("JPY").get());
+        assertEquals("Stored currency wasn't served from cache", 1, requests.get("USD").get());
+        assertEquals("Absent day wasn't served from cache", 1, requests.get("GBP").get());
+    }
+
+    @Test
+    public void testLoadCurrenciesAsyncShared() throws Exception {
+        final byte[] body = ByteStreams.toByteArray(getClass().getResourceAsStream("/cbr_daily.xml"));
+        final AtomicInteger requests = new AtomicInteger(0);
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.createContext("/cbr", exchange -> {
+            requests.incrementAndGet();
+            try {
+                Thread.sleep(300); // keep the fetch in flight while everybody asks
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (final OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+
+        final int callers = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            final ExchangeRatesLoader.CbrLoader loader =
+                    ExchangeRatesLoader.createCbrLoader(Schema.INSTANCE.treasury(), "http://127.0.0.1:" + server.getAddress().getPort() + "/cbr?date_req=");
+            final Optional<List<CurrencyUnit>> units = Optional.of(ImmutableList.of(CurrencyUnit.USD, CurrencyUnit.EUR));
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<CompletableFuture<Map<CurrencyUnit, BigDecimal>>>> submitted = new ArrayList<>(callers);
+            for (int i = 0; i < callers; i++) {
+                submitted.add(executor.submit(() -> {
+                    start.await();
+                    return loader.loadCurrenciesAsync(false, Optional.of(TestUtils.DAY_BF_YESTER), units);
+                }));
+            }
+            start.countDown();
+
+            Map<CurrencyUnit, BigDecimal> first = null;
+            for (final Future<CompletableFuture<Map<CurrencyUnit, BigDecimal>>> future : submitted) {
+                final Map<CurrencyUnit, BigDecimal> rates = future.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS);
+                if (first == null) {
+                    first = rates;
+                    assertEquals(new BigDecimal("62.4508"), rates.get(CurrencyUnit.USD));
+                } else {
+                    assertEquals("Callers got different results", first, rates);
+                }
+            }
+            assertEquals("Concurrent callers didn't share the fetch", 1, requests.get());
+        } finally {
+            executor.shutdownNow();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testCbrParse() throws Exception {
+        final byte[] body = ByteStreams.toByteArray(getClass().getResourceAsStream("/cbr_daily.xml"));
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/cbr", exchange -> {
+            exchange.sendResponseHeaders(200, body.length);
+            try (final OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+
+        try {
+            final ExchangeRatesLoader.CbrLoader loader =
+                    ExchangeRatesLoader.createCbrLoader(Schema.INSTANCE.treasury(), "http://127.0.0.1:" + server.getAddress().getPort() + "/cbr?date_req=");
+            final Map<CurrencyUnit, BigDecimal> rates = loader.loadCurrencies(false, Optional.of(TestUtils.DAY_BF_YESTER),
+                    Optional.of(ImmutableList.of(CurrencyUnit.USD, CurrencyUnit.EUR, CurrencyUnit.JPY, CurrencyUnit.of("BTC"))));
+            assertEquals(3, rates.size());
+            assertEquals(new BigDecimal("62.4508"), rates.get(CurrencyUnit.USD));
+            assertEquals(new BigDecimal("70.5265"), rates.get(CurrencyUnit.EUR));
+            assertEquals(new BigDecimal("52.4178"), rates.get(CurrencyUnit.JPY));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testConditionalRequests() throws Exception {
+        final byte[] body = ByteStreams.toByteArray(getClass().getResourceAsStream("/cbr_daily.xml"));
+        final String eTag = "\"cbr-v1\"";
+        final AtomicBoolean validators = new AtomicBoolean(false);
+        final AtomicInteger requests = new AtomicInteger(0);
+        final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/cbr", exchange -> {
+            requests.incrementAndGet();
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            if (validators.get() && eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            if (validators.get()) {
+                exchange.getResponseHeaders().add("ETag", eTag);
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (final OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+
+        final int steadyRequests = 20;
+        final Optional<List<CurrencyUnit>> units = Optional.of(ImmutableList.of(CurrencyUnit.USD, CurrencyUnit.EUR));
+        final String address = "http://127.0.0.1:" + server.getAddress().getPort() + "/cbr?date_req=";
+        try {
+            // no validators from server: every response is downloaded and parsed
+            final ExchangeRatesLoader.CbrLoader plain = ExchangeRatesLoader.createCbrLoader(Schema.INSTANCE.treasury(), address);
+            for (int i = 0; i < steadyRequests; i++) {
+                assertEquals(2, plain.loadCurrencies(false, Optional.of(TestUtils.DAY_BF_YESTER), units).size());
+            }
+            assertEquals(steadyRequests * body.length, plain.getReceivedBytes());
+            assertEquals(steadyRequests, plain.getParseCalls());
+            assertEquals("Connections weren't kept alive", 1, clientPorts.size());
+
+            validators.set(true);
+            requests.set(0);
+            final ExchangeRatesLoader.CbrLoader conditional = ExchangeRatesLoader.createCbrLoader(Schema.INSTANCE.treasury(), address);
+            conditional.setResponseCacheDirectory(folder.getRoot().toPath());
+            Map<CurrencyUnit, BigDecimal> rates = null;
+            for (int i = 0; i < steadyRequests; i++) {
+                rates = conditional.loadCurrencies(false, Optional.of(TestUtils.DAY_BF_YESTER), units);
+                assertEquals(new BigDecimal("62.4508"), rates.get(CurrencyUnit.USD));
+            }
+            assertEquals(steadyRequests, requests.get());
+            assertEquals("Not modified response was downloaded", body.length, conditional.getReceivedBytes());
+            assertEquals("Not modified response was parsed", 1, conditional.getParseCalls());
+
+            // after restart validators and body come from disk
+            final ExchangeRatesLoader.CbrLoader restarted = ExchangeRatesLoader.createCbrLoader(Schema.INSTANCE.treasury(), address);
+            restarted.setResponseCacheDirectory(folder.getRoot().toPath());
+            assertEquals(rates, restarted.loadCurrencies(false, Optional.of(TestUtils.DAY_BF_YESTER), units));
+            assertEquals("Cached response was downloaded", 0, restarted.getReceivedBytes());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testCbrHandlerSplitText() throws Exception {
+        final Map<CurrencyUnit, BigDecimal> rates = new TreeMap<>();
+        final ExchangeRatesLoader.CbrHandler handler = new ExchangeRatesLoader.CbrHandler();
+        handler.prepare(rates, new ExchangeRatesLoader.CodeSet(ImmutableList.of(CurrencyUnit.USD, CurrencyUnit.EUR)), null);
+
+        valute(handler, new String[] {"u", "sD"}, new String[] {"6", "2,45", "08"});
+        valute(handler, new String[] {"GBP"}, new String[] {"95,7604"});
+        valute(handler, new String[] {" EUR\n"}, new String[] {"70,", "5265"});
+        handler.release();
+
+        assertEquals(2, rates.size());
+        assertEquals(new BigDecimal("62.4508"), rates.get(CurrencyUnit.USD));
+        assertEquals(new BigDecimal("70.5265"), rates.get(CurrencyUnit.EUR));
+    }
+
+    @Test
+    public void testCodeSetRefill() throws Exception {
+        final ExchangeRatesLoader.CodeSet codes = new ExchangeRatesLoader.CodeSet();
+        codes.fill(ImmutableList.of(CurrencyUnit.USD, CurrencyUnit.EUR, CurrencyUnit.USD));
+        assertEquals(CurrencyUnit.USD, codes.get("usd".toCharArray(), 0, 3));
+        assertEquals(CurrencyUnit.EUR, codes.get("EUR".toCharArray(), 0, 3));
+
+        codes.fill(ImmutableList.of(CurrencyUnit.GBP, CurrencyUnit.AUD, CurrencyUnit.JPY));
+        assertNull("Previous code survived refill", codes.get("USD".toCharArray(), 0, 3));
+        assertNull("Previous code survived refill", codes.get("EUR".toCharArray(), 0, 3));
+        assertEquals(CurrencyUnit.AUD, codes.get("AUD".toCharArray(), 0, 3));
+        assertEquals(CurrencyUnit.GBP, codes.get("GBP".toCharArray(), 0, 3));
+        assertEquals(CurrencyUnit.JPY, codes.get("JPY".toCharArray(), 0, 3));
+
+        codes.clear();
+        assertNull(codes.get("GBP".toCharArray(), 0, 3));
+    }
+
+    private static void valute(ExchangeRatesLoader.CbrHandler handler, String[] codeParts, String[] valueParts) throws Exception {
+        handler.startElement("", "", "Valute", null);
+        element(handler, "CharCode", codeParts);
+        element(handler, "Nominal", new String[] {"1"});
+        element(handler, "Value", valueParts);
+        handler.endElement("", "", "Valute");
+    }
+
+    private static void element(ExchangeRatesLoader.CbrHandler handler, String name, String[] parts) throws Exception {
+        handler.startElement("", "", name, null);
+        for (final String part : parts) {
+            handler.characters(part.toCharArray(), 0, part.length());
+        }
+        handler.endElement("", "", name);
+    }
+
+}
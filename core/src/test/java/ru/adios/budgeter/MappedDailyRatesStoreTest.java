@@ -0,0 +1,91 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter;
+
+import org.joda.money.CurrencyUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.adios.budgeter.api.UtcDay;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class MappedDailyRatesStoreTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        final Path dir = folder.getRoot().toPath().resolve("rates");
+        final UtcDay farDay = MappedDailyRatesStore.BASE_DAY.add(5000); // beyond initial mapping
+
+        try (final MappedDailyRatesStore store = new MappedDailyRatesStore(dir)) {
+            assertFalse(store.get(CurrencyUnit.USD, TestUtils.YESTERDAY).isPresent());
+            assertTrue(store.putIfAbsent(CurrencyUnit.USD, TestUtils.YESTERDAY, new BigDecimal("250.5")));
+            assertTrue(store.putIfAbsent(CurrencyUnit.USD, TestUtils.YESTERDAY, new BigDecimal("1")));
+            assertTrue(store.putIfAbsent(CurrencyUnit.EUR, farDay, new BigDecimal("300")));
+            assertFalse("Day before base accepted", store.putIfAbsent(CurrencyUnit.USD, MappedDailyRatesStore.BASE_DAY.add(-1), BigDecimal.ONE));
+            assertFalse("Zero rate accepted", store.putIfAbsent(CurrencyUnit.USD, TestUtils.TODAY, BigDecimal.ZERO));
+
+            assertEquals("Rate was overwritten", new BigDecimal("250.5"), store.get(CurrencyUnit.USD, TestUtils.YESTERDAY).get());
+            assertEquals(new BigDecimal("300"), store.get(CurrencyUnit.EUR, farDay).get());
+            assertFalse(store.get(CurrencyUnit.EUR, farDay.add(1)).isPresent());
+            assertFalse(store.get(CurrencyUnit.CHF, farDay).isPresent());
+
+            assertFalse(store.isKnown(CurrencyUnit.USD, TestUtils.DAY_BF_YESTER));
+            assertTrue(store.markAbsent(CurrencyUnit.USD, TestUtils.DAY_BF_YESTER));
+            assertTrue(store.isKnown(CurrencyUnit.USD, TestUtils.DAY_BF_YESTER));
+            assertFalse(store.get(CurrencyUnit.USD, TestUtils.DAY_BF_YESTER).isPresent());
+            assertTrue(store.markAbsent(CurrencyUnit.USD, TestUtils.YESTERDAY));
+            assertEquals("Rate was marked absent", new BigDecimal("250.5"), store.get(CurrencyUnit.USD, TestUtils.YESTERDAY).get());
+            assertTrue(store.putIfAbsent(CurrencyUnit.USD, TestUtils.DAY_BF_YESTER, new BigDecimal("240")));
+            assertEquals("Absence mark wasn't replaced", new BigDecimal("240"), store.get(CurrencyUnit.USD, TestUtils.DAY_BF_YESTER).get());
+            assertTrue(store.markAbsent(CurrencyUnit.EUR, TestUtils.YESTERDAY));
+        }
+
+        try (final MappedDailyRatesStore store = new MappedDailyRatesStore(dir)) {
+            assertEquals("Not persisted", new BigDecimal("250.5"), store.get(CurrencyUnit.USD, TestUtils.YESTERDAY).get());
+            assertEquals("Not persisted", new BigDecimal("300"), store.get(CurrencyUnit.EUR, farDay).get());
+            assertTrue("Absence mark not persisted", store.isKnown(CurrencyUnit.EUR, TestUtils.YESTERDAY));
+        }
+    }
+
+    @Test
+    public void testScaling() throws Exception {
+        assertEquals(new BigDecimal("0.00000001"), MappedDailyRatesStore.fromScaled(MappedDailyRatesStore.toScaled(new BigDecimal("0.000000005"))));
+        assertEquals(new BigDecimal("1000"), MappedDailyRatesStore.fromScaled(MappedDailyRatesStore.toScaled(new BigDecimal("1000.000"))));
+        assertEquals(new BigDecimal("12.345"), MappedDailyRatesStore.fromScaled(MappedDailyRatesStore.toScaled(new BigDecimal("12.345"))));
+    }
+
+    @Test
+    public void testUnfitRates() throws Exception {
+        try (final MappedDailyRatesStore store = new MappedDailyRatesStore(folder.getRoot().toPath())) {
+            assertFalse("Overflowing rate accepted", store.putIfAbsent(CurrencyUnit.USD, TestUtils.YESTERDAY, new BigDecimal("100000000000000000000")));
+            assertFalse("Vanishing rate accepted", store.putIfAbsent(CurrencyUnit.USD, TestUtils.YESTERDAY, new BigDecimal("0.000000001")));
+            assertFalse(store.isKnown(CurrencyUnit.USD, TestUtils.YESTERDAY));
+            assertTrue(store.putIfAbsent(CurrencyUnit.USD, TestUtils.YESTERDAY, new BigDecimal("90000000000")));
+            assertEquals(new BigDecimal("90000000000"), store.get(CurrencyUnit.USD, TestUtils.YESTERDAY).get());
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
+import org.joda.money.CurrencyUnit;
+import org.junit.Test;
+import ru.adios.budgeter.api.Bundle;
+import ru.adios.budgeter.api.Units;
+import ru.adios.budgeter.api.UtcDay;
+import ru.adios.budgeter.inmemrepo.Schema;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RatesPrewarmSchedulerTest {
+
+    @Test
+    public void testPrewarm() throws Exception {
+        final byte[] body = ByteStreams.toByteArray(getClass().getResourceAsStream("/cbr_daily.xml"));
+        final AtomicInteger requests = new AtomicInteger(0);
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/cbr", exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(200, body.length);
+            try (final OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final Bundle bundle = Schema.INSTANCE;
+            bundle.clearSchema();
+            TestUtils.prepareBalance(bundle, Units.RUB);
+            TestUtils.prepareBalance(bundle, CurrencyUnit.USD);
+            TestUtils.prepareBalance(bundle, CurrencyUnit.EUR);
+            TestUtils.prepareBalance(bundle, Units.BTC);
+
+            final CurrenciesExchangeService service = new CurrenciesExchangeService(
+                    bundle.getTransactionalSupport(),
+                    bundle.currencyRates(),
+                    bundle.accounter(),
+                    bundle.treasury(),
+                    ExchangeRatesLoader.createBtcLoader(bundle.treasury()),
+                    ExchangeRatesLoader.createCbrLoader(bundle.treasury(), "http://127.0.0.1:" + server.getAddress().getPort() + "/cbr?date_req=")
+            );
+            service.executeInSameThread();
+
+            final RatesPrewarmScheduler scheduler = new RatesPrewarmScheduler(service, bundle.treasury());
+            scheduler.setExecutor(executor);
+            scheduler.setRetryPeriod(Duration.ofMinutes(1));
+            assertTrue(service.isRateStale(CurrencyUnit.USD));
+
+            scheduler.start();
+            final long deadline = System.currentTimeMillis() + 10000;
+            while ((service.isRateStale(CurrencyUnit.USD) || service.isRateStale(CurrencyUnit.EUR)) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            scheduler.stop();
+            assertFalse("USD wasn't prewarmed", service.isRateStale(CurrencyUnit.USD));
+            assertFalse("EUR wasn't prewarmed", service.isRateStale(CurrencyUnit.EUR));
+            assertEquals(1, requests.get());
+            assertFalse(scheduler.isStarted());
+
+            assertTrue("Rates are fresh, but something is still stale", scheduler.prewarm().isEmpty());
+            assertEquals("Fresh rates were fetched again", 1, requests.get());
+        } finally {
+            executor.shutdownNow();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testRestartDuringRun() throws Exception {
+        final byte[] body = ByteStreams.toByteArray(getClass().getResourceAsStream("/cbr_daily.xml"));
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(2));
+        server.createContext("/cbr", exchange -> {
+            entered.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (final OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2);
+        executor.setRemoveOnCancelPolicy(true);
+        try {
+            final Bundle bundle = Schema.INSTANCE;
+            bundle.clearSchema();
+            TestUtils.prepareBalance(bundle, Units.RUB);
+            TestUtils.prepareBalance(bundle, CurrencyUnit.USD);
+
+            final CurrenciesExchangeService service = new CurrenciesExchangeService(
+                    bundle.getTransactionalSupport(),
+                    bundle.currencyRates(),
+                    bundle.accounter(),
+                    bundle.treasury(),
+                    ExchangeRatesLoader.createBtcLoader(bundle.treasury()),
+                    ExchangeRatesLoader.createCbrLoader(bundle.treasury(), "http://127.0.0.1:" + server.getAddress().getPort() + "/cbr?date_req=")
+            );
+            service.executeInSameThread();
+
+            final RatesPrewarmScheduler scheduler = new RatesPrewarmScheduler(service, bundle.treasury());
+            scheduler.setExecutor(executor);
+            scheduler.setRetryPeriod(Duration.ofMinutes(1));
+            // next publication is far away, so no follow-up run fires during the test
+            final Duration sinceMidnight = Duration.between(new UtcDay().inner, OffsetDateTime.now(ZoneOffset.UTC));
+            scheduler.setPublicationDelay(sinceMidnight.compareTo(Duration.ofHours(1)) >= 0 ? sinceMidnight.minusHours(1) : sinceMidnight.plusHours(23));
+
+            scheduler.start();
+            assertTrue("First run didn't start", entered.await(10, TimeUnit.SECONDS));
+            scheduler.stop();
+            scheduler.start();
+            release.countDown();
+
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (executor.getCompletedTaskCount() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals("Both runs must be over", 2, executor.getCompletedTaskCount());
+            assertFalse("USD wasn't prewarmed", service.isRateStale(CurrencyUnit.USD));
+            assertEquals("Run of the stopped start rescheduled itself", 1, executor.getQueue().size());
+
+            scheduler.stop();
+            assertTrue(executor.getQueue().isEmpty());
+        } finally {
+            executor.shutdownNow();
+            server.stop(0);
+        }
+    }
+
+}
@@ -25,6 +25,8 @@ import ru.adios.budgeter.api.UtcDay;
 import ru.adios.budgeter.api.data.CurrencyExchangeEvent;
 
 import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
@@ -69,6 +71,17 @@ public final class CurrencyExchangeEventPseudoTable extends AbstractPseudoTable<
         checkState(table.putIfAbsent(id, new Stored<>(id, exchangeEvent)) == null);
     }
 
+    @Override
+    public void registerAll(Collection<CurrencyExchangeEvent> exchangeEvents) {
+        int id = idSequence.getAndAdd(exchangeEvents.size());
+        final HashMap<Integer, Stored<CurrencyExchangeEvent>> events = new HashMap<>(exchangeEvents.size() * 2);
+        for (final CurrencyExchangeEvent exchangeEvent : exchangeEvents) {
+            id++;
+            events.put(id, new Stored<>(id, exchangeEvent));
+        }
+        table.putAll(events);
+    }
+
     @Override
     public int countExchangeEvents() {
         return table.size();
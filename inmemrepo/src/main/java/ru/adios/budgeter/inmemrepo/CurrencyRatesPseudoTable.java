@@ -18,14 +18,21 @@
 
 package ru.adios.budgeter.inmemrepo;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import org.joda.money.CurrencyUnit;
 import ru.adios.budgeter.api.CurrencyRatesRepository;
 import ru.adios.budgeter.api.UtcDay;
+import ru.adios.budgeter.api.data.ConversionPair;
 import ru.adios.budgeter.api.data.ConversionRate;
 
 import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -43,7 +50,10 @@ public final class CurrencyRatesPseudoTable extends AbstractPseudoTable<StoredCu
     final AtomicInteger idSequence = new AtomicInteger(0);
 
     private final ConcurrentHashMap<Integer, StoredCurrencyRate> table = new ConcurrentHashMap<>(100, 0.75f, 4);
-    private final ConcurrentHashMap<UtcDay, ImmutableSet<Integer>> dayIndex = new ConcurrentHashMap<>(100, 0.75f, 4);
+    private final ConcurrentHashMap<UtcDay, DayIndex> dayIndex = new ConcurrentHashMap<>(100, 0.75f, 4);
+    private final ConcurrentHashMap<CurrencyUnit, Integer> currencyOrdinals = new ConcurrentHashMap<>(50, 0.75f, 4);
+    private final AtomicInteger ordinalSequence = new AtomicInteger(0);
+    private final ConcurrentHashMap<Long, StoredCurrencyRate> latestIndex = new ConcurrentHashMap<>(100, 0.75f, 4); // by packed pair
 
     private CurrencyRatesPseudoTable() {}
 
@@ -63,64 +73,105 @@ public final class CurrencyRatesPseudoTable extends AbstractPseudoTable<StoredCu
 
     @Override
     public boolean addRate(final UtcDay dayUtc, final CurrencyUnit from, final CurrencyUnit to, final BigDecimal rate) {
-        final Object[] mutableFlag = new Object[] {this};
-        PseudoTable.nonUniqueIndexedInsert(
-                table,
-                dayIndex,
-                idSequence.incrementAndGet(),
-                id -> new StoredCurrencyRate(id, dayUtc, from, to, rate),
-                Optional.of(dayUtc),
-                Optional.of(scr -> { if (scr.first.equals(from) && scr.second.equals(to)) mutableFlag[0] = null; })
-        );
-        return mutableFlag[0] != null;
+        final long pair = packPair(from, to);
+        final int fromOrdinal = currencyOrdinals.computeIfAbsent(from, unit -> ordinalSequence.getAndIncrement());
+        final int toOrdinal = currencyOrdinals.computeIfAbsent(to, unit -> ordinalSequence.getAndIncrement());
+        final StoredCurrencyRate[] inserted = new StoredCurrencyRate[1];
+        try {
+            dayIndex.compute(dayUtc, (day, stale) -> {
+                if (stale != null && stale.find(pair) >= 0) {
+                    // same semantics as unique index in database: insertion is aborted
+                    throw DuplicateRateException.INSTANCE;
+                }
+                final int id = idSequence.incrementAndGet();
+                final StoredCurrencyRate row = new StoredCurrencyRate(id, dayUtc, from, to, rate);
+                table.put(id, row);
+                inserted[0] = row;
+                return (stale != null ? stale : DayIndex.EMPTY).with(id, pair, rate, fromOrdinal, toOrdinal);
+            });
+        } catch (DuplicateRateException ignore) {
+            return false;
+        }
+        latestIndex.merge(pair, inserted[0], (old, fresh) -> fresh.obj.compareTo(old.obj) > 0 ? fresh : old);
+        return true;
     }
 
     @Override
     public Optional<BigDecimal> getConversionMultiplierStraight(UtcDay day, CurrencyUnit from, CurrencyUnit to) {
-        final ImmutableSet<Integer> indexed = dayIndex.get(day);
+        final DayIndex indexed = dayIndex.get(day);
         if (indexed == null)
             return Optional.empty();
-        return indexed.stream()
-                .map(table::get)
-                .filter(rate -> rate.first.equals(from) && rate.second.equals(to))
-                .map(rate -> rate.rate)
-                .findFirst();
+        final int slot = indexed.find(packPair(from, to));
+        return slot >= 0
+                ? Optional.of(indexed.slotRates[slot])
+                : Optional.empty();
+    }
+
+    @Override
+    public ImmutableMap<ConversionPair, BigDecimal> getConversionMultipliersStraight(UtcDay day, Collection<ConversionPair> pairs) {
+        final DayIndex indexed = dayIndex.get(day);
+        if (indexed == null || pairs.isEmpty())
+            return ImmutableMap.of();
+
+        final HashMap<ConversionPair, BigDecimal> found = new HashMap<>(pairs.size() * 2);
+        for (final ConversionPair pair : pairs) {
+            final int slot = indexed.find(packPair(pair.from, pair.to));
+            if (slot >= 0) {
+                found.put(pair, indexed.slotRates[slot]);
+            }
+        }
+        return ImmutableMap.copyOf(found);
     }
 
     @Override
     public Optional<BigDecimal> getLatestOptionalConversionMultiplier(CurrencyUnit from, CurrencyUnit to) {
-        return dayIndex.entrySet().stream()
-                .sorted((entry1, entry2) -> entry2.getKey().compareTo(entry1.getKey()))
-                .map(entry -> {
-                    for (final Integer id : entry.getValue()) {
-                        StoredCurrencyRate rate = table.get(id);
-                        if (rate.first.equals(from) && rate.second.equals(to)) {
-                            return Optional.of(rate.rate);
-                        }
-                    }
-                    return Optional.<BigDecimal>empty();
-                })
-                .filter(Optional::isPresent)
-                .findFirst()
-                .orElse(Optional.<BigDecimal>empty());
+        final StoredCurrencyRate latest = latestIndex.get(packPair(from, to));
+        return latest != null
+                ? Optional.of(latest.rate)
+                : Optional.empty();
+    }
+
+    /**
+     * Currency codes are three ASCII letters, so a code fits in three bytes and a pair in a long without collisions.
+     */
+    private static long packPair(CurrencyUnit from, CurrencyUnit to) {
+        return ((long) packCode(from.getCode()) << 32) | packCode(to.getCode());
+    }
+
+    private static int packCode(String code) {
+        int packed = 0;
+        for (int i = 0; i < code.length(); i++) {
+            packed = (packed << 8) | (code.charAt(i) & 0xFF);
+        }
+        return packed;
     }
 
     @Override
     public boolean isRateStale(CurrencyUnit to) {
-        return !dayIndex.get(new UtcDay()).stream().anyMatch(id -> {
-            final StoredCurrencyRate rate = table.get(id);
-            return rate.first.equals(to) || rate.second.equals(to);
-        });
+        final DayIndex todayIndex = dayIndex.get(new UtcDay());
+        final Integer ordinal = currencyOrdinals.get(to);
+        return todayIndex == null || ordinal == null || !todayIndex.hasCurrency(ordinal);
     }
 
     @Override
     public ImmutableSet<Long> getIndexedForDay(UtcDay day) {
-        final ImmutableSet<Integer> integers = dayIndex.get(day);
-        final ImmutableSet.Builder<Long> longsBuilder = ImmutableSet.builder();
-        for (final Integer i : integers) {
-            longsBuilder.add(i.longValue());
+        final DayIndex indexed = dayIndex.get(day);
+        return indexed != null
+                ? indexed.idsSet()
+                : ImmutableSet.of();
+    }
+
+    @Override
+    public ImmutableList<ConversionRate> getRatesForDay(UtcDay day) {
+        final DayIndex indexed = dayIndex.get(day);
+        if (indexed == null)
+            return ImmutableList.of();
+
+        final ImmutableList.Builder<ConversionRate> builder = ImmutableList.builder();
+        for (final int id : indexed.ids) {
+            builder.add(table.get(id).createConversionRate());
         }
-        return longsBuilder.build();
+        return builder.build();
     }
 
     @Nonnull
@@ -129,14 +180,117 @@ public final class CurrencyRatesPseudoTable extends AbstractPseudoTable<StoredCu
         return table;
     }
 
-    ConcurrentHashMap<UtcDay, ImmutableSet<Integer>> getDayIndex() {
-        return dayIndex;
-    }
-
     @Override
     public void clear() {
         table.clear();
         dayIndex.clear();
+        latestIndex.clear();
+    }
+
+
+    /**
+     * Immutable index of a day's rates, replaced as a whole on insertion (days hold tens of rates, so copying is cheap):
+     * open addressing table from packed pair to rate and id, plus a bitset of currencies by ordinal.
+     */
+    @Immutable
+    private static final class DayIndex {
+
+        private static final DayIndex EMPTY = new DayIndex(new int[0], new long[0], new BigDecimal[0], new long[0]);
+
+        private final int[] ids; // in insertion order
+        private final long[] pairs; // parallel to ids
+        private final BigDecimal[] rates; // parallel to ids
+        private final long[] currencies;
+        private final long[] slotPairs;
+        private final int[] slotIds; // 0 marks an empty slot, ids start from 1
+        private final BigDecimal[] slotRates;
+        private volatile ImmutableSet<Long> idsSet;
+
+        private DayIndex(int[] ids, long[] pairs, BigDecimal[] rates, long[] currencies) {
+            this.ids = ids;
+            this.pairs = pairs;
+            this.rates = rates;
+            this.currencies = currencies;
+
+            final int capacity = Integer.highestOneBit(Math.max(ids.length, 4) * 2 - 1) << 1; // load factor below 0.5
+            slotPairs = new long[capacity];
+            slotIds = new int[capacity];
+            slotRates = new BigDecimal[capacity];
+            final int mask = capacity - 1;
+            for (int i = 0; i < ids.length; i++) {
+                int slot = hash(pairs[i]) & mask;
+                while (slotIds[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slotPairs[slot] = pairs[i];
+                slotIds[slot] = ids[i];
+                slotRates[slot] = rates[i];
+            }
+        }
+
+        private DayIndex with(int id, long pair, BigDecimal rate, int fromOrdinal, int toOrdinal) {
+            final int length = ids.length;
+            final int[] newIds = Arrays.copyOf(ids, length + 1);
+            final long[] newPairs = Arrays.copyOf(pairs, length + 1);
+            final BigDecimal[] newRates = Arrays.copyOf(rates, length + 1);
+            newIds[length] = id;
+            newPairs[length] = pair;
+            newRates[length] = rate;
+
+            final long[] newCurrencies = Arrays.copyOf(currencies, Math.max(currencies.length, (Math.max(fromOrdinal, toOrdinal) >>> 6) + 1));
+            newCurrencies[fromOrdinal >>> 6] |= 1L << fromOrdinal;
+            newCurrencies[toOrdinal >>> 6] |= 1L << toOrdinal;
+
+            return new DayIndex(newIds, newPairs, newRates, newCurrencies);
+        }
+
+        /**
+         * @return slot of the pair or -1
+         */
+        private int find(long pair) {
+            final int mask = slotIds.length - 1;
+            int slot = hash(pair) & mask;
+            while (slotIds[slot] != 0) {
+                if (slotPairs[slot] == pair) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private boolean hasCurrency(int ordinal) {
+            final int word = ordinal >>> 6;
+            return word < currencies.length && (currencies[word] & (1L << ordinal)) != 0;
+        }
+
+        private ImmutableSet<Long> idsSet() {
+            ImmutableSet<Long> set = idsSet;
+            if (set == null) {
+                final ImmutableSet.Builder<Long> builder = ImmutableSet.builder();
+                for (final int id : ids) {
+                    builder.add((long) id);
+                }
+                idsSet = set = builder.build(); // benign race, result is the same
+            }
+            return set;
+        }
+
+        private static int hash(long pair) {
+            final int h = (int) (pair ^ (pair >>> 32));
+            return h * 0x9E3779B9;
+        }
+
+    }
+
+    private static final class DuplicateRateException extends RuntimeException {
+
+        private static final DuplicateRateException INSTANCE = new DuplicateRateException();
+
+        private DuplicateRateException() {
+            super(null, null, false, false);
+        }
+
     }
 
 }
@@ -29,6 +29,8 @@ import ru.adios.budgeter.api.data.FundsMutationSubject;
 
 import javax.annotation.Nonnull;
 import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -79,6 +81,24 @@ public final class FundsMutationEventPseudoTable extends AbstractPseudoTable<Sto
         checkState(table.putIfAbsent(event.id, event) == null);
     }
 
+    @Override
+    public void registerAll(Collection<FundsMutationEvent> mutationEvents) {
+        for (final FundsMutationEvent mutationEvent : mutationEvents) {
+            Schema.FUNDS_MUTATION_SUBJECTS.findByName(mutationEvent.subject.name).orElseThrow(() -> new IllegalStateException("No subject with name " + mutationEvent.subject.name));
+        }
+        int id = idSequence.getAndAdd(mutationEvents.size());
+        final HashMap<Integer, StoredFundsMutationEvent> events = new HashMap<>(mutationEvents.size() * 2);
+        for (final FundsMutationEvent mutationEvent : mutationEvents) {
+            final StoredFundsMutationEvent event = new StoredFundsMutationEvent(
+                    ++id,
+                    mutationEvent,
+                    mutationEvent.amount.isPositive() ? FundsMutationDirection.BENEFIT : FundsMutationDirection.LOSS
+            );
+            events.put(event.id, event);
+        }
+        table.putAll(events);
+    }
+
     @Override
     public int countMutationEvents() {
         return table.size();
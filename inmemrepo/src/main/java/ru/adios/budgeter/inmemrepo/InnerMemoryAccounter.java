@@ -72,16 +72,10 @@ public final class InnerMemoryAccounter implements Accounter {
     @Override
     public Stream<PostponingReasons> streamAllPostponingReasons(boolean compatMode) {
         final HashMap<UtcDay, HashSet<CurrencyUnit>> accumulator = new HashMap<>(100);
-        Schema.POSTPONED_CURRENCY_EXCHANGE_EVENTS.streamAll().forEach(postponedExchange -> {
-            final HashSet<CurrencyUnit> units = getUnitsAcc(accumulator, new UtcDay(postponedExchange.timestamp));
-            units.add(postponedExchange.toBuyAccount.getUnit());
-            units.add(postponedExchange.sellAccount.getUnit());
-        });
-        Schema.POSTPONED_FUNDS_MUTATION_EVENTS.streamAll().forEach(postponedMutationEvent -> {
-            final HashSet<CurrencyUnit> units = getUnitsAcc(accumulator, new UtcDay(postponedMutationEvent.mutationEvent.timestamp));
-            units.add(postponedMutationEvent.mutationEvent.amount.getCurrencyUnit());
-            units.add(postponedMutationEvent.conversionUnit);
-        });
+        Schema.POSTPONED_CURRENCY_EXCHANGE_EVENTS.postponingReasons()
+                .forEach((day, units) -> getUnitsAcc(accumulator, day).addAll(units.elementSet()));
+        Schema.POSTPONED_FUNDS_MUTATION_EVENTS.postponingReasons()
+                .forEach((day, units) -> getUnitsAcc(accumulator, day).addAll(units.elementSet()));
         return accumulator
                 .entrySet()
                 .stream()
@@ -18,6 +18,8 @@
 
 package ru.adios.budgeter.inmemrepo;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
 import org.joda.money.CurrencyUnit;
 import ru.adios.budgeter.api.PostponedCurrencyExchangeEventRepository;
 import ru.adios.budgeter.api.UtcDay;
@@ -28,6 +30,8 @@ import ru.adios.budgeter.api.data.PostponedExchange;
 import javax.annotation.Nonnull;
 import java.math.BigDecimal;
 import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Optional;
 import java.util.OptionalLong;
 import java.util.concurrent.ConcurrentHashMap;
@@ -53,6 +57,7 @@ public final class PostponedCurrencyExchangeEventPseudoTable
     final AtomicInteger idSequence = new AtomicInteger(0);
 
     private final ConcurrentHashMap<Integer, Stored<PostponedExchange>> table = new ConcurrentHashMap<>(100, 0.75f, 4);
+    private final PostponingReasonsIndex reasons = new PostponingReasonsIndex();
 
     private PostponedCurrencyExchangeEventPseudoTable() {}
 
@@ -79,12 +84,25 @@ public final class PostponedCurrencyExchangeEventPseudoTable
                                           FundsMutationAgent agent)
     {
         final int id = idSequence.incrementAndGet();
+        reasons.add(new UtcDay(timestamp), toBuyAccount.getUnit(), sellAccount.getUnit()); // before the event becomes visible to processing
         checkState(
                 table.computeIfAbsent(id, integer -> new Stored<>(id, new PostponedExchange(OptionalLong.of(id), toBuy, toBuyAccount, sellAccount, customRate, timestamp, agent, true)))
                         .id == id
         );
     }
 
+    @Override
+    public void registerAll(Collection<PostponedExchange> exchanges) {
+        int id = idSequence.getAndAdd(exchanges.size());
+        final HashMap<Integer, Stored<PostponedExchange>> stored = new HashMap<>(exchanges.size() * 2);
+        for (final PostponedExchange e : exchanges) {
+            id++;
+            reasons.add(new UtcDay(e.timestamp), e.toBuyAccount.getUnit(), e.sellAccount.getUnit());
+            stored.put(id, new Stored<>(id, new PostponedExchange(OptionalLong.of(id), e.toBuy, e.toBuyAccount, e.sellAccount, e.customRate, e.timestamp, e.agent, true)));
+        }
+        table.putAll(stored);
+    }
+
     @Override
     public Stream<PostponedExchange> streamRememberedExchanges(UtcDay day, CurrencyUnit oneOf, CurrencyUnit secondOf) {
         return table.values().stream().filter(event -> {
@@ -105,7 +123,7 @@ public final class PostponedCurrencyExchangeEventPseudoTable
         final int key = (int) exchange.id.getAsLong();
         final Stored<PostponedExchange> stored = table.get(key);
         final PostponedExchange old = stored.obj;
-        return table.replace(
+        final boolean replaced = table.replace(
                 key,
                 stored,
                 new Stored<>(
@@ -113,16 +131,30 @@ public final class PostponedCurrencyExchangeEventPseudoTable
                         new PostponedExchange(OptionalLong.of(key), old.toBuy, old.toBuyAccount, old.sellAccount, old.customRate, old.timestamp, old.agent, false)
                 )
         );
+        if (replaced && old.relevant) {
+            reasons.remove(new UtcDay(old.timestamp), old.toBuyAccount.getUnit(), old.sellAccount.getUnit());
+        }
+        return replaced;
     }
 
     Stream<PostponedExchange> streamAll() {
         return table.values().stream().map(storedPostponedExchangeEvent -> storedPostponedExchangeEvent.obj);
     }
 
+    ImmutableMap<UtcDay, ImmutableMultiset<CurrencyUnit>> postponingReasons() {
+        return reasons.snapshot();
+    }
+
     @Nonnull
     @Override
     ConcurrentHashMap<Integer, Stored<PostponedExchange>> innerTable() {
         return table;
     }
 
+    @Override
+    public void clear() {
+        table.clear();
+        reasons.clear();
+    }
+
 }
@@ -19,6 +19,8 @@
 package ru.adios.budgeter.inmemrepo;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
 import org.joda.money.CurrencyUnit;
 import ru.adios.budgeter.api.PostponedFundsMutationEventRepository;
 import ru.adios.budgeter.api.UtcDay;
@@ -28,6 +30,8 @@ import ru.adios.budgeter.api.data.PostponedMutationEvent;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -51,6 +55,7 @@ public final class PostponedFundsMutationEventPseudoTable
     final AtomicInteger idSequence = new AtomicInteger(0);
 
     private final ConcurrentHashMap<Integer, StoredPostponedFundsMutationEvent> table = new ConcurrentHashMap<>(100, 0.75f, 4);
+    private final PostponingReasonsIndex reasons = new PostponingReasonsIndex();
 
     private PostponedFundsMutationEventPseudoTable() {}
 
@@ -78,9 +83,29 @@ public final class PostponedFundsMutationEventPseudoTable
                 customRate,
                 true
         );
+        reasons.add(new UtcDay(mutationEvent.timestamp), mutationEvent.amount.getCurrencyUnit(), paidUnit); // before the event becomes visible to processing
         checkState(table.putIfAbsent(event.id, event) == null);
     }
 
+    @Override
+    public void registerAll(Collection<PostponedMutationEvent> events) {
+        int id = idSequence.getAndAdd(events.size());
+        final HashMap<Integer, StoredPostponedFundsMutationEvent> stored = new HashMap<>(events.size() * 2);
+        for (final PostponedMutationEvent e : events) {
+            final StoredPostponedFundsMutationEvent event = new StoredPostponedFundsMutationEvent(
+                    ++id,
+                    e.mutationEvent,
+                    e.mutationEvent.amount.isPositive() ? FundsMutationDirection.BENEFIT : FundsMutationDirection.LOSS,
+                    e.conversionUnit,
+                    e.customRate,
+                    true
+            );
+            reasons.add(new UtcDay(e.mutationEvent.timestamp), e.mutationEvent.amount.getCurrencyUnit(), e.conversionUnit);
+            stored.put(event.id, event);
+        }
+        table.putAll(stored);
+    }
+
     @Override
     public Stream<PostponedMutationEvent> streamRememberedBenefits(UtcDay day, CurrencyUnit oneOf, CurrencyUnit secondOf) {
         return streamRemembered(day, oneOf, secondOf, FundsMutationDirection.BENEFIT);
@@ -102,7 +127,7 @@ public final class PostponedFundsMutationEventPseudoTable
         final int key = (int) mutationEvent.id.getAsLong();
         final StoredPostponedFundsMutationEvent stored = table.get(key);
         final PostponedMutationEvent old = stored.obj;
-        return table.replace(
+        final boolean replaced = table.replace(
                 key,
                 stored,
                 new StoredPostponedFundsMutationEvent(
@@ -114,12 +139,20 @@ public final class PostponedFundsMutationEventPseudoTable
                         false
                 )
         );
+        if (replaced && old.relevant) {
+            reasons.remove(new UtcDay(old.mutationEvent.timestamp), old.mutationEvent.amount.getCurrencyUnit(), old.conversionUnit);
+        }
+        return replaced;
     }
 
     Stream<PostponedMutationEvent> streamAll() {
         return table.values().stream().map(storedPostponedFundsMutationEvent -> storedPostponedFundsMutationEvent.obj);
     }
 
+    ImmutableMap<UtcDay, ImmutableMultiset<CurrencyUnit>> postponingReasons() {
+        return reasons.snapshot();
+    }
+
     @Nonnull
     @Override
     ConcurrentHashMap<Integer, StoredPostponedFundsMutationEvent> innerTable() {
@@ -129,6 +162,7 @@ public final class PostponedFundsMutationEventPseudoTable
     @Override
     public void clear() {
         table.clear();
+        reasons.clear();
     }
 
     private Stream<PostponedMutationEvent> streamRemembered(UtcDay day, CurrencyUnit oneOf, CurrencyUnit secondOf, @Nullable FundsMutationDirection direction) {
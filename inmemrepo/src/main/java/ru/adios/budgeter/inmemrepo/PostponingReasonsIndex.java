@@ -0,0 +1,66 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter.inmemrepo;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
+import org.joda.money.CurrencyUnit;
+import ru.adios.budgeter.api.UtcDay;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Live index of currencies of relevant postponed events by day, kept by a postponed events pseudo table.
+ * Every event counts both its currencies, so a day disappears when the last of its events is processed.
+ */
+@ThreadSafe
+final class PostponingReasonsIndex {
+
+    private final ConcurrentHashMap<UtcDay, ImmutableMultiset<CurrencyUnit>> days = new ConcurrentHashMap<>(100, 0.75f, 4);
+
+    void add(UtcDay day, CurrencyUnit one, CurrencyUnit other) {
+        days.compute(day, (d, units) -> {
+            final ImmutableMultiset.Builder<CurrencyUnit> builder = ImmutableMultiset.builder();
+            if (units != null) {
+                builder.addAll(units);
+            }
+            return builder.add(one, other).build();
+        });
+    }
+
+    void remove(UtcDay day, CurrencyUnit one, CurrencyUnit other) {
+        days.computeIfPresent(day, (d, units) -> {
+            final HashMultiset<CurrencyUnit> rest = HashMultiset.create(units);
+            rest.remove(one);
+            rest.remove(other);
+            return rest.isEmpty() ? null : ImmutableMultiset.copyOf(rest);
+        });
+    }
+
+    ImmutableMap<UtcDay, ImmutableMultiset<CurrencyUnit>> snapshot() {
+        return ImmutableMap.copyOf(days);
+    }
+
+    void clear() {
+        days.clear();
+    }
+
+}
@@ -27,6 +27,7 @@ import ru.adios.budgeter.api.data.FundsMutationSubject;
 import ru.adios.budgeter.api.data.SubjectPrice;
 
 import javax.annotation.Nonnull;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
@@ -56,18 +57,33 @@ public class SubjectPricePseudoTable extends AbstractPseudoTable<Stored<SubjectP
 
     @Override
     public void register(SubjectPrice subjectPrice) {
+        checkReferences(subjectPrice);
+        insert(idSequence.incrementAndGet(), subjectPrice);
+    }
+
+    @Override
+    public void registerAll(Collection<SubjectPrice> subjectPrices) {
+        for (final SubjectPrice subjectPrice : subjectPrices) {
+            checkReferences(subjectPrice);
+        }
+        int id = idSequence.getAndAdd(subjectPrices.size());
+        for (final SubjectPrice subjectPrice : subjectPrices) {
+            insert(++id, subjectPrice);
+        }
+    }
+
+    private static void checkReferences(SubjectPrice subjectPrice) {
         checkArgument(subjectPrice != null, "subjectPrice is null");
-        final int id = idSequence.incrementAndGet();
+        Schema.FUNDS_MUTATION_SUBJECTS.findByName(subjectPrice.subject.name)
+                .orElseThrow(() -> new IllegalStateException("No subject with name " + subjectPrice.subject.name));
+        Schema.FUNDS_MUTATION_AGENTS.findByName(subjectPrice.agent.name)
+                .orElseThrow(() -> new IllegalStateException("No agent with name " + subjectPrice.agent.name));
+    }
 
+    private void insert(int id, SubjectPrice subjectPrice) {
         final CompositeKey key = new CompositeKey(subjectPrice);
         checkState(uniqueConstraint.computeIfAbsent(key, compositeKey -> {
-            Stored<SubjectPrice> stored = new Stored<>(id, subjectPrice);
-            Schema.FUNDS_MUTATION_SUBJECTS.findByName(stored.obj.subject.name)
-                    .orElseThrow(() -> new IllegalStateException("No subject with name " + stored.obj.subject.name));
-            Schema.FUNDS_MUTATION_AGENTS.findByName(stored.obj.agent.name)
-                    .orElseThrow(() -> new IllegalStateException("No agent with name " + stored.obj.agent.name));
-
-            checkState(table.putIfAbsent(id, stored) == null, "Id %s already present", id);
+            checkState(table.putIfAbsent(id, new Stored<>(id, subjectPrice)) == null, "Id %s already present", id);
             return id;
         }).equals(id), "Non unique insert of %s on place of id %s", subjectPrice, table.get(uniqueConstraint.get(key)));
     }
@@ -57,4 +57,9 @@ public class CurrencyExchangeEventPseudoTableTest {
         tester.testStreamForDay();
     }
 
+    @Test
+    public void testRegisterAll() throws Exception {
+        tester.testRegisterAll();
+    }
+
 }
@@ -18,8 +18,19 @@
 
 package ru.adios.budgeter.inmemrepo;
 
+import com.google.common.collect.ImmutableSet;
+import org.joda.money.CurrencyUnit;
 import org.junit.Test;
+import ru.adios.budgeter.api.Bundle;
 import ru.adios.budgeter.api.CurrencyRatesTester;
+import ru.adios.budgeter.api.UtcDay;
+import ru.adios.budgeter.api.Units;
+
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
 
 /**
  * Date: 6/15/15
@@ -36,11 +47,26 @@ public class CurrencyRatesPseudoTableTest {
         tester.testAddRate(1000);
     }
 
+    @Test
+    public void testAddRates() throws Exception {
+        tester.testAddRates();
+    }
+
     @Test
     public void testGetConversionMultiplier() throws Exception {
         tester.testGetConversionMultiplier();
     }
 
+    @Test
+    public void testGetConversionMultipliers() throws Exception {
+        tester.testGetConversionMultipliers();
+    }
+
+    @Test
+    public void testGetConversionMultipliersStraightMany() throws Exception {
+        tester.testGetConversionMultipliersStraightMany();
+    }
+
     @Test
     public void testGetLatestOptionalConversionMultiplier() throws Exception {
         tester.testGetLatestOptionalConversionMultiplier();
@@ -61,4 +87,103 @@ public class CurrencyRatesPseudoTableTest {
         tester.testStreamConversionPairs();
     }
 
+    @Test
+    public void testStraightLookup() throws Exception {
+        Schema.INSTANCE.clear(Bundle.Repo.CURRENCY_RATES);
+        final CurrencyRatesPseudoTable table = CurrencyRatesPseudoTable.INSTANCE;
+        final UtcDay today = new UtcDay();
+        final UtcDay yesterday = today.add(-1);
+
+        // enough pairs for the day's open addressing table to be rebuilt a few times
+        final List<CurrencyUnit> units = CurrencyRatesTester.REG_UNITS;
+        for (int i = 0; i < 40; i++) {
+            final CurrencyUnit unit = units.get(i);
+            if (!unit.equals(Units.RUB)) {
+                assertTrue(table.addRate(today, Units.RUB, unit, BigDecimal.valueOf(i + 1)));
+            }
+        }
+        assertTrue(table.addRate(yesterday, Units.RUB, CurrencyUnit.USD, BigDecimal.valueOf(100)));
+        assertFalse("Duplicate pair for the day must be rejected", table.addRate(today, Units.RUB, units.get(0), BigDecimal.TEN));
+
+        for (int i = 0; i < 40; i++) {
+            final CurrencyUnit unit = units.get(i);
+            if (!unit.equals(Units.RUB)) {
+                assertEquals(BigDecimal.valueOf(i + 1), table.getConversionMultiplierStraight(today, Units.RUB, unit).get());
+                assertFalse("Reversed pair isn't stored", table.getConversionMultiplierStraight(today, unit, Units.RUB).isPresent());
+            }
+        }
+        assertEquals(BigDecimal.valueOf(100), table.getConversionMultiplierStraight(yesterday, Units.RUB, CurrencyUnit.USD).get());
+        assertFalse(table.getConversionMultiplierStraight(yesterday, Units.RUB, CurrencyUnit.EUR).isPresent());
+        assertFalse(table.getConversionMultiplierStraight(today.add(-2), Units.RUB, CurrencyUnit.USD).isPresent());
+    }
+
+    @Test
+    public void testIsRateStaleNoRatesToday() throws Exception {
+        Schema.INSTANCE.clear(Bundle.Repo.CURRENCY_RATES);
+        final CurrencyRatesPseudoTable table = CurrencyRatesPseudoTable.INSTANCE;
+        final UtcDay today = new UtcDay();
+
+        table.addRate(today.add(-1), Units.RUB, CurrencyUnit.USD, BigDecimal.TEN);
+        assertTrue("Yesterday's rate doesn't make today's fresh", table.isRateStale(CurrencyUnit.USD));
+        assertTrue(table.isRateStale(Units.RUB));
+
+        table.addRate(today, Units.RUB, CurrencyUnit.EUR, BigDecimal.TEN);
+        assertTrue(table.isRateStale(CurrencyUnit.USD));
+        assertFalse(table.isRateStale(CurrencyUnit.EUR));
+        assertFalse(table.isRateStale(Units.RUB));
+    }
+
+    @Test
+    public void testGetIndexedForDay() throws Exception {
+        Schema.INSTANCE.clear(Bundle.Repo.CURRENCY_RATES);
+        final CurrencyRatesPseudoTable table = CurrencyRatesPseudoTable.INSTANCE;
+        final UtcDay today = new UtcDay();
+        final UtcDay yesterday = today.add(-1);
+
+        assertTrue(table.getIndexedForDay(today).isEmpty());
+        table.addRate(today, Units.RUB, CurrencyUnit.USD, BigDecimal.TEN);
+        final long usdId = table.currentSeqValue();
+        table.addRate(yesterday, Units.RUB, CurrencyUnit.USD, BigDecimal.ONE);
+        final long yesterdayId = table.currentSeqValue();
+        table.addRate(today, Units.RUB, CurrencyUnit.EUR, BigDecimal.TEN);
+        final long eurId = table.currentSeqValue();
+        table.addRate(today, Units.RUB, CurrencyUnit.USD, BigDecimal.ONE); // rejected, must not be indexed
+
+        assertEquals(ImmutableSet.of(usdId, eurId), table.getIndexedForDay(today));
+        assertEquals(ImmutableSet.of(yesterdayId), table.getIndexedForDay(yesterday));
+        assertTrue(table.getIndexedForDay(today.add(-2)).isEmpty());
+        assertEquals(CurrencyUnit.EUR, table.getById(eurId).get().pair.to);
+    }
+
+    @Test
+    public void testDayCurrenciesBitset() throws Exception {
+        Schema.INSTANCE.clear(Bundle.Repo.CURRENCY_RATES);
+        final CurrencyRatesPseudoTable table = CurrencyRatesPseudoTable.INSTANCE;
+        final UtcDay today = new UtcDay();
+
+        // more currencies than fit in one word of the bitset; every other one is rated today
+        final List<CurrencyUnit> units = CurrencyRatesTester.REG_UNITS;
+        assertTrue(units.size() > 130);
+        final HashSet<CurrencyUnit> rated = new HashSet<>();
+        for (int i = 0; i < 130; i++) {
+            final CurrencyUnit unit = units.get(i);
+            if (unit.equals(Units.RUB))
+                continue;
+            if (i % 2 == 0) {
+                table.addRate(today, Units.RUB, unit, BigDecimal.ONE);
+                rated.add(unit);
+            } else {
+                table.addRate(today.add(-1), Units.RUB, unit, BigDecimal.ONE);
+            }
+        }
+
+        for (int i = 0; i < 130; i++) {
+            final CurrencyUnit unit = units.get(i);
+            if (!unit.equals(Units.RUB)) {
+                assertEquals(unit.getCode(), !rated.contains(unit), table.isRateStale(unit));
+            }
+        }
+        assertTrue("Never rated currency", table.isRateStale(units.get(units.size() - 1)));
+    }
+
 }
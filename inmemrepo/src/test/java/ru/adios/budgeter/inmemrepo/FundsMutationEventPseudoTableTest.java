@@ -18,9 +18,21 @@
 
 package ru.adios.budgeter.inmemrepo;
 
+import com.google.common.collect.ImmutableList;
+import org.joda.money.Money;
 import org.junit.Before;
 import org.junit.Test;
 import ru.adios.budgeter.api.FundsMutationEventRepoTester;
+import ru.adios.budgeter.api.Units;
+import ru.adios.budgeter.api.data.BalanceAccount;
+import ru.adios.budgeter.api.data.FundsMutationAgent;
+import ru.adios.budgeter.api.data.FundsMutationEvent;
+import ru.adios.budgeter.api.data.FundsMutationSubject;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 /**
  * Date: 6/15/15
@@ -62,4 +74,48 @@ public class FundsMutationEventPseudoTableTest {
         tester.testStreamForDay();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testRegisterAll() throws Exception {
+        tester.testRegisterAll();
+    }
+
+    @Test
+    public void testRegisterAllDirections() throws Exception {
+        final FundsMutationSubject food = Schema.FUNDS_MUTATION_SUBJECTS.addSubject(
+                FundsMutationSubject.builder(Schema.FUNDS_MUTATION_SUBJECTS).setName("Food").setType(FundsMutationSubject.Type.PRODUCT).build()
+        );
+        final FundsMutationAgent agent = Schema.FUNDS_MUTATION_AGENTS.addAgent(FundsMutationAgent.builder().setName("Test").build());
+        final BalanceAccount accountRub = Schema.TREASURY.registerBalanceAccount(new BalanceAccount("accountRUB", Units.RUB, null));
+        final FundsMutationEvent income = FundsMutationEvent.builder()
+                .setSubject(food)
+                .setAmount(Money.of(Units.RUB, BigDecimal.valueOf(100L)))
+                .setRelevantBalance(accountRub)
+                .setAgent(agent)
+                .build();
+        final FundsMutationEvent expense = FundsMutationEvent.builder()
+                .setSubject(food)
+                .setAmount(Money.of(Units.RUB, BigDecimal.valueOf(-100L)))
+                .setRelevantBalance(accountRub)
+                .setAgent(agent)
+                .build();
+
+        final FundsMutationEventPseudoTable table = FundsMutationEventPseudoTable.INSTANCE;
+        table.registerAll(ImmutableList.of(income, expense));
+        final long id = table.currentSeqValue();
+        assertEquals(FundsMutationDirection.BENEFIT, table.innerTable().get((int) id - 1).direction);
+        assertEquals(FundsMutationDirection.LOSS, table.innerTable().get((int) id).direction);
+
+        final FundsMutationEvent unknown = FundsMutationEvent.builder()
+                .setSubject(FundsMutationSubject.builder(Schema.FUNDS_MUTATION_SUBJECTS).setName("Unknown").setType(FundsMutationSubject.Type.PRODUCT).build())
+                .setAmount(Money.of(Units.RUB, BigDecimal.valueOf(-10L)))
+                .setRelevantBalance(accountRub)
+                .setAgent(agent)
+                .build();
+        try {
+            table.registerAll(ImmutableList.of(expense, unknown));
+            fail("Subject existence test failed");
+        } catch (IllegalStateException ignore) {}
+        assertEquals("Events registered despite unknown subject", 2, table.countMutationEvents());
+    }
+
+}
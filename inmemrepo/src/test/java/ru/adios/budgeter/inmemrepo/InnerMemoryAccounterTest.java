@@ -46,6 +46,11 @@ public class InnerMemoryAccounterTest {
         tester.testStreamAllPostponingReasonsCompat();
     }
 
+    @Test
+    public void testStreamAllPostponingReasonsProcessed() throws Exception {
+        tester.testStreamAllPostponingReasonsProcessed();
+    }
+
     @Test
     public void testStreamAllPostponingReasonsEmptyCompat() throws Exception {
         tester.testStreamAllPostponingReasonsEmptyCompat();
@@ -47,4 +47,14 @@ public class PostponedCurrencyExchangeEventPseudoTableTest {
         tester.testStreamRememberedExchanges();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testMarkEventsProcessed() throws Exception {
+        tester.testMarkEventsProcessed();
+    }
+
+    @Test
+    public void testRegisterAll() throws Exception {
+        tester.testRegisterAll();
+    }
+
+}
@@ -62,4 +62,14 @@ public class PostponedFundsMutationEventPseudoTableTest {
         tester.testStreamRememberedEvents();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testMarkEventsProcessed() throws Exception {
+        tester.testMarkEventsProcessed();
+    }
+
+    @Test
+    public void testRegisterAll() throws Exception {
+        tester.testRegisterAll();
+    }
+
+}
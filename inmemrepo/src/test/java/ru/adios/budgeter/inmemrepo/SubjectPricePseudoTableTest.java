@@ -67,4 +67,9 @@ public class SubjectPricePseudoTableTest {
         tester.testCount();
     }
 
+    @Test
+    public void testRegisterAll() throws Exception {
+        tester.testRegisterAll();
+    }
+
 }
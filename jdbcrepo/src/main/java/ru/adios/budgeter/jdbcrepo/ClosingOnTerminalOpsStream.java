@@ -257,7 +257,7 @@ public class ClosingOnTerminalOpsStream<T> implements Stream<T>, Wrappable {
     }
 
 
-    public static final class AutoClosingSpliterator<T> extends CloseableFinalisingDelegate<Stream<T>> implements Spliterator<T>, WrappingAutoCloseable {
+    public static final class AutoClosingSpliterator<T> extends CloseableDelegate<Stream<T>> implements Spliterator<T>, WrappingAutoCloseable {
 
         private final Spliterator<T> d;
 
@@ -288,7 +288,7 @@ public class ClosingOnTerminalOpsStream<T> implements Stream<T>, Wrappable {
 
     }
 
-    public static final class AutoClosingIterator<T> extends CloseableFinalisingDelegate<Stream<T>> implements Iterator<T>, WrappingAutoCloseable {
+    public static final class AutoClosingIterator<T> extends CloseableDelegate<Stream<T>> implements Iterator<T>, WrappingAutoCloseable {
 
         private final Iterator<T> d;
 
@@ -932,7 +932,7 @@ public class ClosingOnTerminalOpsStream<T> implements Stream<T>, Wrappable {
 
     }
 
-    public static final class AutoClosingIntSpliterator extends CloseableFinalisingDelegate<IntStream> implements Spliterator.OfInt, WrappingAutoCloseable {
+    public static final class AutoClosingIntSpliterator extends CloseableDelegate<IntStream> implements Spliterator.OfInt, WrappingAutoCloseable {
 
         private final Spliterator.OfInt d;
 
@@ -963,7 +963,7 @@ public class ClosingOnTerminalOpsStream<T> implements Stream<T>, Wrappable {
 
     }
 
-    public static final class AutoClosingLongSpliterator extends CloseableFinalisingDelegate<LongStream> implements Spliterator.OfLong, WrappingAutoCloseable {
+    public static final class AutoClosingLongSpliterator extends CloseableDelegate<LongStream> implements Spliterator.OfLong, WrappingAutoCloseable {
 
         private final Spliterator.OfLong d;
 
@@ -994,7 +994,7 @@ public class ClosingOnTerminalOpsStream<T> implements Stream<T>, Wrappable {
 
     }
 
-    public static final class AutoClosingDoubleSpliterator extends CloseableFinalisingDelegate<DoubleStream> implements Spliterator.OfDouble, WrappingAutoCloseable {
+    public static final class AutoClosingDoubleSpliterator extends CloseableDelegate<DoubleStream> implements Spliterator.OfDouble, WrappingAutoCloseable {
 
         private final Spliterator.OfDouble d;
 
@@ -1025,7 +1025,7 @@ public class ClosingOnTerminalOpsStream<T> implements Stream<T>, Wrappable {
 
     }
 
-    public static final class AutoClosingIntIterator extends CloseableFinalisingDelegate<IntStream> implements PrimitiveIterator.OfInt, WrappingAutoCloseable {
+    public static final class AutoClosingIntIterator extends CloseableDelegate<IntStream> implements PrimitiveIterator.OfInt, WrappingAutoCloseable {
 
         private final PrimitiveIterator.OfInt d;
 
@@ -1046,7 +1046,7 @@ public class ClosingOnTerminalOpsStream<T> implements Stream<T>, Wrappable {
 
     }
 
-    public static final class AutoClosingLongIterator extends CloseableFinalisingDelegate<LongStream> implements PrimitiveIterator.OfLong, WrappingAutoCloseable {
+    public static final class AutoClosingLongIterator extends CloseableDelegate<LongStream> implements PrimitiveIterator.OfLong, WrappingAutoCloseable {
 
         private final PrimitiveIterator.OfLong d;
 
@@ -1067,7 +1067,7 @@ public class ClosingOnTerminalOpsStream<T> implements Stream<T>, Wrappable {
 
     }
 
-    public static final class AutoClosingDoubleIterator extends CloseableFinalisingDelegate<DoubleStream> implements PrimitiveIterator.OfDouble, WrappingAutoCloseable {
+    public static final class AutoClosingDoubleIterator extends CloseableDelegate<DoubleStream> implements PrimitiveIterator.OfDouble, WrappingAutoCloseable {
 
         private final PrimitiveIterator.OfDouble d;
 
@@ -1115,30 +1115,22 @@ public class ClosingOnTerminalOpsStream<T> implements Stream<T>, Wrappable {
 
     }
 
-    private static abstract class CloseableFinalisingDelegate<DelegateType extends AutoCloseable> implements AutoCloseable {
+    /**
+     * Abandoned delegates are not closed here, result set streams are tracked by {@link StreamLeakTracker} instead.
+     */
+    private static abstract class CloseableDelegate<DelegateType extends AutoCloseable> implements AutoCloseable {
 
         protected final DelegateType delegate;
 
-        private volatile boolean open = true;
-
-        private CloseableFinalisingDelegate(DelegateType delegate) {
+        private CloseableDelegate(DelegateType delegate) {
             this.delegate = delegate;
         }
 
         @Override
         public void close() {
-            open = false;
             Wrappable.closeSilently(delegate);
         }
 
-        @Override
-        protected void finalize() throws Throwable {
-            if (open) {
-                close();
-            }
-            super.finalize();
-        }
-
     }
 
     private static <ReturnType, Param> ReturnType wrapForCloseRethrow(AutoCloseable s, Function<Param, ReturnType> f, Param p) {
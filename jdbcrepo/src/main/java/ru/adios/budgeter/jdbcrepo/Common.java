@@ -20,9 +20,15 @@ package ru.adios.budgeter.jdbcrepo;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.jdbc.core.SqlProvider;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.SQLStateSQLExceptionTranslator;
 import ru.adios.budgeter.api.OptLimit;
@@ -32,12 +38,16 @@ import ru.adios.budgeter.api.UtcDay;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -58,6 +68,10 @@ final class Common {
         return new ResultSetSupplier(jdbcConnector, sql, opName);
     }
 
+    static ResultSetSupplier getRsSupplier(SafeJdbcConnector jdbcConnector, String sql, @Nullable String opName, StreamHints hints) {
+        return new ResultSetSupplier(jdbcConnector, sql, opName, hints);
+    }
+
     static ParametrizedResultSetSupplier getRsSupplierWithParams(SafeJdbcConnector jdbcConnector, SqlDialect sqlDialect, String sql, List<?> params) {
         return getRsSupplierWithParams(jdbcConnector, sqlDialect, sql, params, null);
     }
@@ -66,6 +80,11 @@ final class Common {
         return new ParametrizedResultSetSupplier(jdbcConnector, sqlDialect, sql, params, opName);
     }
 
+    static ParametrizedResultSetSupplier getRsSupplierWithParams(SafeJdbcConnector jdbcConnector, SqlDialect sqlDialect, String sql, List<?> params,
+                                                                 @Nullable String opName, StreamHints hints) {
+        return new ParametrizedResultSetSupplier(jdbcConnector, sqlDialect, sql, params, opName, hints);
+    }
+
     static <ObjType> SqlFunction<ResultSet, ObjType> getMappingSqlFunction(AgnosticRowMapper<ObjType> rowMapper, @Nullable String sql, @Nullable String opName) {
         return SqlFunction.getVerboseFunction(sql, opName, rowMapper::mapRow);
     }
@@ -84,6 +103,13 @@ final class Common {
         return Optional.ofNullable(results.get(0));
     }
 
+    /**
+     * @return creator of a statement from connector's cache, with parameters set the way JdbcTemplate sets them
+     */
+    static PreparedStatementCreator cached(SafeJdbcConnector jdbcConnector, String sql, Object... params) {
+        return new CachedStatementCreator(jdbcConnector, sql, params);
+    }
+
     static <ObjType> GeneratedKeyHolder insert(JdbcRepository<ObjType> repo, ObjType object) {
         final GeneratedKeyHolder keyHolder = new GeneratedKeyHolder();
 
@@ -94,6 +120,71 @@ final class Common {
         return keyHolder;
     }
 
+    /**
+     * @return number of inserted rows
+     */
+    static <ObjType> int insertAll(JdbcRepository<ObjType> repo, Collection<ObjType> objects) {
+        if (objects.isEmpty()) {
+            return 0;
+        }
+        return inTransaction(repo.getJdbcConnector(), () -> insertBatches(repo, objects));
+    }
+
+    static <T> T inTransaction(SafeJdbcConnector jdbcConnector, Supplier<T> supplier) {
+        final JdbcTransactionalSupport txSupport = jdbcConnector.transactionalSupport;
+        return txSupport != null
+                ? txSupport.getWithTransaction(supplier)
+                : supplier.get();
+    }
+
+    /**
+     * Same as {@link #insertAll(JdbcRepository, Collection)} but in the current transaction, if any.
+     */
+    static <ObjType> int insertBatches(JdbcRepository<ObjType> repo, Collection<ObjType> objects) {
+        final SafeJdbcConnector jdbcConnector = repo.getJdbcConnector();
+        return jdbcConnector.getJdbcTemplate().execute(cached(jdbcConnector, repo.getInsertSql(false)), (PreparedStatementCallback<Integer>) statement -> {
+            int inserted = 0;
+            int inBatch = 0;
+            for (final ObjType object : objects) {
+                setInsertParameters(repo, statement, object, false);
+                statement.addBatch();
+                if (++inBatch == SqlDialect.INSERT_BATCH_ROWS) {
+                    inserted += countBatch(statement.executeBatch());
+                    inBatch = 0;
+                }
+            }
+            if (inBatch > 0) {
+                inserted += countBatch(statement.executeBatch());
+            }
+            return inserted;
+        });
+    }
+
+    private static int countBatch(int[] counts) {
+        int sum = 0;
+        for (final int count : counts) {
+            sum += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+        }
+        return sum;
+    }
+
+    static <ObjType> void setInsertParameters(JdbcRepository<ObjType> repo, PreparedStatement statement, ObjType object, boolean withId) throws SQLException {
+        final SqlDialect sqlDialect = repo.getSqlDialect();
+        int i = 1;
+        if (withId) {
+            statement.setObject(i++, repo.extractId(object));
+        }
+
+        for (Object o : repo.decomposeObject(object)) {
+            if (o instanceof JdbcRepository.Null) {
+                o = null;
+            }
+            statement.setObject(i++,
+                    sqlDialect.translateForDb(o)
+            );
+        }
+    }
+
     static <ObjType> int insertWithId(JdbcRepository<ObjType> repo, ObjType object) {
         final Object id = repo.extractId(object);
         checkArgument(id != null, "Repo returns null id value from object");
@@ -105,10 +196,7 @@ final class Common {
 
     static <ObjType> Stream<ObjType> streamRequestAll(JdbcRepository<ObjType> repo, JdbcRepository.LazySupplier supplyingDelegate, @Nullable String opName) {
         final String sql = supplyingDelegate.getOrCompute(() -> SqlDialect.selectSql(repo.getTableName(), null, repo.getColumnNames(), repo.getJoins()));
-        return LazyResultSetIterator.stream(
-                getRsSupplier(repo.getJdbcConnector(), sql, opName),
-                getMappingSqlFunction(repo.getRowMapper(), sql, opName)
-        );
+        return IdRangeSpliterator.stream(repo, sql, opName);
     }
 
     static <ObjType> Stream<ObjType> streamRequestAll(JdbcRepository<ObjType> repo, List<OrderBy> options, @Nullable OptLimit limit, @Nullable String opName) {
@@ -117,7 +205,7 @@ final class Common {
         final String sql = builder.toString();
 
         return LazyResultSetIterator.stream(
-                getRsSupplier(repo.getJdbcConnector(), sql, opName),
+                getRsSupplier(repo.getJdbcConnector(), sql, opName, StreamHints.forDialect(repo.getSqlDialect(), limit)),
                 getMappingSqlFunction(repo.getRowMapper(), sql, opName)
         );
     }
@@ -134,7 +222,7 @@ final class Common {
 
     static <ObjType> Stream<ObjType> streamRequest(JdbcRepository<ObjType> repo, String sql, ImmutableList params, @Nullable String op) {
         return LazyResultSetIterator.stream(
-                Common.getRsSupplierWithParams(repo.getJdbcConnector(), repo.getSqlDialect(), sql, params, op),
+                Common.getRsSupplierWithParams(repo.getJdbcConnector(), repo.getSqlDialect(), sql, params, op, StreamHints.forDialect(repo.getSqlDialect())),
                 Common.getMappingSqlFunction(repo.getRowMapper(), sql, op)
         );
     }
@@ -148,7 +236,58 @@ final class Common {
     }
 
     static <ColType> ColType getSingleColumn(JdbcRepository repo, String sql, RowMapper<ColType> rowMapper, Object... params) throws IncorrectResultSizeDataAccessException {
-        return repo.getJdbcConnector().getJdbcTemplate().queryForObject(sql, rowMapper, params);
+        return DataAccessUtils.requiredSingleResult(repo.getJdbcConnector().getJdbcTemplate().query(cached(repo.getJdbcConnector(), sql, params), rowMapper));
+    }
+
+    /**
+     * Sets column to value in rows with given ids, with an IN-list update per chunk of ids.
+     * @return number of updated rows
+     */
+    static int updateColumnByIds(JdbcRepository repo, String tableName, String column, Object value, String idColumn, List<Long> ids) {
+        final int chunkSize = SqlDialect.MAX_BATCH_PARAMS - 1;
+        final ImmutableList<String> changing = ImmutableList.of(column);
+        final ImmutableList<String> selecting = ImmutableList.of(idColumn);
+        int updated = 0;
+        String fullChunkSql = null;
+        for (final List<Long> chunk : Lists.partition(ids, chunkSize)) {
+            final String sql;
+            if (chunk.size() == chunkSize) {
+                if (fullChunkSql == null) {
+                    fullChunkSql = SqlDialect.getUpdateSql(tableName, changing, selecting, chunkSize, false, null, null);
+                }
+                sql = fullChunkSql;
+            } else {
+                sql = SqlDialect.getUpdateSql(tableName, changing, selecting, chunk.size(), false, null, null);
+            }
+
+            final Object[] params = new Object[chunk.size() + 1];
+            params[0] = value;
+            for (int i = 0; i < chunk.size(); i++) {
+                params[i + 1] = chunk.get(i);
+            }
+            updated += repo.getJdbcConnector().getJdbcTemplate().update(cached(repo.getJdbcConnector(), sql, params));
+        }
+        return updated;
+    }
+
+    /**
+     * @return those of given ids which rows have column equal to value, queried per chunk of ids
+     */
+    static List<Long> filterIdsByColumn(JdbcRepository repo, String tableName, String column, Object value, String idColumn, List<Long> ids) {
+        final int chunkSize = SqlDialect.MAX_BATCH_PARAMS - 1;
+        final ArrayList<Long> result = new ArrayList<>(ids.size());
+        for (final List<Long> chunk : Lists.partition(ids, chunkSize)) {
+            final StringBuilder sb = SqlDialect.selectSqlBuilder(tableName, null, idColumn).append(" WHERE ").append(column).append(" = ?");
+            SqlDialect.appendInClausePart(false, sb, idColumn, chunk.size());
+
+            final Object[] params = new Object[chunk.size() + 1];
+            params[0] = value;
+            for (int i = 0; i < chunk.size(); i++) {
+                params[i + 1] = chunk.get(i);
+            }
+            result.addAll(repo.getJdbcConnector().getJdbcTemplate().query(cached(repo.getJdbcConnector(), sb.toString(), params), LONG_ROW_MAPPER));
+        }
+        return result;
     }
 
     static <ColType> Optional<ColType> getSingleColumnOptional(JdbcRepository repo, String sql, RowMapper<ColType> rowMapper, Object... params) {
@@ -157,7 +296,7 @@ final class Common {
     }
 
     static <ColType> List<ColType> getSingleColumnList(JdbcRepository repo, String sql, RowMapper<ColType> rowMapper, Object... params) {
-        return repo.getJdbcConnector().getJdbcTemplate().query(sql, rowMapper, params);
+        return repo.getJdbcConnector().getJdbcTemplate().query(cached(repo.getJdbcConnector(), sql, params), rowMapper);
     }
 
     static <ObjType> Optional<ObjType> getByOneUniqueColumn(Object column, String columnName, JdbcRepository<ObjType> repo, JdbcRepository.LazySupplier supplyingDelegate) {
@@ -182,7 +321,7 @@ final class Common {
         return repo
                 .getJdbcConnector()
                 .getJdbcTemplate()
-                .query(sql, repo.getRowMapper(), column);
+                .query(cached(repo.getJdbcConnector(), sql, column), repo.getRowMapper());
     }
 
     private static <ObjType> String innerByOneColumnSql(String columnName, JdbcRepository<ObjType> repo, SqlDialect.Op op, boolean unique) {
@@ -204,6 +343,37 @@ final class Common {
     }
 
 
+    private static final class CachedStatementCreator implements PreparedStatementCreator, SqlProvider {
+
+        private final SafeJdbcConnector jdbcConnector;
+        private final String sql;
+        private final Object[] params;
+
+        private CachedStatementCreator(SafeJdbcConnector jdbcConnector, String sql, Object[] params) {
+            this.jdbcConnector = jdbcConnector;
+            this.sql = sql;
+            this.params = params;
+        }
+
+        @Override
+        public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+            final PreparedStatement statement = jdbcConnector.statementCache.prepare(con, sql, false);
+            try {
+                new ArgumentPreparedStatementSetter(params).setValues(statement);
+            } catch (SQLException | RuntimeException ex) {
+                statement.close();
+                throw ex;
+            }
+            return statement;
+        }
+
+        @Override
+        public String getSql() {
+            return sql;
+        }
+
+    }
+
     static final class ParametrizedResultSetSupplier extends ResultSetSupplier {
 
         private final List<?> params;
@@ -214,7 +384,11 @@ final class Common {
         }
 
         ParametrizedResultSetSupplier(SafeJdbcConnector jdbcConnector, SqlDialect sqlDialect, String sql, List<?> params, @Nullable String op) {
-            super(jdbcConnector, sql, op);
+            this(jdbcConnector, sqlDialect, sql, params, op, StreamHints.DRIVER_DEFAULTS);
+        }
+
+        ParametrizedResultSetSupplier(SafeJdbcConnector jdbcConnector, SqlDialect sqlDialect, String sql, List<?> params, @Nullable String op, StreamHints hints) {
+            super(jdbcConnector, sql, op, hints);
             this.sqlDialect = sqlDialect;
             this.params = params;
         }
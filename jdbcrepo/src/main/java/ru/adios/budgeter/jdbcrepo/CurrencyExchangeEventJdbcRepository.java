@@ -34,6 +34,7 @@ import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.OffsetDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Stream;
@@ -215,6 +216,11 @@ public class CurrencyExchangeEventJdbcRepository implements CurrencyExchangeEven
         Common.insert(this, exchangeEvent);
     }
 
+    @Override
+    public void registerAll(Collection<CurrencyExchangeEvent> exchangeEvents) {
+        Common.insertAll(this, exchangeEvents);
+    }
+
     @Override
     public int countExchangeEvents() {
         return Common.getSingleColumn(this, COUNT_ALL_SQL, Common.INTEGER_ROW_MAPPER);
@@ -222,12 +228,15 @@ public class CurrencyExchangeEventJdbcRepository implements CurrencyExchangeEven
 
     @Override
     public Stream<CurrencyExchangeEvent> streamExchangeEvents(List<OrderBy<Field>> options, Optional<OptLimit> limit) {
+        if (options.isEmpty() && !limit.isPresent()) {
+            return IdRangeSpliterator.stream(this, SQL_STREAM_START, "streamExchangeEvents");
+        }
         final StringBuilder sb = new StringBuilder(SQL_STREAM_START.length() + 20 * options.size() + 15).append(SQL_STREAM_START);
         SqlDialect.appendWhereClausePostfix(sb, sqlDialect, limit.orElse(null), Common.translateOrderBy(options));
         final String sql = sb.toString();
 
         return LazyResultSetIterator.stream(
-                Common.getRsSupplier(jdbcConnector, sql, "streamExchangeEvents"),
+                Common.getRsSupplier(jdbcConnector, sql, "streamExchangeEvents", StreamHints.forDialect(sqlDialect, limit.orElse(null))),
                 Common.getMappingSqlFunction(rowMapper, sql, "streamExchangeEvents")
         );
     }
@@ -19,7 +19,10 @@
 package ru.adios.budgeter.jdbcrepo;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Lists;
 import org.joda.money.CurrencyUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,7 +34,9 @@ import javax.annotation.concurrent.ThreadSafe;
 import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Optional;
+import java.sql.Statement;
+import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * Date: 10/28/15
@@ -46,6 +51,7 @@ public class CurrencyRatesJdbcRepository implements CurrencyRatesRepository, Jdb
     public static final String SEQ_NAME = "seq_currency_rate";
     public static final String INDEX_DAY = "ix_currency_rate_day";
     public static final String INDEX_FROM_TO = "ix_currency_rate_from_to";
+    public static final String INDEX_LATEST = "ix_currency_rate_latest";
     public static final String COL_ID = "id";
     public static final String COL_DAY = "day";
     public static final String COL_FROM = "from_unit";
@@ -68,6 +74,12 @@ public class CurrencyRatesJdbcRepository implements CurrencyRatesRepository, Jdb
         SqlDialect.appendWhereClausePart(false, sb, false, SqlDialect.Op.EQUAL, COL_TO);
         return sb.toString();
     }
+    private static final String SQL_RATES_4D = getRatesForDaySql();
+    private static String getRatesForDaySql() {
+        final StringBuilder sb = SqlDialect.selectSqlBuilder(TABLE_NAME, null, COL_DAY, COL_FROM, COL_TO, COL_RATE);
+        SqlDialect.appendWhereClausePart(sb.append(" WHERE"), true, SqlDialect.Op.EQUAL, COL_DAY);
+        return sb.toString();
+    }
     private static final String SQL_INDEXED_4D = getIndexedDaySql();
     private static String getIndexedDaySql() {
         final StringBuilder sb = SqlDialect.selectSqlBuilder(TABLE_NAME, null, COL_ID);
@@ -81,6 +93,7 @@ public class CurrencyRatesJdbcRepository implements CurrencyRatesRepository, Jdb
     private volatile SqlDialect sqlDialect = SqliteDialect.INSTANCE;
     private final LazySupplier supIdSql = new LazySupplier();
     private final String insertSql = JdbcRepository.super.getInsertSql(false);
+    private final String insertOrIgnoreSql = sqlDialect.insertOrIgnoreSql(TABLE_NAME, COLS);
     private final String sqlLatestOptConvMulti;
 
     CurrencyRatesJdbcRepository(SafeJdbcConnector jdbcConnector) {
@@ -162,6 +175,35 @@ public class CurrencyRatesJdbcRepository implements CurrencyRatesRepository, Jdb
         }
     }
 
+    @Override
+    public int addRates(UtcDay dayUtc, Map<ConversionPair, BigDecimal> rates) {
+        if (rates.isEmpty()) {
+            return 0;
+        }
+
+        final Object dayTranslated = sqlDialect.translateForDb(dayUtc);
+        final ArrayList<Object[]> batchArgs = new ArrayList<>(rates.size());
+        for (final Map.Entry<ConversionPair, BigDecimal> entry : rates.entrySet()) {
+            final ConversionPair pair = entry.getKey();
+            batchArgs.add(new Object[] {
+                    dayTranslated, pair.from.getNumericCode(), pair.to.getNumericCode(), sqlDialect.translateForDb(entry.getValue())
+            });
+        }
+
+        try {
+            int added = 0;
+            for (final int count : jdbcConnector.getJdbcTemplate().batchUpdate(insertOrIgnoreSql, batchArgs)) {
+                if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                    added++;
+                }
+            }
+            return added;
+        } catch (RuntimeException ex) {
+            logger.warn(String.format("addRates(%s, %s) exception", dayUtc, rates), ex);
+            return 0;
+        }
+    }
+
     @Override
     public Optional<BigDecimal> getConversionMultiplierStraight(UtcDay day, CurrencyUnit from, CurrencyUnit to) {
         return Common.getSingleColumnOptional(
@@ -172,6 +214,60 @@ public class CurrencyRatesJdbcRepository implements CurrencyRatesRepository, Jdb
         );
     }
 
+    @Override
+    public ImmutableMap<ConversionPair, BigDecimal> getConversionMultipliersStraight(UtcDay day, Collection<ConversionPair> pairs) {
+        return getConversionMultipliersStraight(ImmutableList.of(day), pairs).row(day);
+    }
+
+    @Override
+    public ImmutableTable<UtcDay, ConversionPair, BigDecimal> getConversionMultipliersStraight(Collection<UtcDay> days, Collection<ConversionPair> pairs) {
+        if (days.isEmpty() || pairs.isEmpty()) {
+            return ImmutableTable.of();
+        }
+
+        final ImmutableSet<ConversionPair> wanted = ImmutableSet.copyOf(pairs);
+        final ImmutableList<UtcDay> distinctDays = ImmutableSet.copyOf(days).asList();
+        final ImmutableTable.Builder<UtcDay, ConversionPair, BigDecimal> builder = ImmutableTable.builder();
+        // a pair brings two codes at most, so codes take no more than half of parameters and days get the rest
+        for (final List<ConversionPair> pairsChunk : Lists.partition(wanted.asList(), SqlDialect.MAX_BATCH_PARAMS / 4)) {
+            final ImmutableSet<ConversionPair> chunkPairs = ImmutableSet.copyOf(pairsChunk);
+            final LinkedHashSet<Integer> fromCodes = new LinkedHashSet<>();
+            final LinkedHashSet<Integer> toCodes = new LinkedHashSet<>();
+            for (final ConversionPair pair : pairsChunk) {
+                fromCodes.add(pair.from.getNumericCode());
+                toCodes.add(pair.to.getNumericCode());
+            }
+
+            final int daysChunk = SqlDialect.MAX_BATCH_PARAMS - fromCodes.size() - toCodes.size();
+            for (final List<UtcDay> chunk : Lists.partition(distinctDays, daysChunk)) {
+                final ArrayList<Object> params = new ArrayList<>(chunk.size() + fromCodes.size() + toCodes.size());
+                for (final UtcDay day : chunk) {
+                    params.add(sqlDialect.translateForDb(day));
+                }
+                params.addAll(fromCodes);
+                params.addAll(toCodes);
+
+                final List<ConversionRate> rates = jdbcConnector.getJdbcTemplate()
+                        .query(getConversionMultipliersStraightSql(chunk.size(), fromCodes.size(), toCodes.size()), rowMapper, params.toArray());
+                for (final ConversionRate rate : rates) {
+                    // IN clauses select cross product of codes, only the asked pairs of this chunk are taken
+                    if (chunkPairs.contains(rate.pair)) {
+                        builder.put(rate.day, rate.pair, rate.rate);
+                    }
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private static String getConversionMultipliersStraightSql(int daysNumber, int fromNumber, int toNumber) {
+        final StringBuilder sb = SqlDialect.selectSqlBuilder(TABLE_NAME, null, COL_DAY, COL_FROM, COL_TO, COL_RATE).append(" WHERE");
+        boolean first = SqlDialect.appendInClausePart(true, sb, COL_DAY, daysNumber);
+        first = SqlDialect.appendInClausePart(first, sb, COL_FROM, fromNumber);
+        SqlDialect.appendInClausePart(first, sb, COL_TO, toNumber);
+        return sb.toString();
+    }
+
     @Override
     public Optional<BigDecimal> getLatestOptionalConversionMultiplier(CurrencyUnit from, CurrencyUnit to) {
         return Common.getSingleColumnOptional(
@@ -205,6 +301,27 @@ public class CurrencyRatesJdbcRepository implements CurrencyRatesRepository, Jdb
         );
     }
 
+    @Override
+    public ImmutableList<ConversionRate> getRatesForDay(UtcDay day) {
+        return ImmutableList.copyOf(
+                jdbcConnector.getJdbcTemplate().query(SQL_RATES_4D, rowMapper, sqlDialect.translateForDb(day))
+        );
+    }
+
+
+    /**
+     * Creates latest rate lookup index for a schema created before its introduction.
+     */
+    void upgradeLatestIndexIfNeeded(Consumer<String[]> ddlExecutor) {
+        if (jdbcConnector.getJdbcTemplate().query(sqlDialect.indexExistsSql(INDEX_LATEST), Common.STRING_ROW_MAPPER).isEmpty()) {
+            ddlExecutor.accept(new String[] {getLatestIndexSql()});
+        }
+    }
+
+    private String getLatestIndexSql() {
+        // covering index for latest rate lookup: seek by pair, first entry backwards by day, no table access
+        return sqlDialect.createIndexSql(INDEX_LATEST, TABLE_NAME, false, COL_FROM, COL_TO, COL_DAY, COL_RATE);
+    }
 
     @Override
     public String[] getCreateTableSql() {
@@ -212,7 +329,8 @@ public class CurrencyRatesJdbcRepository implements CurrencyRatesRepository, Jdb
                 getActualCreateTableSql(),
                 sqlDialect.createSeq(SEQ_NAME, TABLE_NAME),
                 sqlDialect.createIndexSql(INDEX_DAY, TABLE_NAME, false, COL_DAY),
-                sqlDialect.createIndexSql(INDEX_FROM_TO, TABLE_NAME, true, COL_DAY, COL_FROM, COL_TO)
+                sqlDialect.createIndexSql(INDEX_FROM_TO, TABLE_NAME, true, COL_DAY, COL_FROM, COL_TO),
+                getLatestIndexSql()
         };
     }
 
@@ -222,6 +340,7 @@ public class CurrencyRatesJdbcRepository implements CurrencyRatesRepository, Jdb
                 sqlDialect.dropSeqCommand(SEQ_NAME),
                 SqlDialect.dropIndexCommand(INDEX_DAY),
                 SqlDialect.dropIndexCommand(INDEX_FROM_TO),
+                SqlDialect.dropIndexCommand(INDEX_LATEST),
                 SqlDialect.dropTableCommand(TABLE_NAME)
         };
     }
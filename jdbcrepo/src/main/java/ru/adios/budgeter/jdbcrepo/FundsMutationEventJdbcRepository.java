@@ -35,6 +35,7 @@ import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.OffsetDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -226,6 +227,11 @@ public class FundsMutationEventJdbcRepository implements FundsMutationEventRepos
         Common.insert(this, mutationEvent);
     }
 
+    @Override
+    public void registerAll(Collection<FundsMutationEvent> mutationEvents) {
+        Common.insertAll(this, mutationEvents);
+    }
+
     @Override
     public int countMutationEvents() {
         return Common.getSingleColumn(this, COUNT_ALL_SQL, Common.INTEGER_ROW_MAPPER);
@@ -233,12 +239,16 @@ public class FundsMutationEventJdbcRepository implements FundsMutationEventRepos
 
     @Override
     public Stream<FundsMutationEvent> streamMutationEvents(List<OrderBy<Field>> options, Optional<OptLimit> limit) {
+        if (options.isEmpty() && !limit.isPresent()) {
+            // whole history, can be scanned in parallel by id ranges
+            return IdRangeSpliterator.stream(this, SQL_STREAM_START, "streamMutationEvents");
+        }
         final StringBuilder sb = new StringBuilder(SQL_STREAM_START.length() + options.size() * 20 + 15).append(SQL_STREAM_START);
         SqlDialect.appendWhereClausePostfix(sb, sqlDialect, limit.orElse(null), Common.translateOrderBy(options));
         final String sql = sb.toString();
 
         return LazyResultSetIterator.stream(
-                Common.getRsSupplier(jdbcConnector, sql, "streamMutationEvents"),
+                Common.getRsSupplier(jdbcConnector, sql, "streamMutationEvents", StreamHints.forDialect(sqlDialect, limit.orElse(null))),
                 Common.getMappingSqlFunction(rowMapper, sql, "streamMutationEvents")
         );
     }
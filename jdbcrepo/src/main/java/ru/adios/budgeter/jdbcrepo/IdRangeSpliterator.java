@@ -0,0 +1,204 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter.jdbcrepo;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Full table scan which is a single plain query while sequential. Once the stream is split, it asks for the id bounds
+ * and halves them on each split, so that every range runs its own query, on a pooled connection of its worker thread.
+ * Rows are not ordered. A scan started inside a transaction bound to the thread is never split, since other connections
+ * wouldn't see the transaction's uncommitted rows.
+ */
+@NotThreadSafe
+final class IdRangeSpliterator<T> implements Spliterator<T> {
+
+    static final long DEFAULT_MIN_RANGE = 1024;
+
+    static <T> Stream<T> stream(JdbcRepository<T> repo, String sql, @Nullable String op) {
+        return stream(repo, sql, op, DEFAULT_MIN_RANGE);
+    }
+
+    static <T> Stream<T> stream(JdbcRepository<T> repo, String sql, @Nullable String op, long minRange) {
+        final Scan<T> scan = new Scan<>(repo, sql, op, minRange);
+        return ClosingOnTerminalOpsStream.stream(
+                StreamSupport.stream(new IdRangeSpliterator<>(scan), false)
+                        .onClose(scan::close)
+        );
+    }
+
+    /**
+     * State shared by all ranges of a scan.
+     */
+    @ThreadSafe
+    private static final class Scan<T> {
+        private final JdbcRepository<T> repo;
+        private final String sql;
+        @Nullable private final String op;
+        private final long minRange;
+        private final boolean splittable;
+        private final ConcurrentLinkedQueue<LazyResultSetIterator<T>> opened = new ConcurrentLinkedQueue<>();
+
+        private Scan(JdbcRepository<T> repo, String sql, @Nullable String op, long minRange) {
+            checkArgument(minRange > 0, "minRange must be positive");
+            this.repo = repo;
+            this.sql = sql;
+            this.op = op;
+            this.minRange = minRange;
+            splittable = !repo.getJdbcConnector().isTransactionBound();
+        }
+
+        @Nullable
+        private long[] bounds() {
+            final String idColumn = repo.getTableName() + '.' + repo.getIdColumnName();
+            final String boundsSql = "SELECT MIN(" + idColumn + "), MAX(" + idColumn + ") FROM " + repo.getTableName();
+            return repo.getJdbcConnector().getJdbcTemplate().query(Common.cached(repo.getJdbcConnector(), boundsSql), rs -> {
+                if (!rs.next()) {
+                    return null;
+                }
+                final long min = rs.getLong(1);
+                return rs.wasNull() ? null : new long[] {min, rs.getLong(2)};
+            });
+        }
+
+        private LazyResultSetIterator<T> open(boolean bounded, long lo, long hi) {
+            final SafeJdbcConnector jdbcConnector = repo.getJdbcConnector();
+            final StreamHints hints = StreamHints.forDialect(repo.getSqlDialect());
+            final String scanSql;
+            final ResultSetSupplier supplier;
+            if (bounded) {
+                final String idColumn = repo.getTableName() + '.' + repo.getIdColumnName();
+                scanSql = SqlDialect.selectSql(repo.getTableName(), idColumn + " >= ? AND " + idColumn + " <= ?", repo.getColumnNames(), repo.getJoins());
+                supplier = Common.getRsSupplierWithParams(jdbcConnector, repo.getSqlDialect(), scanSql, ImmutableList.of(lo, hi), op, hints);
+            } else {
+                scanSql = sql;
+                supplier = Common.getRsSupplier(jdbcConnector, sql, op, hints);
+            }
+            final LazyResultSetIterator<T> iterator = LazyResultSetIterator.of(supplier, Common.getMappingSqlFunction(repo.getRowMapper(), scanSql, op), scanSql);
+            opened.add(iterator);
+            return iterator;
+        }
+
+        private void close() {
+            LazyResultSetIterator<T> iterator;
+            while ((iterator = opened.poll()) != null) {
+                iterator.close();
+            }
+        }
+    }
+
+    private final Scan<T> scan;
+    private boolean bounded;
+    private long lo;
+    private long hi;
+    @Nullable private LazyResultSetIterator<T> iterator;
+
+    private IdRangeSpliterator(Scan<T> scan) {
+        this.scan = scan;
+        bounded = false;
+    }
+
+    private IdRangeSpliterator(Scan<T> scan, long lo, long hi) {
+        this.scan = scan;
+        bounded = true;
+        this.lo = lo;
+        this.hi = hi;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        final LazyResultSetIterator<T> it = iterator();
+        if (it == null || !it.hasNext()) {
+            return false;
+        }
+        action.accept(it.next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        final LazyResultSetIterator<T> it = iterator();
+        if (it != null) {
+            while (it.hasNext()) {
+                action.accept(it.next());
+            }
+        }
+    }
+
+    @Override
+    @Nullable
+    public Spliterator<T> trySplit() {
+        if (iterator != null || !scan.splittable) {
+            return null; // already scanning or has to stay on transaction's connection
+        }
+        if (!bounded) {
+            final long[] bounds = scan.bounds();
+            bounded = true;
+            if (bounds == null) {
+                lo = 1;
+                hi = 0;
+                return null;
+            }
+            lo = bounds[0];
+            hi = bounds[1];
+        }
+        if (hi - lo + 1 < 2 * scan.minRange) {
+            return null;
+        }
+        final long mid = lo + (hi - lo) / 2;
+        final IdRangeSpliterator<T> prefix = new IdRangeSpliterator<>(scan, lo, mid);
+        lo = mid + 1;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return bounded
+                ? Math.max(0, hi - lo + 1)
+                : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL;
+    }
+
+    @Nullable
+    private LazyResultSetIterator<T> iterator() {
+        if (iterator == null) {
+            if (bounded && lo > hi) {
+                return null;
+            }
+            iterator = scan.open(bounded, lo, hi);
+        }
+        return iterator;
+    }
+
+}
@@ -21,10 +21,14 @@ package ru.adios.budgeter.jdbcrepo;
 import com.google.common.collect.ImmutableSet;
 import org.intellij.lang.annotations.Language;
 import org.joda.money.CurrencyUnit;
+import org.springframework.jdbc.core.RowMapper;
 import ru.adios.budgeter.api.*;
 
 import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+import java.util.Optional;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Date: 10/29/15
@@ -38,44 +42,36 @@ public class JdbcAccounter implements Accounter {
     @SuppressWarnings("SqlDialectInspection")
     @Language("SQL")
     private static final String COMPAT_SQL =
-            "SELECT DISTINCT e.day, e.unit AS currency_unit" +
-                    " FROM postponed_funds_mutation_event e" +
+            "SELECT f.day, f.currency_unit" +
+                    " FROM postponed_funds_mutation_reason f" +
                     " UNION ALL" +
-                    " SELECT DISTINCT pc.day, s.currency_unit" +
-                    " FROM postponed_currency_exchange_event pc" +
-                    " INNER JOIN balance_account s ON pc.sell_account_id = s.id" +
-                    " UNION ALL" +
-                    " SELECT DISTINCT pc.day, b.currency_unit" +
-                    " FROM postponed_currency_exchange_event pc" +
-                    " INNER JOIN balance_account b ON pc.to_buy_account_id = b.id" +
-                    " UNION ALL" +
-                    " SELECT DISTINCT e.day, e.conversion_unit AS currency_unit" +
-                    " FROM postponed_funds_mutation_event e " +
-                    "UNION ALL " +
-                    "SELECT " + Long.MAX_VALUE + " AS day, " + CurrencyUnit.USD.getNumericCode() + " AS currency_unit " +
+                    " SELECT pc.day, pc.currency_unit" +
+                    " FROM postponed_currency_exchange_reason pc " +
                     "ORDER BY day, currency_unit";
 
+    // reasons tables are maintained by postponed repositories and hold only days with relevant events
     @SuppressWarnings("SqlDialectInspection")
     @Language("SQL")
     private static final String SQL =
-            "WITH large AS (" +
-                    "SELECT DISTINCT e.day, e.unit AS currency_unit" +
-                    " FROM postponed_funds_mutation_event e" +
-                    " UNION ALL" +
-                    " SELECT DISTINCT pc.day, s.currency_unit" +
-                    " FROM postponed_currency_exchange_event pc" +
-                    " INNER JOIN balance_account s ON pc.sell_account_id = s.id" +
-                    " UNION ALL" +
-                    " SELECT DISTINCT pc.day, b.currency_unit" +
-                    " FROM postponed_currency_exchange_event pc" +
-                    " INNER JOIN balance_account b ON pc.to_buy_account_id = b.id" +
-                    " UNION ALL" +
-                    " SELECT DISTINCT e.day, e.conversion_unit AS currency_unit" +
-                    " FROM postponed_funds_mutation_event e) " +
-                    "SELECT DISTINCT l.day, l.currency_unit FROM large l " +
-                    "UNION ALL " +
-                    "SELECT " + Long.MAX_VALUE + " AS day, " + CurrencyUnit.USD.getNumericCode() + " AS currency_unit " +
-                    "ORDER BY day, currency_unit"; // we will rely on data to be ordered so we can imitate partial reduce with Stream API using filter()
+            "SELECT f.day, f.currency_unit" +
+                    " FROM postponed_funds_mutation_reason f" +
+                    " UNION" +
+                    " SELECT pc.day, pc.currency_unit" +
+                    " FROM postponed_currency_exchange_reason pc " +
+                    "ORDER BY day, currency_unit"; // grouping by day relies on data to be ordered
+
+    private static final String SQL_FIRST_DAY = dayPageSql(" UNION ", false);
+    private static final String SQL_DAY_AFTER = dayPageSql(" UNION ", true);
+    private static final String COMPAT_SQL_FIRST_DAY = dayPageSql(" UNION ALL ", false);
+    private static final String COMPAT_SQL_DAY_AFTER = dayPageSql(" UNION ALL ", true);
+
+    private static String dayPageSql(String union, boolean after) {
+        final String reasons = "SELECT f.day, f.currency_unit FROM postponed_funds_mutation_reason f"
+                + union + "SELECT pc.day, pc.currency_unit FROM postponed_currency_exchange_reason pc";
+        return "SELECT r.day, r.currency_unit FROM (" + reasons + ") r"
+                + " WHERE r.day = (SELECT MIN(m.day) FROM (" + reasons + ") m" + (after ? " WHERE m.day > ?" : "") + ")"
+                + " ORDER BY r.currency_unit";
+    }
 
 
     private final SourcingBundle bundle;
@@ -130,7 +126,7 @@ public class JdbcAccounter implements Accounter {
     @Override
     public Stream<PostponingReasons> streamAllPostponingReasons(boolean compatMode) {
         if (compatMode) {
-            return getPostponingReasonsStream(COMPAT_SQL, true);
+            return getPostponingReasonsStream(COMPAT_SQL);
         } else {
             return streamAllPostponingReasons();
         }
@@ -138,85 +134,41 @@ public class JdbcAccounter implements Accounter {
 
     @Override
     public Stream<PostponingReasons> streamAllPostponingReasons() {
-        return getPostponingReasonsStream(SQL, false);
+        return getPostponingReasonsStream(SQL);
     }
 
-    private Stream<PostponingReasons> getPostponingReasonsStream(String sql, boolean doDistinctAfterFirstStream) {
-        final AccumulationContext context = new AccumulationContext();
-        final LazyResultSetIterator<Pair> iterator = LazyResultSetIterator.<Pair>of(
+    @Override
+    public Optional<PostponingReasons> getPostponingReasonsAfter(Optional<UtcDay> after, boolean compatMode) {
+        final RowMapper<PostponingReasonsSpliterator.Row> rowMapper =
+                (rs, rowNum) -> new PostponingReasonsSpliterator.Row(sqlDialect.translateFromDb(rs.getObject(1), UtcDay.class), CurrencyUnit.ofNumericCode(rs.getInt(2)));
+        final List<PostponingReasonsSpliterator.Row> rows = after.isPresent()
+                ? jdbcConnector.getJdbcTemplate().query(compatMode ? COMPAT_SQL_DAY_AFTER : SQL_DAY_AFTER, rowMapper, sqlDialect.translateForDb(after.get()))
+                : jdbcConnector.getJdbcTemplate().query(compatMode ? COMPAT_SQL_FIRST_DAY : SQL_FIRST_DAY, rowMapper);
+        if (rows.isEmpty()) {
+            return Optional.empty();
+        }
+
+        final ImmutableSet.Builder<CurrencyUnit> units = ImmutableSet.builder();
+        for (final PostponingReasonsSpliterator.Row row : rows) {
+            units.add(row.unit);
+        }
+        return Optional.of(new PostponingReasons(rows.get(0).day, units.build()));
+    }
+
+    private Stream<PostponingReasons> getPostponingReasonsStream(String sql) {
+        final LazyResultSetIterator<PostponingReasonsSpliterator.Row> iterator = LazyResultSetIterator.of(
                 Common.getRsSupplier(jdbcConnector, sql, "streamAllPostponingReasons"),
                 Common.getMappingSqlFunction(
-                        rs -> new Pair(sqlDialect.translateFromDb(rs.getObject(1), UtcDay.class), CurrencyUnit.ofNumericCode(rs.getInt(2))),
+                        rs -> new PostponingReasonsSpliterator.Row(sqlDialect.translateFromDb(rs.getObject(1), UtcDay.class), CurrencyUnit.ofNumericCode(rs.getInt(2))),
                         sql, "streamAllPostponingReasons"
                 ),
                 sql
         );
-        Stream<Pair> stream = iterator.stream();
-        if (doDistinctAfterFirstStream) {
-            stream = stream.distinct();
-        }
-        return stream
-                .filter(pair -> {
-                    if (context.builder == null) {
-                        context.builder = ImmutableSet.builder();
-                        context.currentDay = pair.day;
-                        context.builder.add(pair.unit);
-                        return false;
-                    }
-
-                    if (!pair.day.equals(context.currentDay)) {
-                        return true;
-                    } else {
-                        context.builder.add(pair.unit);
-                        return false;
-                    }
-                })
-                .map(pair -> {
-                    final PostponingReasons postponingReasons = new PostponingReasons(context.currentDay, context.builder.build());
-                    if (iterator.hasNext()) {
-                        context.builder = ImmutableSet.builder();
-                        context.currentDay = pair.day;
-                        context.builder.add(pair.unit);
-                    }
-                    return postponingReasons;
-                });
-    }
-
-    private static final class AccumulationContext {
-
-        private ImmutableSet.Builder<CurrencyUnit> builder;
-        private UtcDay currentDay;
-
-    }
-
-    private static final class Pair {
-
-        private final UtcDay day;
-        private final CurrencyUnit unit;
-
-        private Pair(UtcDay day, CurrencyUnit unit) {
-            this.day = day;
-            this.unit = unit;
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-
-            Pair pair = (Pair) o;
-
-            return day.equals(pair.day)
-                    && unit.equals(pair.unit);
-        }
-
-        @Override
-        public int hashCode() {
-            int result = day.hashCode();
-            result = 31 * result + unit.hashCode();
-            return result;
-        }
-
+        // duplicate rows of compat query collapse within a day's set
+        return ClosingOnTerminalOpsStream.stream(
+                StreamSupport.stream(new PostponingReasonsSpliterator(iterator), false)
+                        .onClose(iterator::close)
+        );
     }
 
 }
@@ -29,6 +29,7 @@ import javax.annotation.concurrent.ThreadSafe;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
@@ -120,6 +121,13 @@ interface JdbcRepository<ObjType> extends Provider<ObjType, Long> {
         return getSqlDialect().insertSql(getTableName(), getColumnNamesForInsert(withId));
     }
 
+    /**
+     * Inserts all objects in JDBC batches within one transaction, generated keys are not fetched.
+     */
+    default void registerAll(Collection<ObjType> objects) {
+        Common.insertAll(this, objects);
+    }
+
 
     static Object wrapNull(Object o) {
         if (o == null) {
@@ -147,25 +155,14 @@ interface JdbcRepository<ObjType> extends Provider<ObjType, Long> {
 
         @Override
         public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
-            final SqlDialect sqlDialect = repo.getSqlDialect();
             final String sql = repo.getInsertSql(withId);
-            final PreparedStatement statement;
-
-            int i = 1;
-            if (withId) {
-                statement = con.prepareStatement(sql);
-                statement.setObject(i++, repo.extractId(object));
-            } else {
-                statement = con.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS);
-            }
+            final PreparedStatement statement = repo.getJdbcConnector().statementCache.prepare(con, sql, !withId);
 
-            for (Object o : repo.decomposeObject(object)) {
-                if (o instanceof Null) {
-                    o = null;
-                }
-                statement.setObject(i++,
-                        sqlDialect.translateForDb(o)
-                );
+            try {
+                Common.setInsertParameters(repo, statement, object, withId);
+            } catch (SQLException | RuntimeException ex) {
+                statement.close();
+                throw ex;
             }
 
             return statement;
@@ -74,6 +74,8 @@ public class LazyResultSetIterator<T> implements Iterator<T>, AutoCloseable {
     private final String sql;
 
     private ResultSet resultSet;
+    @Nullable
+    private StreamLeakTracker.Tracked tracked;
     private boolean didNext = false;
     private boolean hasNext = false;
     private boolean closed = false;
@@ -123,6 +125,7 @@ public class LazyResultSetIterator<T> implements Iterator<T>, AutoCloseable {
     private boolean askNext() {
         if (resultSet == null) {
             resultSet = resultSetSupplier.get();
+            tracked = trackLeak(resultSet, resultSetSupplier);
         }
 
         try {
@@ -140,6 +143,17 @@ public class LazyResultSetIterator<T> implements Iterator<T>, AutoCloseable {
         }
     }
 
+    private StreamLeakTracker.Tracked trackLeak(ResultSet rs, ResultSetSupplier supplier) {
+        // cleanup must not capture this iterator, otherwise it never becomes unreachable
+        return supplier.getStreamTracker().track(this, () -> {
+            try {
+                rs.close();
+            } finally {
+                supplier.close();
+            }
+        });
+    }
+
     private void closeResultSet(boolean eatException) {
         if (resultSet != null && !closed) {
             closed = true;
@@ -148,17 +162,23 @@ public class LazyResultSetIterator<T> implements Iterator<T>, AutoCloseable {
             } catch (SQLException ignore) {
                 logger.warn("ResultSet close exception", ignore);
             }
-            if (eatException) {
-                try {
+            try {
+                if (eatException) {
+                    try {
+                        resultSetSupplier.close();
+                    } catch (RuntimeException eaten) {
+                        logger.warn(
+                                "Statement and connection close exception; unable to rethrow it because another exception already caught up the stack",
+                                eaten
+                        );
+                    }
+                } else {
                     resultSetSupplier.close();
-                } catch (RuntimeException eaten) {
-                    logger.warn(
-                            "Statement and connection close exception; unable to rethrow it because another exception already caught up the stack",
-                            eaten
-                    );
                 }
-            } else {
-                resultSetSupplier.close();
+            } finally {
+                if (tracked != null) {
+                    tracked.untrack();
+                }
             }
         }
     }
@@ -19,9 +19,11 @@
 package ru.adios.budgeter.jdbcrepo;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ObjectArrays;
 import org.joda.money.CurrencyUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
 import ru.adios.budgeter.api.PostponedCurrencyExchangeEventRepository;
 import ru.adios.budgeter.api.UtcDay;
 import ru.adios.budgeter.api.data.BalanceAccount;
@@ -33,8 +35,15 @@ import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.OptionalLong;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -56,6 +65,8 @@ public class PostponedCurrencyExchangeEventJdbcRepository implements PostponedCu
     public static final String FK_SELL_ACC = "fk_pce_e_sell_acc";
     public static final String FK_AGENT = "fk_pce_e_agent";
     public static final String INDEX_DAY = "ix_pce_e_day";
+    public static final String REASONS_TABLE_NAME = "postponed_currency_exchange_reason";
+    public static final String INDEX_REASONS = "ix_pce_reason_day_unit";
     public static final String COL_ID = "id";
     public static final String COL_DAY = "day";
     public static final String COL_TO_BUY_AMOUNT = "to_buy_amount";
@@ -117,7 +128,21 @@ public class PostponedCurrencyExchangeEventJdbcRepository implements PostponedCu
         SqlDialect.appendWhereClausePart(true, builder.append(") OR ("), true, SqlDialect.Op.EQUAL, JOIN_TO_BUY_ACC_CURRENCY_UNIT, JOIN_SELL_ACC_CURRENCY_UNIT);
         return builder.append("))").toString();
     }
-    private static final String SQL_UPDATE_RELEVANCE = SqlDialect.getUpdateSqlStandard(TABLE_NAME, ImmutableList.of(COL_RELEVANT), ImmutableList.of(COL_ID));
+    private static final String SQL_UPDATE_RELEVANCE = "UPDATE " + TABLE_NAME + " SET " + COL_RELEVANT + " = ? WHERE " + COL_ID + " = ? AND " + COL_RELEVANT + " = ?";
+    private static final String SQL_COUNT_REASONS = getCountReasonsSql();
+    private static String getCountReasonsSql() {
+        final String unitSelect = "SELECT pc." + COL_ID + " AS id, pc." + COL_DAY + " AS day, %s." + JdbcTreasury.COL_CURRENCY_UNIT + " AS currency_unit"
+                + " FROM " + TABLE_NAME + " pc"
+                + " INNER JOIN " + JdbcTreasury.TABLE_NAME + " %1$s ON pc.%s = %1$s." + JdbcTreasury.COL_ID
+                + " WHERE pc." + COL_RELEVANT + " = ?";
+        return "SELECT day, currency_unit, COUNT(*) FROM ("
+                + String.format(unitSelect, "s", COL_SELL_ACCOUNT_ID)
+                + " UNION "
+                + String.format(unitSelect, "b", COL_TO_BUY_ACCOUNT_ID)
+                + ") u GROUP BY day, currency_unit";
+    }
+
+    static final PostponingReasonsTable REASONS = new PostponingReasonsTable(REASONS_TABLE_NAME, INDEX_REASONS);
 
 
     private final SafeJdbcConnector jdbcConnector;
@@ -225,7 +250,11 @@ public class PostponedCurrencyExchangeEventJdbcRepository implements PostponedCu
                                           Optional<BigDecimal> customRate,
                                           OffsetDateTime timestamp,
                                           FundsMutationAgent agent) {
-        Common.insert(this, new PostponedExchange(OptionalLong.empty(), toBuy, toBuyAccount, sellAccount, customRate, timestamp, agent, true));
+        Common.inTransaction(jdbcConnector, () -> {
+            Common.insert(this, new PostponedExchange(OptionalLong.empty(), toBuy, toBuyAccount, sellAccount, customRate, timestamp, agent, true));
+            addReasons(new UtcDay(timestamp), toBuyAccount.getUnit(), sellAccount.getUnit(), 1);
+            return null;
+        });
     }
 
     @Override
@@ -244,7 +273,12 @@ public class PostponedCurrencyExchangeEventJdbcRepository implements PostponedCu
     public boolean markEventProcessed(PostponedExchange exchange) {
         checkArgument(exchange.id.isPresent());
         try {
-            jdbcConnector.getJdbcTemplate().update(SQL_UPDATE_RELEVANCE, false, exchange.id.getAsLong());
+            Common.inTransaction(jdbcConnector, () -> {
+                if (jdbcConnector.getJdbcTemplate().update(SQL_UPDATE_RELEVANCE, false, exchange.id.getAsLong(), true) > 0) {
+                    addReasons(new UtcDay(exchange.timestamp), exchange.toBuyAccount.getUnit(), exchange.sellAccount.getUnit(), -1);
+                }
+                return null;
+            });
             return true;
         } catch (RuntimeException ex) {
             logger.error("Postponed task relevance update failed", ex);
@@ -252,6 +286,78 @@ public class PostponedCurrencyExchangeEventJdbcRepository implements PostponedCu
         }
     }
 
+    @Override
+    public int markEventsProcessed(Collection<PostponedExchange> exchanges) {
+        final LinkedHashMap<Long, PostponedExchange> byId = new LinkedHashMap<>(exchanges.size() * 2);
+        for (final PostponedExchange event : exchanges) {
+            checkArgument(event.id.isPresent());
+            byId.put(event.id.getAsLong(), event);
+        }
+        try {
+            // marks and counts change together, so reasons never lag behind relevance
+            return Common.inTransaction(jdbcConnector, () -> {
+                // only still relevant ones count in reasons
+                final List<Long> ids = Common.filterIdsByColumn(this, TABLE_NAME, COL_RELEVANT, true, COL_ID, new ArrayList<>(byId.keySet()));
+                final int marked = Common.updateColumnByIds(this, TABLE_NAME, COL_RELEVANT, false, COL_ID, ids);
+
+                final HashMap<PostponingReasonsTable.Key, Integer> deltas = new HashMap<>();
+                for (final Long id : ids) {
+                    mergeReasons(deltas, byId.get(id), -1);
+                }
+                REASONS.addAll(jdbcConnector.getJdbcTemplate(), sqlDialect, deltas);
+                return marked;
+            });
+        } catch (RuntimeException ex) {
+            logger.error("Postponed tasks relevance update failed", ex);
+            return 0;
+        }
+    }
+
+    @Override
+    public void registerAll(Collection<PostponedExchange> exchanges) {
+        if (exchanges.isEmpty()) {
+            return;
+        }
+        final ArrayList<PostponedExchange> relevant = new ArrayList<>(exchanges.size());
+        final HashMap<PostponingReasonsTable.Key, Integer> deltas = new HashMap<>();
+        for (final PostponedExchange e : exchanges) {
+            relevant.add(new PostponedExchange(OptionalLong.empty(), e.toBuy, e.toBuyAccount, e.sellAccount, e.customRate, e.timestamp, e.agent, true));
+            mergeReasons(deltas, e, 1);
+        }
+        Common.inTransaction(jdbcConnector, () -> {
+            final int inserted = Common.insertBatches(this, relevant);
+            REASONS.addAll(jdbcConnector.getJdbcTemplate(), sqlDialect, deltas);
+            return inserted;
+        });
+    }
+
+    private static void mergeReasons(Map<PostponingReasonsTable.Key, Integer> deltas, PostponedExchange event, int delta) {
+        final UtcDay day = new UtcDay(event.timestamp);
+        deltas.merge(new PostponingReasonsTable.Key(day, event.toBuyAccount.getUnit()), delta, Integer::sum);
+        if (!event.sellAccount.getUnit().equals(event.toBuyAccount.getUnit())) {
+            deltas.merge(new PostponingReasonsTable.Key(day, event.sellAccount.getUnit()), delta, Integer::sum);
+        }
+    }
+
+    private void addReasons(UtcDay day, CurrencyUnit toBuyUnit, CurrencyUnit sellUnit, int delta) {
+        final JdbcTemplate jdbcTemplate = jdbcConnector.getJdbcTemplate();
+        REASONS.add(jdbcTemplate, sqlDialect, day, toBuyUnit, delta);
+        if (!sellUnit.equals(toBuyUnit)) {
+            REASONS.add(jdbcTemplate, sqlDialect, day, sellUnit, delta);
+        }
+    }
+
+    /**
+     * Creates and fills postponing reasons table for a schema created before its introduction.
+     */
+    void upgradeReasonsIfNeeded(Consumer<String[]> ddlExecutor) {
+        final JdbcTemplate jdbcTemplate = jdbcConnector.getJdbcTemplate();
+        if (jdbcTemplate.query(sqlDialect.tableExistsSql(REASONS_TABLE_NAME), Common.STRING_ROW_MAPPER).isEmpty()) {
+            ddlExecutor.accept(REASONS.getCreateTableSql(sqlDialect));
+            jdbcTemplate.update(REASONS.getFillSql(SQL_COUNT_REASONS), true, true);
+        }
+    }
+
 
     private String getActualCreateTableSql() {
         return SqlDialect.CREATE_TABLE + TABLE_NAME
@@ -272,20 +378,20 @@ public class PostponedCurrencyExchangeEventJdbcRepository implements PostponedCu
 
     @Override
     public String[] getCreateTableSql() {
-        return new String[] {
+        return ObjectArrays.concat(new String[] {
                 getActualCreateTableSql(),
                 sqlDialect.createSeq(SEQ_NAME, TABLE_NAME),
                 sqlDialect.createIndexSql(INDEX_DAY, TABLE_NAME, false, COL_DAY)
-        };
+        }, REASONS.getCreateTableSql(sqlDialect), String.class);
     }
 
     @Override
     public String[] getDropTableSql() {
-        return new String[] {
+        return ObjectArrays.concat(REASONS.getDropTableSql(), new String[] {
                 sqlDialect.dropSeqCommand(SEQ_NAME),
                 SqlDialect.dropIndexCommand(INDEX_DAY),
                 SqlDialect.dropTableCommand(TABLE_NAME)
-        };
+        }, String.class);
     }
 
 
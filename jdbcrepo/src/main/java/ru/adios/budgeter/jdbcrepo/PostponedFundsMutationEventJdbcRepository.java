@@ -19,9 +19,11 @@
 package ru.adios.budgeter.jdbcrepo;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ObjectArrays;
 import org.joda.money.CurrencyUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
 import ru.adios.budgeter.api.PostponedFundsMutationEventRepository;
 import ru.adios.budgeter.api.UtcDay;
 import ru.adios.budgeter.api.data.FundsMutationEvent;
@@ -32,8 +34,15 @@ import javax.annotation.concurrent.ThreadSafe;
 import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.OptionalLong;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -55,6 +64,8 @@ public class PostponedFundsMutationEventJdbcRepository implements PostponedFunds
     public static final String FK_SUBJ = "fk_fme_subject";
     public static final String FK_AGENT = "fk_fme_agent";
     public static final String INDEX_DAY = "ix_fme_day";
+    public static final String REASONS_TABLE_NAME = "postponed_funds_mutation_reason";
+    public static final String INDEX_REASONS = "ix_fme_reason_day_unit";
     public static final String COL_ID = "id";
     public static final String COL_DAY = "day";
     public static final String COL_UNIT = "unit";
@@ -139,7 +150,15 @@ public class PostponedFundsMutationEventJdbcRepository implements PostponedFunds
         }
         return builder.toString();
     }
-    private static final String SQL_UPDATE_RELEVANCE = SqlDialect.getUpdateSqlStandard(TABLE_NAME, ImmutableList.of(COL_RELEVANT), ImmutableList.of(COL_ID));
+    private static final String SQL_UPDATE_RELEVANCE = "UPDATE " + TABLE_NAME + " SET " + COL_RELEVANT + " = ? WHERE " + COL_ID + " = ? AND " + COL_RELEVANT + " = ?";
+    private static final String SQL_COUNT_REASONS =
+            "SELECT day, currency_unit, COUNT(*) FROM ("
+                    + "SELECT " + COL_ID + " AS id, " + COL_DAY + " AS day, " + COL_UNIT + " AS currency_unit FROM " + TABLE_NAME + " WHERE " + COL_RELEVANT + " = ?"
+                    + " UNION "
+                    + "SELECT " + COL_ID + " AS id, " + COL_DAY + " AS day, " + COL_CONVERSION_UNIT + " AS currency_unit FROM " + TABLE_NAME + " WHERE " + COL_RELEVANT + " = ?"
+                    + ") u GROUP BY day, currency_unit";
+
+    static final PostponingReasonsTable REASONS = new PostponingReasonsTable(REASONS_TABLE_NAME, INDEX_REASONS);
 
 
     private final SafeJdbcConnector jdbcConnector;
@@ -248,7 +267,11 @@ public class PostponedFundsMutationEventJdbcRepository implements PostponedFunds
 
     @Override
     public void rememberPostponedExchangeableEvent(FundsMutationEvent mutationEvent, CurrencyUnit paidUnit, Optional<BigDecimal> customRate) {
-        Common.insert(this, new PostponedMutationEvent(OptionalLong.empty(), mutationEvent, paidUnit, customRate, true));
+        Common.inTransaction(jdbcConnector, () -> {
+            Common.insert(this, new PostponedMutationEvent(OptionalLong.empty(), mutationEvent, paidUnit, customRate, true));
+            addReasons(new UtcDay(mutationEvent.timestamp), mutationEvent.amount.getCurrencyUnit(), paidUnit, 1);
+            return null;
+        });
     }
 
     @Override
@@ -280,7 +303,12 @@ public class PostponedFundsMutationEventJdbcRepository implements PostponedFunds
     public boolean markEventProcessed(PostponedMutationEvent exchange) {
         checkArgument(exchange.id.isPresent());
         try {
-            jdbcConnector.getJdbcTemplate().update(SQL_UPDATE_RELEVANCE, false, exchange.id.getAsLong());
+            Common.inTransaction(jdbcConnector, () -> {
+                if (jdbcConnector.getJdbcTemplate().update(SQL_UPDATE_RELEVANCE, false, exchange.id.getAsLong(), true) > 0) {
+                    addReasons(new UtcDay(exchange.mutationEvent.timestamp), exchange.mutationEvent.amount.getCurrencyUnit(), exchange.conversionUnit, -1);
+                }
+                return null;
+            });
             return true;
         } catch (RuntimeException ex) {
             logger.error("Postponed task relevance update failed", ex);
@@ -288,6 +316,79 @@ public class PostponedFundsMutationEventJdbcRepository implements PostponedFunds
         }
     }
 
+    @Override
+    public int markEventsProcessed(Collection<PostponedMutationEvent> mutationEvents) {
+        final LinkedHashMap<Long, PostponedMutationEvent> byId = new LinkedHashMap<>(mutationEvents.size() * 2);
+        for (final PostponedMutationEvent event : mutationEvents) {
+            checkArgument(event.id.isPresent());
+            byId.put(event.id.getAsLong(), event);
+        }
+        try {
+            // marks and counts change together, so reasons never lag behind relevance
+            return Common.inTransaction(jdbcConnector, () -> {
+                // only still relevant ones count in reasons
+                final List<Long> ids = Common.filterIdsByColumn(this, TABLE_NAME, COL_RELEVANT, true, COL_ID, new ArrayList<>(byId.keySet()));
+                final int marked = Common.updateColumnByIds(this, TABLE_NAME, COL_RELEVANT, false, COL_ID, ids);
+
+                final HashMap<PostponingReasonsTable.Key, Integer> deltas = new HashMap<>();
+                for (final Long id : ids) {
+                    mergeReasons(deltas, byId.get(id), -1);
+                }
+                REASONS.addAll(jdbcConnector.getJdbcTemplate(), sqlDialect, deltas);
+                return marked;
+            });
+        } catch (RuntimeException ex) {
+            logger.error("Postponed tasks relevance update failed", ex);
+            return 0;
+        }
+    }
+
+    @Override
+    public void registerAll(Collection<PostponedMutationEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        final ArrayList<PostponedMutationEvent> relevant = new ArrayList<>(events.size());
+        final HashMap<PostponingReasonsTable.Key, Integer> deltas = new HashMap<>();
+        for (final PostponedMutationEvent e : events) {
+            relevant.add(new PostponedMutationEvent(OptionalLong.empty(), e.mutationEvent, e.conversionUnit, e.customRate, true));
+            mergeReasons(deltas, e, 1);
+        }
+        Common.inTransaction(jdbcConnector, () -> {
+            final int inserted = Common.insertBatches(this, relevant);
+            REASONS.addAll(jdbcConnector.getJdbcTemplate(), sqlDialect, deltas);
+            return inserted;
+        });
+    }
+
+    private static void mergeReasons(Map<PostponingReasonsTable.Key, Integer> deltas, PostponedMutationEvent event, int delta) {
+        final UtcDay day = new UtcDay(event.mutationEvent.timestamp);
+        final CurrencyUnit unit = event.mutationEvent.amount.getCurrencyUnit();
+        deltas.merge(new PostponingReasonsTable.Key(day, unit), delta, Integer::sum);
+        if (!event.conversionUnit.equals(unit)) {
+            deltas.merge(new PostponingReasonsTable.Key(day, event.conversionUnit), delta, Integer::sum);
+        }
+    }
+
+    private void addReasons(UtcDay day, CurrencyUnit unit, CurrencyUnit conversionUnit, int delta) {
+        final JdbcTemplate jdbcTemplate = jdbcConnector.getJdbcTemplate();
+        REASONS.add(jdbcTemplate, sqlDialect, day, unit, delta);
+        if (!conversionUnit.equals(unit)) {
+            REASONS.add(jdbcTemplate, sqlDialect, day, conversionUnit, delta);
+        }
+    }
+
+    /**
+     * Creates and fills postponing reasons table for a schema created before its introduction.
+     */
+    void upgradeReasonsIfNeeded(Consumer<String[]> ddlExecutor) {
+        final JdbcTemplate jdbcTemplate = jdbcConnector.getJdbcTemplate();
+        if (jdbcTemplate.query(sqlDialect.tableExistsSql(REASONS_TABLE_NAME), Common.STRING_ROW_MAPPER).isEmpty()) {
+            ddlExecutor.accept(REASONS.getCreateTableSql(sqlDialect));
+            jdbcTemplate.update(REASONS.getFillSql(SQL_COUNT_REASONS), true, true);
+        }
+    }
+
 
     private String getActualCreateTableSql() {
         return SqlDialect.CREATE_TABLE + TABLE_NAME
@@ -311,20 +412,20 @@ public class PostponedFundsMutationEventJdbcRepository implements PostponedFunds
 
     @Override
     public String[] getCreateTableSql() {
-        return new String[] {
+        return ObjectArrays.concat(new String[] {
                 getActualCreateTableSql(),
                 sqlDialect.createSeq(SEQ_NAME, TABLE_NAME),
                 sqlDialect.createIndexSql(INDEX_DAY, TABLE_NAME, false, COL_DAY)
-        };
+        }, REASONS.getCreateTableSql(sqlDialect), String.class);
     }
 
     @Override
     public String[] getDropTableSql() {
-        return new String[] {
+        return ObjectArrays.concat(REASONS.getDropTableSql(), new String[] {
                 sqlDialect.dropSeqCommand(SEQ_NAME),
                 SqlDialect.dropIndexCommand(INDEX_DAY),
                 SqlDialect.dropTableCommand(TABLE_NAME)
-        };
+        }, String.class);
     }
 
 
@@ -0,0 +1,137 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter.jdbcrepo;
+
+import com.google.common.collect.ImmutableSet;
+import org.joda.money.CurrencyUnit;
+import ru.adios.budgeter.api.Accounter;
+import ru.adios.budgeter.api.UtcDay;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Groups (day, currency) rows ordered by day into one {@link Accounter.PostponingReasons} per day run.
+ * Splits hand off whole days only, so the resulting stream is safe to run in parallel.
+ */
+@NotThreadSafe
+final class PostponingReasonsSpliterator implements Spliterator<Accounter.PostponingReasons> {
+
+    private static final int BATCH_UNIT = 16;
+    private static final int MAX_BATCH = 1 << 12;
+
+    @Immutable
+    static final class Row {
+        final UtcDay day;
+        final CurrencyUnit unit;
+
+        Row(UtcDay day, CurrencyUnit unit) {
+            this.day = day;
+            this.unit = unit;
+        }
+    }
+
+    private final Iterator<Row> rows;
+    private final ArrayList<CurrencyUnit> units = new ArrayList<>(8);
+    @Nullable private Row lookahead;
+    private int batch = 0;
+
+    PostponingReasonsSpliterator(Iterator<Row> rows) {
+        this.rows = checkNotNull(rows, "rows");
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Accounter.PostponingReasons> action) {
+        final Accounter.PostponingReasons reasons = nextGroup();
+        if (reasons == null) {
+            return false;
+        }
+        action.accept(reasons);
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Accounter.PostponingReasons> action) {
+        Accounter.PostponingReasons reasons;
+        while ((reasons = nextGroup()) != null) {
+            action.accept(reasons);
+        }
+    }
+
+    @Override
+    @Nullable
+    public Spliterator<Accounter.PostponingReasons> trySplit() {
+        final int size = Math.min(batch + BATCH_UNIT, MAX_BATCH);
+        final Accounter.PostponingReasons[] prefix = new Accounter.PostponingReasons[size];
+        int count = 0;
+        Accounter.PostponingReasons reasons;
+        while (count < size && (reasons = nextGroup()) != null) {
+            prefix[count++] = reasons;
+        }
+        if (count == 0) {
+            return null;
+        }
+        batch = count;
+        return Spliterators.spliterator(prefix, 0, count, characteristics());
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | DISTINCT | NONNULL;
+    }
+
+    @Nullable
+    private Accounter.PostponingReasons nextGroup() {
+        Row row = lookahead;
+        lookahead = null;
+        if (row == null) {
+            if (!rows.hasNext()) {
+                return null;
+            }
+            row = rows.next();
+        }
+
+        final UtcDay day = row.day;
+        units.clear();
+        units.add(row.unit);
+        while (rows.hasNext()) {
+            row = rows.next();
+            if (!row.day.equals(day)) {
+                lookahead = row;
+                break;
+            }
+            units.add(row.unit);
+        }
+        return new Accounter.PostponingReasons(day, ImmutableSet.copyOf(units));
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter.jdbcrepo;
+
+import com.google.common.collect.ImmutableList;
+import org.joda.money.CurrencyUnit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.adios.budgeter.api.UtcDay;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Map;
+
+/**
+ * Reference counts of relevant postponed events by (day, currency), maintained by a postponed events repository
+ * along with its own table, so that postponing reasons are read without scanning events history.
+ * Rows are removed once their count drops to zero. Changes are meant to run in the transaction that writes the events.
+ */
+@Immutable
+final class PostponingReasonsTable {
+
+    static final String COL_DAY = "day";
+    static final String COL_CURRENCY_UNIT = "currency_unit";
+    static final String COL_REFCOUNT = "refcount";
+
+    private static final ImmutableList<String> INSERT_COLUMNS = ImmutableList.of(COL_DAY, COL_CURRENCY_UNIT, COL_REFCOUNT);
+
+    final String tableName;
+    private final String indexName;
+    private final String sqlIncrement;
+    private final String sqlDeleteEmpty;
+
+    PostponingReasonsTable(String tableName, String indexName) {
+        this.tableName = tableName;
+        this.indexName = indexName;
+        final String keyCondition = " WHERE " + COL_DAY + " = ? AND " + COL_CURRENCY_UNIT + " = ?";
+        sqlIncrement = "UPDATE " + tableName + " SET " + COL_REFCOUNT + " = " + COL_REFCOUNT + " + ?" + keyCondition;
+        sqlDeleteEmpty = "DELETE FROM " + tableName + keyCondition + " AND " + COL_REFCOUNT + " <= 0";
+    }
+
+    String[] getCreateTableSql(SqlDialect sqlDialect) {
+        return new String[] {
+                SqlDialect.CREATE_TABLE + tableName
+                        + " (" + COL_DAY + ' ' + sqlDialect.timestampWithoutTimezoneType() + ", "
+                            + COL_CURRENCY_UNIT + " INT, "
+                            + COL_REFCOUNT + " INT"
+                        + ')',
+                sqlDialect.createIndexSql(indexName, tableName, true, COL_DAY, COL_CURRENCY_UNIT)
+        };
+    }
+
+    String[] getDropTableSql() {
+        return new String[] {
+                SqlDialect.dropIndexCommand(indexName),
+                SqlDialect.dropTableCommand(tableName)
+        };
+    }
+
+    /**
+     * Select of (day, currency_unit) with counts for all relevant events, used to fill the table for existing data.
+     */
+    String getFillSql(String countingSelect) {
+        return "INSERT INTO " + tableName + " (" + COL_DAY + ", " + COL_CURRENCY_UNIT + ", " + COL_REFCOUNT + ") " + countingSelect;
+    }
+
+    void add(JdbcTemplate jdbcTemplate, SqlDialect sqlDialect, UtcDay day, CurrencyUnit unit, int delta) {
+        final Object dayForDb = sqlDialect.translateForDb(day);
+        final int unitCode = unit.getNumericCode();
+        if (delta > 0) {
+            // upsert: unique index keeps concurrent adders from creating two rows, both increments land on the same one
+            jdbcTemplate.update(sqlDialect.insertOrIgnoreSql(tableName, INSERT_COLUMNS), dayForDb, unitCode, 0);
+            jdbcTemplate.update(sqlIncrement, delta, dayForDb, unitCode);
+        } else if (delta < 0 && jdbcTemplate.update(sqlIncrement, delta, dayForDb, unitCode) > 0) {
+            jdbcTemplate.update(sqlDeleteEmpty, dayForDb, unitCode);
+        }
+    }
+
+    void addAll(JdbcTemplate jdbcTemplate, SqlDialect sqlDialect, Map<Key, Integer> deltas) {
+        for (final Map.Entry<Key, Integer> entry : deltas.entrySet()) {
+            add(jdbcTemplate, sqlDialect, entry.getKey().day, entry.getKey().unit, entry.getValue());
+        }
+    }
+
+    @Immutable
+    static final class Key {
+        private final UtcDay day;
+        private final CurrencyUnit unit;
+
+        Key(UtcDay day, CurrencyUnit unit) {
+            this.day = day;
+            this.unit = unit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key key = (Key) o;
+            return day.equals(key.day) && unit.equals(key.unit);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * day.hashCode() + unit.hashCode();
+        }
+    }
+
+}
@@ -0,0 +1,273 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter.jdbcrepo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Prepared statements kept per physical connection and SQL, least recently used ones are closed above capacity.
+ * A statement is taken out of the cache while in use, so the same SQL run concurrently on one connection
+ * (e.g. nested streams in a transaction) gets a statement of its own. Statements are handed out as proxies
+ * which {@code close()} returns them to the cache, so they fit both {@link ResultSetSupplier} and JdbcTemplate.
+ */
+@ThreadSafe
+final class PreparedStatementCache {
+
+    static final int DEFAULT_CAPACITY = 64;
+
+    private static final Logger logger = LoggerFactory.getLogger(PreparedStatementCache.class);
+
+    @Immutable
+    private static final class Key {
+        private final String sql;
+        private final boolean generatedKeys;
+
+        private Key(String sql, boolean generatedKeys) {
+            this.sql = sql;
+            this.generatedKeys = generatedKeys;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key key = (Key) o;
+            return generatedKeys == key.generatedKeys && sql.equals(key.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sql.hashCode() + (generatedKeys ? 1 : 0);
+        }
+    }
+
+    @ThreadSafe
+    private final class ConnectionStatements {
+        @GuardedBy("this")
+        private final LinkedHashMap<Key, PreparedStatement> idle = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+                if (size() > capacity) {
+                    evictions.incrementAndGet();
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        private synchronized PreparedStatement take(Key key) {
+            return idle.remove(key);
+        }
+
+        private synchronized void giveBack(Key key, PreparedStatement statement) {
+            if (idle.putIfAbsent(key, statement) != null) {
+                closeQuietly(statement); // another one for the same SQL was released first
+            }
+        }
+    }
+
+    private volatile int capacity;
+
+    @GuardedBy("this") private final WeakHashMap<Connection, ConnectionStatements> connections = new WeakHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    PreparedStatementCache(int capacity) {
+        setCapacity(capacity);
+    }
+
+    /**
+     * Zero capacity turns caching off, statements are prepared and closed every time then.
+     */
+    void setCapacity(int capacity) {
+        checkArgument(capacity >= 0, "Negative capacity");
+        this.capacity = capacity;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return statement which {@code close()} gives it back to the cache
+     */
+    PreparedStatement prepare(Connection connection, String sql, boolean generatedKeys) throws SQLException {
+        if (capacity == 0) {
+            misses.incrementAndGet();
+            return prepareOn(connection, sql, generatedKeys);
+        }
+
+        final Connection physical = physical(connection);
+        final ConnectionStatements statements = statementsFor(physical);
+        final Key key = new Key(sql, generatedKeys);
+        final PreparedStatement cached = statements.take(key);
+        final PreparedStatement statement;
+        if (cached != null && !cached.isClosed()) {
+            hits.incrementAndGet();
+            statement = cached;
+        } else {
+            misses.incrementAndGet();
+            statement = prepareOn(physical, sql, generatedKeys);
+        }
+        return lease(statements, key, statement);
+    }
+
+    private PreparedStatement lease(ConnectionStatements statements, Key key, PreparedStatement statement) {
+        final boolean[] released = new boolean[] {false};
+        final boolean[] tuned = new boolean[] {false};
+        final boolean[] batched = new boolean[] {false};
+        return (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatementCache.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            if (!released[0]) {
+                                released[0] = true;
+                                release(statements, key, statement, tuned[0], batched[0]);
+                            }
+                            return null;
+                        case "setFetchSize":
+                        case "setMaxRows":
+                            tuned[0] = true;
+                            return invoke(method, statement, args);
+                        case "addBatch":
+                            batched[0] = true;
+                            return invoke(method, statement, args);
+                        case "isClosed":
+                            return released[0] || statement.isClosed();
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            return invoke(method, statement, args);
+                    }
+                }
+        );
+    }
+
+    private static Object invoke(Method method, PreparedStatement statement, Object[] args) throws Throwable {
+        try {
+            return method.invoke(statement, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private void release(ConnectionStatements statements, Key key, PreparedStatement statement, boolean tuned, boolean batched) throws SQLException {
+        if (capacity == 0 || statement.isClosed()) {
+            closeQuietly(statement);
+            return;
+        }
+        try {
+            statement.clearParameters();
+            statement.clearWarnings();
+            if (batched) {
+                // rows queued before a failure must not be executed by the next user
+                statement.clearBatch();
+            }
+            if (tuned) {
+                // next user of the same SQL must not inherit stream hints
+                statement.setMaxRows(0);
+                statement.setFetchSize(0);
+            }
+        } catch (SQLException ex) {
+            closeQuietly(statement);
+            throw ex;
+        }
+        statements.giveBack(key, statement);
+    }
+
+    private synchronized ConnectionStatements statementsFor(Connection physical) throws SQLException {
+        ConnectionStatements statements = connections.get(physical);
+        if (statements == null) {
+            // cached statements reference their connections, so entries of closed ones are dropped here
+            final Iterator<Connection> it = connections.keySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().isClosed()) {
+                    it.remove();
+                }
+            }
+            statements = new ConnectionStatements();
+            connections.put(physical, statements);
+        }
+        return statements;
+    }
+
+    private static Connection physical(Connection connection) {
+        try {
+            if (connection.isWrapperFor(Connection.class)) {
+                return connection.unwrap(Connection.class);
+            }
+        } catch (SQLException | AbstractMethodError ignore) {
+            // not a wrapper
+        }
+        return connection;
+    }
+
+    private static PreparedStatement prepareOn(Connection connection, String sql, boolean generatedKeys) throws SQLException {
+        return generatedKeys
+                ? connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)
+                : connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ex) {
+            logger.debug("Cached statement close threw exception", ex);
+        }
+    }
+
+}
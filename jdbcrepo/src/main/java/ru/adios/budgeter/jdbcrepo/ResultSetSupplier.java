@@ -43,6 +43,7 @@ class ResultSetSupplier implements Supplier<ResultSet>, AutoCloseable {
     private final String sql;
     @Nullable
     private final String op;
+    private final StreamHints hints;
 
     private PreparedStatement statement;
     private JdbcConnectionHolder connectionHolder;
@@ -52,16 +53,24 @@ class ResultSetSupplier implements Supplier<ResultSet>, AutoCloseable {
     }
 
     ResultSetSupplier(SafeJdbcConnector jdbcConnector, String sql, @Nullable String op) {
+        this(jdbcConnector, sql, op, StreamHints.DRIVER_DEFAULTS);
+    }
+
+    ResultSetSupplier(SafeJdbcConnector jdbcConnector, String sql, @Nullable String op, StreamHints hints) {
         this.jdbcConnector = jdbcConnector;
         this.sql = sql;
         this.op = op;
+        this.hints = hints;
     }
 
     @Override
     public ResultSet get() {
+        // leaked streams may hold connections the pool is out of, reclaim them before asking for one
+        jdbcConnector.streamTracker.expungeLeaked();
         try {
             connectionHolder = jdbcConnector.getConnection();
-            statement = connectionHolder.connection.prepareStatement(sql);
+            statement = jdbcConnector.statementCache.prepare(connectionHolder.connection, sql, false);
+            hints.applyTo(statement);
             enrichStatement(statement);
             return statement.executeQuery();
         } catch (SQLException e) {
@@ -74,6 +83,10 @@ class ResultSetSupplier implements Supplier<ResultSet>, AutoCloseable {
     protected void enrichStatement(PreparedStatement statement) throws SQLException {
     }
 
+    StreamLeakTracker getStreamTracker() {
+        return jdbcConnector.streamTracker;
+    }
+
     @Override
     public void close() {
         closeInner(false);
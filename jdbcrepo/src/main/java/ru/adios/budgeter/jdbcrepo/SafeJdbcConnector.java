@@ -19,6 +19,7 @@
 package ru.adios.budgeter.jdbcrepo;
 
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
@@ -42,6 +43,9 @@ final class SafeJdbcConnector {
 
     volatile JdbcTransactionalSupport transactionalSupport;
 
+    final PreparedStatementCache statementCache = new PreparedStatementCache(PreparedStatementCache.DEFAULT_CAPACITY);
+    final StreamLeakTracker streamTracker = new StreamLeakTracker();
+
     SafeJdbcConnector(DataSource dataSource) {
         setDataSource(dataSource, null);
     }
@@ -67,6 +71,13 @@ final class SafeJdbcConnector {
         return jdbcTemplate;
     }
 
+    /**
+     * @return true if a transaction's connection is bound to the calling thread; its uncommitted changes are seen through it only
+     */
+    boolean isTransactionBound() {
+        return TransactionSynchronizationManager.getResource(dataSource) != null;
+    }
+
     JdbcConnectionHolder getConnection() throws SQLException {
         final JdbcTransactionalSupport txSupport = transactionalSupport;
         final JdbcConnectionHolder ret;
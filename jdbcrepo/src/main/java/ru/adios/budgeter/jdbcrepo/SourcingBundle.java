@@ -134,6 +134,90 @@ public final class SourcingBundle implements Bundle {
         jdbcConnector.transactionalSupport = (JdbcTransactionalSupport) txSupport;
     }
 
+    /**
+     * Prepared statements cache metrics: statements reused, prepared anew and closed to stay within capacity.
+     */
+    public static final class StatementCacheStats {
+        public final int capacity;
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+
+        private StatementCacheStats(int capacity, long hits, long misses, long evictions) {
+            this.capacity = capacity;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        public double getHitRatio() {
+            final long total = hits + misses;
+            return total == 0
+                    ? 0.0
+                    : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return "StatementCacheStats{capacity=" + capacity + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + '}';
+        }
+    }
+
+    public StatementCacheStats getStatementCacheStats() {
+        final PreparedStatementCache cache = jdbcConnector.statementCache;
+        return new StatementCacheStats(cache.getCapacity(), cache.getHits(), cache.getMisses(), cache.getEvictions());
+    }
+
+    /**
+     * Sets number of prepared statements kept per connection, zero turns caching off.
+     */
+    public void setStatementCacheCapacity(int capacity) {
+        jdbcConnector.statementCache.setCapacity(capacity);
+    }
+
+    /**
+     * Result set streams metrics: streams which ran their query, were closed and were released after becoming
+     * unreachable without close.
+     */
+    public static final class StreamStats {
+        public final long opened;
+        public final long closed;
+        public final long leaked;
+
+        private StreamStats(long opened, long closed, long leaked) {
+            this.opened = opened;
+            this.closed = closed;
+            this.leaked = leaked;
+        }
+
+        /**
+         * @return streams holding a statement and a connection at the moment
+         */
+        public long getOpen() {
+            return opened - closed - leaked;
+        }
+
+        @Override
+        public String toString() {
+            return "StreamStats{opened=" + opened + ", closed=" + closed + ", leaked=" + leaked + '}';
+        }
+    }
+
+    public StreamStats getStreamStats() {
+        final StreamLeakTracker tracker = jdbcConnector.streamTracker;
+        tracker.expungeLeaked();
+        final long closed = tracker.getClosed();
+        final long leaked = tracker.getLeaked();
+        return new StreamStats(tracker.getOpened(), closed, leaked);
+    }
+
+    /**
+     * Turns on recording of where each stream was opened, to be logged if the stream leaks. Costs a stack trace per stream.
+     */
+    public void setStreamLeakDetection(boolean leakDetection) {
+        jdbcConnector.streamTracker.setLeakDetection(leakDetection);
+    }
+
     @Override
     public FundsMutationSubjectRepository fundsMutationSubjects() {
         return (FundsMutationSubjectRepository) order.get(Repo.FUNDS_MUTATION_SUBJECTS);
@@ -198,6 +282,13 @@ public final class SourcingBundle implements Bundle {
         final JdbcTemplate jdbcTemplate = jdbcConnector.getJdbcTemplate();
         if (jdbcTemplate.query(sqlDialect.tableExistsSql(FundsMutationAgentJdbcRepository.TABLE_NAME), Common.STRING_ROW_MAPPER).isEmpty()) {
             createSchema(jdbcTemplate);
+        } else {
+            ((PostponedCurrencyExchangeEventJdbcRepository) order.get(Repo.POSTPONED_CURRENCY_EXCHANGE_EVENTS))
+                    .upgradeReasonsIfNeeded(sql -> executeMultipleSql(jdbcTemplate, sql, logger));
+            ((PostponedFundsMutationEventJdbcRepository) order.get(Repo.POSTPONED_FUNDS_MUTATION_EVENTS))
+                    .upgradeReasonsIfNeeded(sql -> executeMultipleSql(jdbcTemplate, sql, logger));
+            ((CurrencyRatesJdbcRepository) order.get(Repo.CURRENCY_RATES))
+                    .upgradeLatestIndexIfNeeded(sql -> executeMultipleSql(jdbcTemplate, sql, logger));
         }
     }
 
@@ -192,6 +192,16 @@ public interface SqlDialect {
         return first;
     }
 
+    static boolean appendInClausePart(boolean first, StringBuilder sb, String column, int paramsNumber) {
+        if (!first) {
+            sb.append(" AND");
+        }
+        sb.append(' ').append(column).append(" IN (");
+        appendParams(sb, 1, paramsNumber);
+        sb.append(')');
+        return false;
+    }
+
     static boolean appendColumns(StringBuilder sb, String[] columns) {
         return appendColumns(sb, columns, null);
     }
@@ -378,12 +388,17 @@ public interface SqlDialect {
 
     String CREATE_TABLE = "CREATE TABLE ";
     String OPTIMIZED_PSEUDO_NAMED_PARAM = "ids";
+    int MAX_BATCH_PARAMS = 900; // SQLite has 999 host parameters limit by default
+    int INSERT_BATCH_ROWS = 500;
+    int STREAM_FETCH_SIZE = 256;
 
 
     String checkNameCase(String nameCapitalized);
 
     String tableExistsSql(String tableName);
 
+    String indexExistsSql(String indexName);
+
     String textType();
 
     String decimalType();
@@ -416,8 +431,20 @@ public interface SqlDialect {
 
     String insertSql(String tableName, List<String> columns);
 
+    /**
+     * Insert which silently skips rows violating unique constraints.
+     */
+    String insertOrIgnoreSql(String tableName, List<String> columns);
+
     String selectAllSql(String tableName);
 
+    /**
+     * Rows per round trip for streaming queries, zero for driver default.
+     */
+    default int streamFetchSize() {
+        return STREAM_FETCH_SIZE;
+    }
+
     Object translateForDb(Object object);
 
     <T> T translateFromDb(Object object, Class<T> type);
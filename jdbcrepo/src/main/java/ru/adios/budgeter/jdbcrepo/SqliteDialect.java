@@ -54,6 +54,7 @@ public final class SqliteDialect implements SqlDialect {
     private static final String SEQUENCE_CURRENT_VALUE_SQL = "SELECT seq FROM sqlite_sequence WHERE name = ";
     private static final String SEQUENCE_SET_VALUE_SQL = "UPDATE sqlite_sequence SET seq = ? WHERE name = ";
     private static final String TABLE_EXISTENCE_QUERY = "SELECT name FROM sqlite_master WHERE type='table' AND name = '";
+    private static final String INDEX_EXISTENCE_QUERY = "SELECT name FROM sqlite_master WHERE type='index' AND name = '";
     private static final int MAX_LONG_PRECISION = BigInteger.valueOf(Long.MAX_VALUE).toString().length();
 
     private SqliteDialect() {}
@@ -68,6 +69,11 @@ public final class SqliteDialect implements SqlDialect {
         return TABLE_EXISTENCE_QUERY + tableName + '\'';
     }
 
+    @Override
+    public String indexExistsSql(String indexName) {
+        return INDEX_EXISTENCE_QUERY + indexName + '\'';
+    }
+
     @Override
     public String textType() {
         return TEXT_TYPE;
@@ -152,10 +158,19 @@ public final class SqliteDialect implements SqlDialect {
 
     @Override
     public String insertSql(String tableName, List<String> columns) {
+        return insertSql("INSERT INTO ", tableName, columns);
+    }
+
+    @Override
+    public String insertOrIgnoreSql(String tableName, List<String> columns) {
+        return insertSql("INSERT OR IGNORE INTO ", tableName, columns);
+    }
+
+    private static String insertSql(String command, String tableName, List<String> columns) {
         final int size = columns.size();
-        final StringBuilder sb = new StringBuilder(25 + tableName.length() + size * 15);
+        final StringBuilder sb = new StringBuilder(command.length() + 15 + tableName.length() + size * 15);
 
-        sb.append("INSERT INTO ")
+        sb.append(command)
                 .append(tableName)
                 .append(" (");
 
@@ -175,6 +190,11 @@ public final class SqliteDialect implements SqlDialect {
         return "SELECT * FROM " + tableName;
     }
 
+    @Override
+    public int streamFetchSize() {
+        return 0; // rows are stepped one by one by the engine, there are no round trips to batch
+    }
+
     @Override
     public Object translateForDb(Object object) {
         if (object == null) {
@@ -0,0 +1,76 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter.jdbcrepo;
+
+import ru.adios.budgeter.api.OptLimit;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Per operation cursor tuning of a streaming query: rows fetched per round trip and max rows to read.
+ * Zero leaves driver default in place.
+ */
+@Immutable
+final class StreamHints {
+
+    static final StreamHints DRIVER_DEFAULTS = new StreamHints(0, 0);
+
+    static StreamHints forDialect(SqlDialect sqlDialect) {
+        return forDialect(sqlDialect, null);
+    }
+
+    /**
+     * Max rows are taken from the limit, fetch size is capped by them so short pages don't over-fetch.
+     */
+    static StreamHints forDialect(SqlDialect sqlDialect, @Nullable OptLimit limit) {
+        final int maxRows = limit != null && limit.limit > 0 ? limit.limit : 0;
+        int fetchSize = sqlDialect.streamFetchSize();
+        if (maxRows > 0 && fetchSize > maxRows) {
+            fetchSize = maxRows;
+        }
+        return fetchSize == 0 && maxRows == 0 ? DRIVER_DEFAULTS : new StreamHints(fetchSize, maxRows);
+    }
+
+    final int fetchSize;
+    final int maxRows;
+
+    private StreamHints(int fetchSize, int maxRows) {
+        this.fetchSize = fetchSize;
+        this.maxRows = maxRows;
+    }
+
+    void applyTo(PreparedStatement statement) throws SQLException {
+        // max rows go first, some drivers check fetch size against them
+        if (maxRows > 0) {
+            statement.setMaxRows(maxRows);
+        }
+        if (fetchSize > 0) {
+            statement.setFetchSize(fetchSize);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StreamHints{fetchSize=" + fetchSize + ", maxRows=" + maxRows + '}';
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter.jdbcrepo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Phantom reference tracking of opened result set streams, releasing statements and connections of the ones
+ * which became unreachable without being closed. Unreachable streams are reclaimed on the next stream opening
+ * or stats request, there is no background thread.
+ * In leak detection mode the stack of a stream opening is recorded and logged when the stream leaks.
+ */
+@ThreadSafe
+final class StreamLeakTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamLeakTracker.class);
+
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+    // phantom references must stay reachable themselves to be enqueued
+    private final Set<Tracked> tracked = ConcurrentHashMap.newKeySet();
+    private final AtomicLong opened = new AtomicLong(0);
+    private final AtomicLong closed = new AtomicLong(0);
+    private final AtomicLong leaked = new AtomicLong(0);
+    private volatile boolean leakDetection = false;
+
+    final class Tracked extends PhantomReference<Object> {
+        private final AutoCloseable resource;
+        @Nullable private final Throwable openedAt;
+
+        private Tracked(Object stream, AutoCloseable resource, @Nullable Throwable openedAt) {
+            super(stream, queue);
+            this.resource = resource;
+            this.openedAt = openedAt;
+        }
+
+        /**
+         * Called by the owner after it released the resource itself.
+         */
+        void untrack() {
+            if (tracked.remove(this)) {
+                clear();
+                closed.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @param stream   object the user holds, must not be reachable from the resource
+     * @param resource what to close if the stream leaks
+     */
+    Tracked track(Object stream, AutoCloseable resource) {
+        final Tracked ref = new Tracked(stream, resource, leakDetection ? new Throwable("Unclosed stream opened here") : null);
+        tracked.add(ref);
+        opened.incrementAndGet();
+        return ref;
+    }
+
+    void expungeLeaked() {
+        Reference<?> ref;
+        while ((ref = queue.poll()) != null) {
+            final Tracked leak = (Tracked) ref;
+            if (!tracked.remove(leak)) {
+                continue;
+            }
+            leaked.incrementAndGet();
+            if (leak.openedAt != null) {
+                logger.warn("Result set stream was not closed, releasing its statement and connection", leak.openedAt);
+            } else {
+                logger.warn("Result set stream was not closed, releasing its statement and connection; turn on leak detection to find out where it was opened");
+            }
+            try {
+                leak.resource.close();
+            } catch (Exception ex) {
+                logger.debug("Leaked stream resource close threw exception", ex);
+            }
+        }
+    }
+
+    void setLeakDetection(boolean leakDetection) {
+        this.leakDetection = leakDetection;
+    }
+
+    boolean isLeakDetection() {
+        return leakDetection;
+    }
+
+    long getOpened() {
+        return opened.get();
+    }
+
+    long getClosed() {
+        return closed.get();
+    }
+
+    long getLeaked() {
+        return leaked.get();
+    }
+
+}
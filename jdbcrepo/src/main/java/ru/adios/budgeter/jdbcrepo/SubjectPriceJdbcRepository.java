@@ -32,6 +32,7 @@ import ru.adios.budgeter.api.data.SubjectPrice;
 import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Stream;
@@ -251,6 +252,11 @@ public class SubjectPriceJdbcRepository implements SubjectPriceRepository, JdbcR
         Common.insert(this, subjectPrice);
     }
 
+    @Override
+    public void registerAll(Collection<SubjectPrice> subjectPrices) {
+        Common.insertAll(this, subjectPrices);
+    }
+
     @Override
     public boolean priceExists(FundsMutationSubject subject, FundsMutationAgent agent, UtcDay day) {
         checkSubjectAndAgent(subject, agent);
@@ -313,7 +319,7 @@ public class SubjectPriceJdbcRepository implements SubjectPriceRepository, JdbcR
         ).toString();
 
         return LazyResultSetIterator.stream(
-                Common.getRsSupplierWithParams(jdbcConnector, sqlDialect, sql, ImmutableList.copyOf(params), methodName),
+                Common.getRsSupplierWithParams(jdbcConnector, sqlDialect, sql, ImmutableList.copyOf(params), methodName, StreamHints.forDialect(sqlDialect, limit.orElse(null))),
                 Common.getMappingSqlFunction(rowMapper, sql, methodName)
         );
     }
@@ -57,4 +57,9 @@ public class CurrencyExchangeEventJdbcRepositoryTest {
         TestContext.ex(tester::testStreamForDay);
     }
 
+    @Test
+    public void testRegisterAll() throws Exception {
+        TestContext.ex(tester::testRegisterAll);
+    }
+
 }
@@ -19,8 +19,11 @@
 package ru.adios.budgeter.jdbcrepo;
 
 import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
 import ru.adios.budgeter.api.CurrencyRatesTester;
 
+import static org.junit.Assert.assertEquals;
+
 /**
  * Date: 6/15/15
  * Time: 8:14 PM
@@ -36,11 +39,26 @@ public class CurrencyRatesJdbcRepositoryTest {
         tester.testAddRate(2000);
     }
 
+    @Test
+    public void testAddRates() throws Exception {
+        TestContext.ex(tester::testAddRates);
+    }
+
     @Test
     public void testGetConversionMultiplier() throws Exception {
         TestContext.ex(tester::testGetConversionMultiplier);
     }
 
+    @Test
+    public void testGetConversionMultipliers() throws Exception {
+        TestContext.ex(tester::testGetConversionMultipliers);
+    }
+
+    @Test
+    public void testGetConversionMultipliersStraightMany() throws Exception {
+        TestContext.ex(tester::testGetConversionMultipliersStraightMany);
+    }
+
     @Test
     public void testGetLatestOptionalConversionMultiplier() throws Exception {
         TestContext.ex(tester::testGetLatestOptionalConversionMultiplier);
@@ -61,4 +79,24 @@ public class CurrencyRatesJdbcRepositoryTest {
         TestContext.ex(tester::testStreamConversionPairs);
     }
 
+    @Test
+    public void testUpgradeLatestIndex() throws Exception {
+        TestContext.ex(this::upgradeLatestIndex);
+    }
+
+    private void upgradeLatestIndex() {
+        final CurrencyRatesJdbcRepository repo = (CurrencyRatesJdbcRepository) TestContext.BUNDLE.currencyRates();
+        final JdbcTemplate jdbcTemplate = repo.getJdbcConnector().getJdbcTemplate();
+        final String existenceSql = SqliteDialect.INSTANCE.indexExistsSql(CurrencyRatesJdbcRepository.INDEX_LATEST);
+
+        jdbcTemplate.execute(SqlDialect.dropIndexCommand(CurrencyRatesJdbcRepository.INDEX_LATEST));
+        assertEquals(0, jdbcTemplate.query(existenceSql, Common.STRING_ROW_MAPPER).size());
+        TestContext.BUNDLE.createSchemaIfNeeded();
+        assertEquals("Index wasn't created on upgrade", 1, jdbcTemplate.query(existenceSql, Common.STRING_ROW_MAPPER).size());
+
+        repo.upgradeLatestIndexIfNeeded(sql -> {
+            throw new AssertionError("Existing index recreated");
+        });
+    }
+
 }
@@ -62,4 +62,9 @@ public class FundsMutationEventJdbcRepositoryTest {
         TestContext.ex(tester::testStreamForDay);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testRegisterAll() throws Exception {
+        TestContext.ex(tester::testRegisterAll);
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter.jdbcrepo;
+
+import org.junit.Test;
+import ru.adios.budgeter.api.data.FundsMutationAgent;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IdRangeSpliteratorTest {
+
+    @Test
+    public void testParallelScan() throws Exception {
+        final FundsMutationAgentJdbcRepository agents = TestContext.BUNDLE.fundsMutationAgents();
+        TestContext.ex(() -> {
+            TestContext.BUNDLE.clear(SourcingBundle.Repo.FUNDS_MUTATION_AGENTS);
+            for (int i = 0; i < 50; i++) {
+                agents.addAgent(FundsMutationAgent.builder().setName("Ranged" + i).build());
+            }
+        });
+        final String sql = SqlDialect.selectSql(agents.getTableName(), null, agents.getColumnNames(), agents.getJoins());
+
+        // ranges run on their own connections, so outside of the test transaction
+        final SourcingBundle.StreamStats before = TestContext.BUNDLE.getStreamStats();
+        final Set<String> names = IdRangeSpliterator.stream(agents, sql, "parallelScan", 4)
+                .parallel()
+                .map(agent -> agent.name)
+                .collect(Collectors.toSet());
+        assertEquals(50, names.size());
+        final SourcingBundle.StreamStats after = TestContext.BUNDLE.getStreamStats();
+        assertTrue("Scan wasn't split: " + after, after.opened - before.opened > 1);
+        assertEquals(before.getOpen(), after.getOpen());
+
+        final SourcingBundle.StreamStats sequential = TestContext.BUNDLE.getStreamStats();
+        assertEquals(50, IdRangeSpliterator.stream(agents, sql, "sequentialScan", 4).count());
+        assertEquals("Sequential scan must be a single query", sequential.opened + 1, TestContext.BUNDLE.getStreamStats().opened);
+    }
+
+    @Test
+    public void testNoSplitInTransaction() throws Exception {
+        final FundsMutationAgentJdbcRepository agents = TestContext.BUNDLE.fundsMutationAgents();
+        final String sql = SqlDialect.selectSql(agents.getTableName(), null, agents.getColumnNames(), agents.getJoins());
+        TestContext.ex(() -> {
+            TestContext.BUNDLE.clear(SourcingBundle.Repo.FUNDS_MUTATION_AGENTS);
+            for (int i = 0; i < 50; i++) {
+                agents.addAgent(FundsMutationAgent.builder().setName("Uncommitted" + i).build());
+            }
+
+            final SourcingBundle.StreamStats before = TestContext.BUNDLE.getStreamStats();
+            final Set<String> names = IdRangeSpliterator.stream(agents, sql, "transactionalScan", 4)
+                    .parallel()
+                    .map(agent -> agent.name)
+                    .collect(Collectors.toSet());
+            assertEquals("Uncommitted rows weren't seen", 50, names.size());
+            assertEquals("Scan was split inside transaction", before.opened + 1, TestContext.BUNDLE.getStreamStats().opened);
+        });
+    }
+
+    @Test
+    public void testEmptyTable() throws Exception {
+        final FundsMutationAgentJdbcRepository agents = TestContext.BUNDLE.fundsMutationAgents();
+        TestContext.ex(() -> TestContext.BUNDLE.clear(SourcingBundle.Repo.FUNDS_MUTATION_AGENTS));
+        final String sql = SqlDialect.selectSql(agents.getTableName(), null, agents.getColumnNames(), agents.getJoins());
+        assertEquals(0, IdRangeSpliterator.stream(agents, sql, "emptyScan", 4).parallel().count());
+    }
+
+}
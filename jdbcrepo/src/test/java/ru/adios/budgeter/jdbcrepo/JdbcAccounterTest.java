@@ -46,6 +46,11 @@ public class JdbcAccounterTest {
         TestContext.ex(tester::testStreamAllPostponingReasonsCompat);
     }
 
+    @Test
+    public void testStreamAllPostponingReasonsProcessed() throws Exception {
+        TestContext.ex(tester::testStreamAllPostponingReasonsProcessed);
+    }
+
     @Test
     public void testStreamAllPostponingReasonsEmptyCompat() throws Exception {
         TestContext.ex(tester::testStreamAllPostponingReasonsEmptyCompat);
@@ -47,4 +47,14 @@ public class PostponedCurrencyExchangeEventJdbcRepositoryTest {
         TestContext.ex(tester::testStreamRememberedExchanges);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testMarkEventsProcessed() throws Exception {
+        TestContext.ex(tester::testMarkEventsProcessed);
+    }
+
+    @Test
+    public void testRegisterAll() throws Exception {
+        TestContext.ex(tester::testRegisterAll);
+    }
+
+}
@@ -62,4 +62,14 @@ public class PostponedFundsMutationEventJdbcRepositoryTest {
         TestContext.ex(tester::testStreamRememberedEvents);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testMarkEventsProcessed() throws Exception {
+        TestContext.ex(tester::testMarkEventsProcessed);
+    }
+
+    @Test
+    public void testRegisterAll() throws Exception {
+        TestContext.ex(tester::testRegisterAll);
+    }
+
+}
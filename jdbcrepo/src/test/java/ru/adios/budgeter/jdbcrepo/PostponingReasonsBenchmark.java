@@ -0,0 +1,130 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter.jdbcrepo;
+
+import com.google.common.collect.ImmutableSet;
+import org.joda.money.CurrencyUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.adios.budgeter.api.Accounter;
+import ru.adios.budgeter.api.UtcDay;
+
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+/**
+ * Grouping of ordered postponing reasons rows into days: grouping spliterator against the previous
+ * filter/map pipeline with a sentinel row. Rows come from memory to measure grouping alone.
+ * Run {@link #main(String[])} from the test classpath, GC profiler reports allocation rate per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PostponingReasonsBenchmark {
+
+    private static final CurrencyUnit[] UNITS = {CurrencyUnit.AUD, CurrencyUnit.EUR, CurrencyUnit.GBP, CurrencyUnit.USD, CurrencyUnit.JPY};
+
+    @Param({"100", "10000"})
+    public int days;
+
+    private List<PostponingReasonsSpliterator.Row> rows;
+
+    @Setup
+    public void setUp() {
+        final UtcDay start = new UtcDay();
+        rows = new ArrayList<>(days * 3);
+        for (int i = 0; i < days; i++) {
+            final UtcDay day = new UtcDay(start.inner.plus(i, ChronoUnit.DAYS));
+            for (int j = 0; j <= i % 3; j++) {
+                rows.add(new PostponingReasonsSpliterator.Row(day, UNITS[(i + j) % UNITS.length]));
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Accounter.PostponingReasons> spliterator() {
+        return StreamSupport.stream(new PostponingReasonsSpliterator(rows.iterator()), false).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<Accounter.PostponingReasons> spliteratorParallel() {
+        return StreamSupport.stream(new PostponingReasonsSpliterator(rows.iterator()), true).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<Accounter.PostponingReasons> legacyPipeline() {
+        final ArrayList<PostponingReasonsSpliterator.Row> withSentinel = new ArrayList<>(rows.size() + 1);
+        withSentinel.addAll(rows);
+        withSentinel.add(new PostponingReasonsSpliterator.Row(new UtcDay(new UtcDay().inner.plus(100000, ChronoUnit.DAYS)), CurrencyUnit.USD));
+        final Iterator<PostponingReasonsSpliterator.Row> iterator = withSentinel.iterator();
+        final LegacyContext context = new LegacyContext();
+
+        final Iterable<PostponingReasonsSpliterator.Row> iterable = () -> iterator;
+        return StreamSupport.stream(iterable.spliterator(), false)
+                .filter(row -> {
+                    if (context.builder == null) {
+                        context.builder = ImmutableSet.builder();
+                        context.currentDay = row.day;
+                        context.builder.add(row.unit);
+                        return false;
+                    }
+                    if (!row.day.equals(context.currentDay)) {
+                        return true;
+                    } else {
+                        context.builder.add(row.unit);
+                        return false;
+                    }
+                })
+                .map(row -> {
+                    final Accounter.PostponingReasons reasons = new Accounter.PostponingReasons(context.currentDay, context.builder.build());
+                    if (iterator.hasNext()) {
+                        context.builder = ImmutableSet.builder();
+                        context.currentDay = row.day;
+                        context.builder.add(row.unit);
+                    }
+                    return reasons;
+                })
+                .collect(Collectors.toList());
+    }
+
+    private static final class LegacyContext {
+        private ImmutableSet.Builder<CurrencyUnit> builder;
+        private UtcDay currentDay;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(
+                new OptionsBuilder()
+                        .include(PostponingReasonsBenchmark.class.getSimpleName())
+                        .addProfiler(GCProfiler.class)
+                        .build()
+        ).run();
+    }
+
+}
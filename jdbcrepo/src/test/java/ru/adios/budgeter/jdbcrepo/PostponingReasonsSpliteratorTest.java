@@ -0,0 +1,83 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter.jdbcrepo;
+
+import com.google.common.collect.ImmutableSet;
+import org.joda.money.CurrencyUnit;
+import org.junit.Test;
+import ru.adios.budgeter.api.Accounter;
+import ru.adios.budgeter.api.UtcDay;
+
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.junit.Assert.assertEquals;
+
+public class PostponingReasonsSpliteratorTest {
+
+    private static final CurrencyUnit[] UNITS = {CurrencyUnit.AUD, CurrencyUnit.EUR, CurrencyUnit.GBP, CurrencyUnit.USD};
+
+    @Test
+    public void testGrouping() throws Exception {
+        final UtcDay first = new UtcDay();
+        final UtcDay second = new UtcDay(first.inner.plus(1, ChronoUnit.DAYS));
+        final List<PostponingReasonsSpliterator.Row> rows = new ArrayList<>();
+        rows.add(new PostponingReasonsSpliterator.Row(first, CurrencyUnit.EUR));
+        rows.add(new PostponingReasonsSpliterator.Row(first, CurrencyUnit.USD));
+        rows.add(new PostponingReasonsSpliterator.Row(first, CurrencyUnit.USD));
+        rows.add(new PostponingReasonsSpliterator.Row(second, CurrencyUnit.GBP));
+
+        final List<Accounter.PostponingReasons> reasons =
+                StreamSupport.stream(new PostponingReasonsSpliterator(rows.iterator()), false).collect(Collectors.toList());
+        assertEquals(2, reasons.size());
+        assertEquals(first, reasons.get(0).dayUtc);
+        assertEquals(ImmutableSet.of(CurrencyUnit.EUR, CurrencyUnit.USD), reasons.get(0).sufferingUnits);
+        assertEquals(second, reasons.get(1).dayUtc);
+        assertEquals(ImmutableSet.of(CurrencyUnit.GBP), reasons.get(1).sufferingUnits);
+
+        assertEquals(0, StreamSupport.stream(new PostponingReasonsSpliterator(Collections.emptyIterator()), false).count());
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        final UtcDay start = new UtcDay();
+        final int days = 5000;
+        final List<PostponingReasonsSpliterator.Row> rows = new ArrayList<>();
+        for (int i = 0; i < days; i++) {
+            final UtcDay day = new UtcDay(start.inner.plus(i, ChronoUnit.DAYS));
+            for (int j = 0; j <= i % UNITS.length; j++) {
+                rows.add(new PostponingReasonsSpliterator.Row(day, UNITS[j]));
+            }
+        }
+
+        final List<Accounter.PostponingReasons> reasons =
+                StreamSupport.stream(new PostponingReasonsSpliterator(rows.iterator()), true).collect(Collectors.toList());
+        assertEquals(days, reasons.size());
+        for (int i = 0; i < days; i++) {
+            final Accounter.PostponingReasons r = reasons.get(i);
+            assertEquals(new UtcDay(start.inner.plus(i, ChronoUnit.DAYS)), r.dayUtc);
+            assertEquals("Day " + i + " was split", i % UNITS.length + 1, r.sufferingUnits.size());
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter.jdbcrepo;
+
+import org.joda.money.CurrencyUnit;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.adios.budgeter.api.UtcDay;
+
+import static org.junit.Assert.assertEquals;
+
+public class PostponingReasonsTableTest {
+
+    private static final PostponingReasonsTable REASONS = PostponedCurrencyExchangeEventJdbcRepository.REASONS;
+
+    @Test
+    public void testAdd() throws Exception {
+        TestContext.ex(() -> {
+            final PostponedCurrencyExchangeEventJdbcRepository repo =
+                    (PostponedCurrencyExchangeEventJdbcRepository) TestContext.BUNDLE.postponedCurrencyExchangeEvents();
+            final JdbcTemplate jdbcTemplate = repo.getJdbcConnector().getJdbcTemplate();
+            final SqlDialect sqlDialect = repo.getSqlDialect();
+            jdbcTemplate.update("DELETE FROM " + REASONS.tableName);
+            final UtcDay day = new UtcDay();
+
+            REASONS.add(jdbcTemplate, sqlDialect, day, CurrencyUnit.USD, -1);
+            assertEquals("Decrement of absent key created a row", 0, rowsCount(jdbcTemplate));
+
+            REASONS.add(jdbcTemplate, sqlDialect, day, CurrencyUnit.USD, 1);
+            REASONS.add(jdbcTemplate, sqlDialect, day, CurrencyUnit.USD, 2);
+            REASONS.add(jdbcTemplate, sqlDialect, day, CurrencyUnit.EUR, 1);
+            assertEquals(2, rowsCount(jdbcTemplate));
+            assertEquals(3, refcount(jdbcTemplate, CurrencyUnit.USD));
+
+            REASONS.add(jdbcTemplate, sqlDialect, day, CurrencyUnit.USD, -2);
+            assertEquals(1, refcount(jdbcTemplate, CurrencyUnit.USD));
+            REASONS.add(jdbcTemplate, sqlDialect, day, CurrencyUnit.USD, -1);
+            assertEquals("Empty row wasn't removed", 1, rowsCount(jdbcTemplate));
+        });
+    }
+
+    private static int rowsCount(JdbcTemplate jdbcTemplate) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + REASONS.tableName, Integer.class);
+    }
+
+    private static int refcount(JdbcTemplate jdbcTemplate, CurrencyUnit unit) {
+        return jdbcTemplate.queryForObject(
+                "SELECT " + PostponingReasonsTable.COL_REFCOUNT + " FROM " + REASONS.tableName + " WHERE " + PostponingReasonsTable.COL_CURRENCY_UNIT + " = ?",
+                Integer.class,
+                unit.getNumericCode()
+        );
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter.jdbcrepo;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import ru.adios.budgeter.api.OptLimit;
+import ru.adios.budgeter.api.data.FundsMutationAgent;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class PreparedStatementCacheTest {
+
+    @Test
+    public void testReuse() throws Exception {
+        TestContext.ex(() -> {
+            TestContext.BUNDLE.clear(SourcingBundle.Repo.FUNDS_MUTATION_AGENTS);
+            final FundsMutationAgentJdbcRepository agents = TestContext.BUNDLE.fundsMutationAgents();
+            agents.addAgent(FundsMutationAgent.builder().setName("Cached").build());
+
+            final SourcingBundle.StatementCacheStats before = TestContext.BUNDLE.getStatementCacheStats();
+            for (int i = 0; i < 10; i++) {
+                assertTrue(agents.findByName("Cached").isPresent());
+                agents.addAgent(FundsMutationAgent.builder().setName("Cached" + i).build());
+            }
+            final SourcingBundle.StatementCacheStats after = TestContext.BUNDLE.getStatementCacheStats();
+            assertTrue("Statements weren't reused: " + after, after.hits - before.hits >= 18);
+        });
+    }
+
+    @Test
+    public void testNestedSameSql() throws Exception {
+        TestContext.ex(() -> {
+            TestContext.BUNDLE.clear(SourcingBundle.Repo.FUNDS_MUTATION_AGENTS);
+            final FundsMutationAgentJdbcRepository agents = TestContext.BUNDLE.fundsMutationAgents();
+            agents.addAgent(FundsMutationAgent.builder().setName("First").build());
+            agents.addAgent(FundsMutationAgent.builder().setName("Second").build());
+
+            // inner stream runs the same SQL on the same connection while outer one is being read
+            final List<Long> counts = agents.streamAll()
+                    .map(agent -> agents.streamAll().count())
+                    .collect(Collectors.toList());
+            assertEquals(2, counts.size());
+            assertEquals(2L, counts.get(0).longValue());
+            assertEquals(2L, counts.get(1).longValue());
+        });
+    }
+
+    @Test
+    public void testStreamHintsReset() throws Exception {
+        TestContext.ex(() -> {
+            TestContext.BUNDLE.clear(SourcingBundle.Repo.FUNDS_MUTATION_AGENTS);
+            final FundsMutationAgentJdbcRepository agents = TestContext.BUNDLE.fundsMutationAgents();
+            for (int i = 0; i < 3; i++) {
+                agents.addAgent(FundsMutationAgent.builder().setName("Hinted" + i).build());
+            }
+
+            // same SQL as streamAll() so the tuned statement is the one reused there
+            final String sql = SqlDialect.selectSql(agents.getTableName(), null, agents.getColumnNames(), agents.getJoins());
+            final StreamHints hints = StreamHints.forDialect(agents.getSqlDialect(), OptLimit.createLimit(1));
+            assertEquals(1, hints.maxRows);
+            assertEquals("Max rows weren't applied", 1L,
+                    LazyResultSetIterator.stream(Common.getRsSupplier(agents.getJdbcConnector(), sql, "hinted", hints), rs -> 1).count());
+            assertEquals("Max rows leaked to the next statement user", 3L, agents.streamAll().count());
+        });
+    }
+
+    @Test
+    public void testBatchCleared() throws Exception {
+        TestContext.ex(() -> {
+            TestContext.BUNDLE.clear(SourcingBundle.Repo.FUNDS_MUTATION_AGENTS);
+            final FundsMutationAgentJdbcRepository agents = TestContext.BUNDLE.fundsMutationAgents();
+            final SafeJdbcConnector jdbcConnector = agents.getJdbcConnector();
+
+            // batch insert failing after a row was queued, the statement goes back to cache
+            try {
+                jdbcConnector.getJdbcTemplate().execute(
+                        Common.cached(jdbcConnector, agents.getInsertSql(false)),
+                        (PreparedStatementCallback<Object>) statement -> {
+                            Common.setInsertParameters(agents, statement, FundsMutationAgent.builder().setName("Queued").build(), false);
+                            statement.addBatch();
+                            throw new SQLException("Failure in the middle of a batch");
+                        }
+                );
+                fail("Batch didn't fail");
+            } catch (DataAccessException ignore) {
+            }
+
+            agents.registerAll(ImmutableList.of(
+                    FundsMutationAgent.builder().setName("First").build(),
+                    FundsMutationAgent.builder().setName("Second").build()
+            ));
+            assertEquals("Queued row of the failed batch was inserted", 2L, agents.streamAll().count());
+            assertFalse(agents.findByName("Queued").isPresent());
+        });
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ *
+ *  * Copyright 2015 Michael Kulikov
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package ru.adios.budgeter.jdbcrepo;
+
+import org.junit.Test;
+import ru.adios.budgeter.api.data.FundsMutationAgent;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StreamLeakTrackerTest {
+
+    @Test
+    public void testLeakedStreamReleased() throws Exception {
+        TestContext.BUNDLE.setStreamLeakDetection(true);
+        try {
+            TestContext.ex(() -> {
+                TestContext.BUNDLE.clear(SourcingBundle.Repo.FUNDS_MUTATION_AGENTS);
+                final FundsMutationAgentJdbcRepository agents = TestContext.BUNDLE.fundsMutationAgents();
+                agents.addAgent(FundsMutationAgent.builder().setName("Leaky1").build());
+                agents.addAgent(FundsMutationAgent.builder().setName("Leaky2").build());
+
+                final SourcingBundle.StreamStats before = TestContext.BUNDLE.getStreamStats();
+                assertEquals(2, agents.streamAll().count());
+                readOneAndAbandon(agents);
+
+                SourcingBundle.StreamStats after = TestContext.BUNDLE.getStreamStats();
+                for (int i = 0; i < 100 && after.leaked == before.leaked; i++) {
+                    System.gc();
+                    Thread.sleep(10);
+                    after = TestContext.BUNDLE.getStreamStats();
+                }
+                assertEquals("Abandoned stream wasn't reclaimed: " + after, before.leaked + 1, after.leaked);
+                assertEquals(before.opened + 2, after.opened);
+                assertEquals(before.closed + 1, after.closed);
+                assertEquals(before.getOpen(), after.getOpen());
+            });
+        } finally {
+            TestContext.BUNDLE.setStreamLeakDetection(false);
+        }
+    }
+
+    @Test
+    public void testLeakedConnectionReclaimedBeforeAcquire() throws Exception {
+        final FundsMutationAgentJdbcRepository agents = TestContext.BUNDLE.fundsMutationAgents();
+        TestContext.ex(() -> {
+            TestContext.BUNDLE.clear(SourcingBundle.Repo.FUNDS_MUTATION_AGENTS);
+            agents.addAgent(FundsMutationAgent.builder().setName("Leaky1").build());
+            agents.addAgent(FundsMutationAgent.builder().setName("Leaky2").build());
+        });
+
+        // outside of transaction the abandoned stream holds the only pooled connection
+        final WeakReference<?> abandoned = readOneAndAbandon(agents);
+        for (int i = 0; i < 100 && abandoned.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("Abandoned stream wasn't collected", abandoned.get());
+        Thread.sleep(50); // let the reference handler enqueue it
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Long> count = executor.submit(() -> agents.streamAll().count());
+            assertEquals("Stream got a connection", 2L, count.get(10, TimeUnit.SECONDS).longValue());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static WeakReference<?> readOneAndAbandon(FundsMutationAgentJdbcRepository agents) {
+        final Stream<FundsMutationAgent> stream = agents.streamAll();
+        final Iterator<FundsMutationAgent> iterator = stream.iterator();
+        assertTrue(iterator.hasNext());
+        iterator.next();
+        return new WeakReference<>(stream);
+    }
+
+}
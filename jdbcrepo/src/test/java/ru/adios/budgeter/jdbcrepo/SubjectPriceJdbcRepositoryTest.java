@@ -67,4 +67,9 @@ public class SubjectPriceJdbcRepositoryTest {
         TestContext.ex(tester::testCount);
     }
 
+    @Test
+    public void testRegisterAll() throws Exception {
+        TestContext.ex(tester::testRegisterAll);
+    }
+
 }